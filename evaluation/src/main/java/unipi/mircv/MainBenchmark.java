@@ -0,0 +1,287 @@
+package unipi.mircv;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Scanner;
+
+/**
+ * The MainBenchmark class compares the latency of the document processors on a collection of queries. Every
+ * processor runs all the queries once to warm up the JVM and the caches of the index, then a second time to measure
+ * the latency of each query. The result cache is bypassed, and the top-k of every processor is compared with the one
+ * of the first processor, which should be the exhaustive DAAT.
+ * In the approximate mode a single processor is run with increasing pruning factors F, reporting for each one the
+ * recall of the top-k documents of F = 1, which are exact, and the speedup over F = 1.
+ * In the sharded mode every processor is run on the main index and then on all the shards of the sharded index at the
+ * same time, whose top-k is compared with the one of the main index.
+ */
+public class MainBenchmark {
+
+    private final MainQueries mainQueries;
+    private final ArrayList<String[]> queries; // terms of the queries after parsing
+    private final int k;
+    private final String scoreType;
+    private final String queryType;
+    private final String encodingType;
+
+    /**
+     * Constructor for MainBenchmark class, loading the index and parsing the queries.
+     *
+     * @param file             The path to the file containing the queries (formatted as qid \t query)
+     * @param k                Number of top results to retrieve
+     * @param scoreType        Type of document scoring (tfidf, bm25)
+     * @param queryType        Type of relation (conjunctive or disjunctive)
+     * @param stopwordStemming Flag for enabling or disabling stopwords removal and stemming
+     * @param encodingType     Encoding type of the index
+     */
+    public MainBenchmark(String file, int k, String scoreType, String queryType, boolean stopwordStemming, String encodingType) {
+        this.k = k;
+        this.scoreType = scoreType;
+        this.queryType = queryType;
+        this.encodingType = encodingType;
+        this.mainQueries = new MainQueries(k, scoreType, "daat", queryType, stopwordStemming, encodingType);
+        this.queries = new ArrayList<>();
+
+        try (Scanner myReader = new Scanner(new File(file), StandardCharsets.UTF_8)) {
+            while (myReader.hasNextLine()) {
+                String[] line = myReader.nextLine().split("\t", 2);
+                if (line.length == 2) {
+                    queries.add(mainQueries.parser.processDocument(line[1], stopwordStemming).split(" "));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("*** The file is not found. Please try again. ***");
+            e.printStackTrace();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs all the queries with a document processor, returning their results.
+     *
+     * @param documentProcessor How to process the posting lists
+     * @param latencies         Array in which the latency of each query is stored, in nanoseconds, or null
+     * @return The results of the queries, sorted by decreasing score
+     */
+    public ArrayList<ArrayList<DocsRanked>> run(String documentProcessor, long[] latencies) {
+        return run(documentProcessor, latencies, 1);
+    }
+
+    /**
+     * Runs all the queries with a document processor and a pruning factor, returning their results.
+     *
+     * @param documentProcessor How to process the posting lists
+     * @param latencies         Array in which the latency of each query is stored, in nanoseconds, or null
+     * @param pruningFactor     Factor F >= 1 of the pruning threshold
+     * @return The results of the queries, sorted by decreasing score
+     */
+    public ArrayList<ArrayList<DocsRanked>> run(String documentProcessor, long[] latencies, double pruningFactor) {
+        ArrayList<ArrayList<DocsRanked>> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            TopKHeap scores = mainQueries.computeScores(queries.get(i), k, scoreType, documentProcessor, queryType, encodingType, Deadline.NONE, pruningFactor);
+            long end = System.nanoTime();
+            if (latencies != null) latencies[i] = end - start;
+            results.add(scores.getSortedResults());
+        }
+        return results;
+    }
+
+    /**
+     * Counts the queries whose top-k differs from the reference one. Documents with the same score can be ranked
+     * in a different order, and the sums of the scores can differ in the last digits when the terms are added in a
+     * different order, so the scores are compared with a small tolerance and the documents only above the k-th score.
+     *
+     * @param reference The results of the reference processor
+     * @param results   The results to compare
+     * @return The number of queries with a different top-k
+     */
+    public static int countMismatches(ArrayList<ArrayList<DocsRanked>> reference, ArrayList<ArrayList<DocsRanked>> results) {
+        int mismatches = 0;
+        for (int i = 0; i < reference.size(); i++) {
+            ArrayList<DocsRanked> expected = reference.get(i);
+            ArrayList<DocsRanked> actual = results.get(i);
+            boolean same = expected.size() == actual.size();
+            for (int j = 0; same && j < expected.size(); j++) {
+                same = Math.abs(expected.get(j).getValue() - actual.get(j).getValue()) <= 1e-9 * Math.abs(expected.get(j).getValue());
+            }
+            if (same && !expected.isEmpty()) {
+                double last = expected.get(expected.size() - 1).getValue();
+                same = aboveScore(expected, last).equals(aboveScore(actual, last));
+            }
+            if (!same) mismatches++;
+        }
+        return mismatches;
+    }
+
+    /**
+     * Computes the mean recall@k of the results: for each query, the fraction of the reference top-k documents that
+     * are also in the top-k of the results. Queries without results in the reference count as fully recalled.
+     *
+     * @param reference The exact results
+     * @param results   The results to evaluate
+     * @return The mean recall over the queries
+     */
+    public static double recall(ArrayList<ArrayList<DocsRanked>> reference, ArrayList<ArrayList<DocsRanked>> results) {
+        double recall = 0;
+        for (int i = 0; i < reference.size(); i++) {
+            ArrayList<DocsRanked> expected = reference.get(i);
+            if (expected.isEmpty()) {
+                recall += 1;
+                continue;
+            }
+            HashSet<Integer> found = new HashSet<>();
+            for (DocsRanked doc : results.get(i)) found.add(doc.getKey());
+            int recalled = 0;
+            for (DocsRanked doc : expected) {
+                if (found.contains(doc.getKey())) recalled++;
+            }
+            recall += (double) recalled / expected.size();
+        }
+        return reference.isEmpty() ? 1 : recall / reference.size();
+    }
+
+    // Returns the sorted docIds of the documents with a score clearly greater than the given one.
+    private static ArrayList<Integer> aboveScore(ArrayList<DocsRanked> ranking, double score) {
+        ArrayList<Integer> docIds = new ArrayList<>();
+        for (DocsRanked doc : ranking) {
+            if (doc.getValue() - score > 1e-9 * Math.abs(score)) docIds.add(doc.getKey());
+        }
+        docIds.sort(null);
+        return docIds;
+    }
+
+    /**
+     * Prints the latency statistics of a processor.
+     *
+     * @param documentProcessor The name of the processor
+     * @param latencies         The latency of each query, in nanoseconds
+     * @param mismatches        The number of queries with a top-k different from the reference
+     */
+    public static void printLatencies(String documentProcessor, long[] latencies, int mismatches) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double total = 0;
+        for (long latency : sorted) total += latency;
+        System.out.printf("%-10s mean %8.3f ms  p50 %8.3f ms  p95 %8.3f ms  p99 %8.3f ms  QPS %9.2f  mismatches %d%n",
+                documentProcessor, total / sorted.length / 1e6, percentile(sorted, 50), percentile(sorted, 95),
+                percentile(sorted, 99), sorted.length / (total / 1e9), mismatches);
+    }
+
+    /**
+     * Prints the latency statistics of a processor with a pruning factor, with its recall@k and its speedup.
+     *
+     * @param documentProcessor The name of the processor
+     * @param pruningFactor     The pruning factor
+     * @param latencies         The latency of each query, in nanoseconds
+     * @param exactLatencies    The latency of each query with a pruning factor of 1, in nanoseconds
+     * @param recall            The mean recall@k of the top-k of the pruning factor 1
+     */
+    public static void printApproximation(String documentProcessor, double pruningFactor, long[] latencies, long[] exactLatencies, double recall) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double total = 0;
+        double exactTotal = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            total += latencies[i];
+            exactTotal += exactLatencies[i];
+        }
+        System.out.printf("%-10s F %5.2f  mean %8.3f ms  p50 %8.3f ms  p95 %8.3f ms  speedup %6.2fx  recall@k %.4f%n",
+                documentProcessor, pruningFactor, total / sorted.length / 1e6, percentile(sorted, 50),
+                percentile(sorted, 95), exactTotal / total, recall);
+    }
+
+    // Returns the given percentile of the sorted latencies, in milliseconds.
+    private static double percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    public int getNumQueries() {
+        return queries.size();
+    }
+
+    /**
+     * The main method to run the benchmark.
+     *
+     * @param args Optional: the score type (bm25/tfidf), the query type (disjunctive/conjunctive), k, and the
+     *             document processors to compare, the first being the reference (default daat maxscore wand bmw bmm);
+     *             or, after k, "approximate", the processor and the pruning factors to evaluate (default maxscore
+     *             1 1.1 1.25 1.5 2); or, after k, "sharded" and the processors to run on the main index and on the
+     *             shards (default daat maxscore wand bmw bmm)
+     */
+    public static void main(String[] args) {
+        System.out.println("*** MAIN BENCHMARK ***");
+        String file = "resources/queries/msmarco-test2020-queries.tsv";
+        String scoreType = args.length > 0 ? args[0] : "bm25";
+        String queryType = args.length > 1 ? args[1] : "disjunctive";
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String[] processors = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : new String[]{"daat", "maxscore", "wand", "bmw", "bmm"};
+
+        System.out.println("\n*** LOADING STRUCTURES .... ***\n");
+        MainBenchmark benchmark = new MainBenchmark(file, k, scoreType, queryType, true, "byte");
+        System.out.println("*** " + benchmark.getNumQueries() + " queries, " + scoreType + ", " + queryType + ", k=" + k + " ***");
+
+        if (processors[0].equals("approximate")) {
+            String processor = processors.length > 1 ? processors[1] : "maxscore";
+            double[] pruningFactors = processors.length > 2
+                    ? Arrays.stream(processors, 2, processors.length).mapToDouble(Double::parseDouble).toArray()
+                    : new double[]{1, 1.1, 1.25, 1.5, 2};
+
+            // The top-k of the pruning factor 1 are exact, and its latency the baseline of the speedup. Every factor
+            // is warmed up before any measure, so that the baseline is not penalized by running first
+            for (double pruningFactor : pruningFactors) {
+                benchmark.run(processor, null, pruningFactor); // warm up
+            }
+            benchmark.run(processor, null, 1);
+            long[] exactLatencies = new long[benchmark.getNumQueries()];
+            ArrayList<ArrayList<DocsRanked>> exact = benchmark.run(processor, exactLatencies, 1);
+            for (double pruningFactor : pruningFactors) {
+                if (pruningFactor == 1) {
+                    printApproximation(processor, pruningFactor, exactLatencies, exactLatencies, 1);
+                    continue;
+                }
+                long[] latencies = new long[benchmark.getNumQueries()];
+                ArrayList<ArrayList<DocsRanked>> results = benchmark.run(processor, latencies, pruningFactor);
+                printApproximation(processor, pruningFactor, latencies, exactLatencies, recall(exact, results));
+            }
+            return;
+        }
+
+        if (processors[0].equals("sharded")) {
+            String[] shardedProcessors = processors.length > 1
+                    ? Arrays.copyOfRange(processors, 1, processors.length)
+                    : new String[]{"daat", "maxscore", "wand", "bmw", "bmm"};
+            if (!benchmark.mainQueries.queryProcessor.openShards()) return;
+
+            for (String processor : shardedProcessors) {
+                benchmark.mainQueries.sharded = false;
+                benchmark.run(processor, null); // warm up
+                long[] latencies = new long[benchmark.getNumQueries()];
+                ArrayList<ArrayList<DocsRanked>> results = benchmark.run(processor, latencies);
+                printLatencies(processor, latencies, 0);
+
+                benchmark.mainQueries.sharded = true;
+                benchmark.run(processor, null); // warm up
+                long[] shardedLatencies = new long[benchmark.getNumQueries()];
+                ArrayList<ArrayList<DocsRanked>> shardedResults = benchmark.run(processor, shardedLatencies);
+                printLatencies(processor + "/sh", shardedLatencies, countMismatches(results, shardedResults));
+            }
+            return;
+        }
+
+        ArrayList<ArrayList<DocsRanked>> reference = null;
+        for (String processor : processors) {
+            benchmark.run(processor, null); // warm up
+            long[] latencies = new long[benchmark.getNumQueries()];
+            ArrayList<ArrayList<DocsRanked>> results = benchmark.run(processor, latencies);
+            if (reference == null) reference = results;
+            printLatencies(processor, latencies, countMismatches(reference, results));
+        }
+    }
+}
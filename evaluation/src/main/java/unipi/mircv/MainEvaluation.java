@@ -6,11 +6,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
 import java.util.Scanner;
-import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static unipi.mircv.Parameters.EVALUATION_RESULTS;
+import static unipi.mircv.Parameters.EVALUATION_THREADS;
 
 /**
  * The MainEvaluation class manages the evaluation process by processing a collection of queries
@@ -49,8 +53,10 @@ public class MainEvaluation {
      * Processes a collection of queries from a specified file.
      *
      * @param file The path to the file containing queries
+     * @return The number of queries processed
      */
-    public void processCollection(String file) {
+    public int processCollection(String file) {
+        int counter = 0;
         try {
             File myFile = new File(file);
             Scanner myReader;
@@ -58,7 +64,6 @@ public class MainEvaluation {
             Boolean stopwordStemming= Boolean.valueOf("true");
             String encodingType="byte";
             MainQueries mainQueries = new MainQueries(20, "bm25", "maxscore", "disjunctive", stopwordStemming, encodingType);
-            int counter = 0;
             while (myReader.hasNextLine()) {
                 System.out.println("Processing Query number: " + counter);
                 String[] line = myReader.nextLine().split("\t", 2); // Reads and splits the line (formatted as docNo \t document)
@@ -79,6 +84,64 @@ public class MainEvaluation {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return counter;
+    }
+
+    /**
+     * Processes a collection of queries from a specified file with a pool of worker threads sharing the same index.
+     * The results are written to the output file in the same order of the queries in the file, without printing them.
+     *
+     * @param file    The path to the file containing queries
+     * @param threads The number of worker threads
+     * @return The number of queries whose results were written, less than the queries in the file if one failed
+     */
+    public int processCollectionParallel(String file, int threads) {
+        ArrayList<Integer> qids = new ArrayList<>();
+        ArrayList<String> queries = new ArrayList<>();
+        try (Scanner myReader = new Scanner(new File(file), StandardCharsets.UTF_8)) {
+            while (myReader.hasNextLine()) {
+                String[] line = myReader.nextLine().split("\t", 2); // Reads and splits the line (formatted as qid \t query)
+                if (line.length != 2) continue; // Skips the lines without a query
+                try {
+                    qids.add(Integer.parseInt(line[0]));
+                    queries.add(line[1]);
+                } catch (NumberFormatException e) {
+                    // Skips the lines without a valid qid
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("*** The file is not found. Please try again. ***");
+            e.printStackTrace();
+            return 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        boolean stopwordStemming = true;
+        String encodingType = "byte";
+        MainQueries mainQueries = new MainQueries(20, "bm25", "maxscore", "disjunctive", stopwordStemming, encodingType);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        int written = 0;
+        try {
+            ArrayList<Future<ArrayList<DocsRanked>>> results = new ArrayList<>(queries.size());
+            for (String query : queries) {
+                results.add(workers.submit(() -> mainQueries.processQuery(query, stopwordStemming, encodingType).getSortedResults()));
+            }
+            // Waits for the results in the original order, so the output file does not depend on the scheduling
+            for (int i = 0; i < results.size(); i++) {
+                writeResults(qids.get(i), results.get(i).get(), mainQueries);
+                written++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("*** Error during the processing of the queries. ***");
+            e.printStackTrace();
+        } finally {
+            workers.shutdownNow();
+            writer.close();
+        }
+        return written;
     }
 
     /**
@@ -91,21 +154,17 @@ public class MainEvaluation {
      * @param encodingType     Encoding type for processing the query
      */
     public void processQuery(String query, int qid, MainQueries mainQueries, boolean stopwordStemming, String encodingType ) {
-        PQueue results = mainQueries.processQuery(query,stopwordStemming,encodingType);
+        TopKHeap results = mainQueries.processQuery(query,stopwordStemming,encodingType);
         results.printResults();
+        writeResults(qid, results.getSortedResults(), mainQueries);
+    }
 
-        PriorityQueue<DocsRanked> queue = results.getQueue();
-        Stack<DocsRanked> stack = new Stack<>();
-
-        // Iterate through the priority queue and add each element to the stack
-        while (!queue.isEmpty()) {
-            stack.push(queue.poll());
-        }
-
+    // Writes the results of a query, already sorted by decreasing score, to the output file, identifying the
+    // documents by their docNo in the collection.
+    private void writeResults(int qid, ArrayList<DocsRanked> results, MainQueries mainQueries) {
         int position = 1;
-        while (!stack.isEmpty()) {
-            DocsRanked fs = stack.pop();
-            writer.println(qid + " " + "Q0" + " " + fs.getKey() + " " + position + " " + fs.getValue() + " " + "runid1");
+        for (DocsRanked fs : results) {
+            writer.println(qid + " " + "Q0" + " " + mainQueries.getDocNo(fs.getKey()) + " " + position + " " + fs.getValue() + " " + "runid1");
             position += 1;
         }
     }
@@ -113,6 +172,8 @@ public class MainEvaluation {
     /**
      * The main method for running the evaluation process.
      *
+     * @param args Optional "parallel" to process the queries with EVALUATION_THREADS workers, optionally followed by
+     *             the number of workers
      */
     public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("*** MAIN EVALUATION ***");
@@ -120,9 +181,17 @@ public class MainEvaluation {
 
         MainEvaluation eval = new MainEvaluation();
         long start = System.currentTimeMillis();
-        eval.processCollection(file);
+        int numQueries;
+        if (args.length > 0 && args[0].equals("parallel")) {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : EVALUATION_THREADS;
+            System.out.println("*** PARALLEL EVALUATION WITH " + threads + " THREADS ***");
+            numQueries = eval.processCollectionParallel(file, threads);
+        } else {
+            numQueries = eval.processCollection(file);
+        }
         long end = System.currentTimeMillis();
         System.out.println("*** Time in milliseconds: " + (end - start)+ " ***");
+        System.out.println("*** Queries per second: " + String.format("%.2f", numQueries * 1000.0 / Math.max(1, end - start)) + " ***");
     }
 
 
@@ -3,6 +3,7 @@ package unipi.mircv;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -58,6 +59,31 @@ public class Compressor {
             return decoded;
         }
 
+    /**
+     * Decodes a sequence of encoded integers from a buffer, stopping when the requested number of integers has been
+     * decoded or the buffer has no more bytes.
+     *
+     * @param buffer  The buffer containing the encoded integers.
+     * @param count   The number of integers to decode.
+     * @param numbers The array in which the decoded integers are stored.
+     * @return The number of decoded integers.
+     */
+        public int decode(ByteBuffer buffer, int count, int[] numbers){
+            int decoded = 0;
+            int n = 0;
+            while(n < count && buffer.hasRemaining()){
+                int number = buffer.get() & 0xFF;
+                if (number < 128){
+                    decoded = 128 * decoded + number;
+                }
+                else{
+                    numbers[n++] = 128 * decoded + number - 128;
+                    decoded = 0;
+                }
+            }
+            return n;
+        }
+
     /**
      * Reads bytes from a BufferedInputStream and returns the decoded integer.
      *
@@ -65,21 +91,18 @@ public class Compressor {
      * @return The decoded integer.
      */
         public int readBytes(BufferedInputStream file){
-            ArrayList<Integer> bytes = new ArrayList<>();
             int byteRead;
             int decoded = 0;
             try{
-                // Continue reading until the end of the file or the end of the encoded integer
+                // Continue reading until the end of the file or the end of the encoded integer, decoding on the fly
                 while(true){
                     byteRead = file.read();
-                    if(byteRead == -1) break;
-                    bytes.add(byteRead);
+                    if(byteRead == -1) return -1;
                     if(byteRead >= 128){
-                        break;
+                        return 128 * decoded + byteRead - 128;
                     }
+                    decoded = 128 * decoded + byteRead;
                 }
-                if (byteRead != -1) decoded = decode(bytes);
-                else decoded = -1;
             }catch (IOException e){
                 e.printStackTrace();
             }
@@ -0,0 +1,110 @@
+package unipi.mircv;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * Writes the forward index of the collection while the documents are indexed: for each docId the list of its distinct
+ * terms with their frequencies, so that the terms of a document can be read back without parsing it again.
+ * The terms are numbered in order of first appearance and the numbering is written to the terms file, one term per
+ * line. The entry of a document holds its term ids by increasing value, stored as differences from the previous one,
+ * each followed by its frequency, all VByte-compressed whatever the encoding type of the inverted index. The offsets
+ * file is a fixed-width array addressed by docId: for each document the offset of its entry (a long) and its number
+ * of distinct terms (an int).
+ */
+public class ForwardIndexWriter {
+
+    private final HashMap<String, Integer> termIds; // id of each term of the collection
+    private final TextWriter termsWriter;
+    private final ByteWriter entriesWriter;
+    private DataOutputStream offsetsWriter;
+    private long offset; // offset of the next entry in the entries file
+    private int nextDocId; // the documents must be added by increasing docId, without gaps
+
+    /**
+     * Creates the files of the forward index.
+     */
+    public ForwardIndexWriter() {
+        new File(FORWARD_ENTRIES_PATH).getParentFile().mkdirs();
+        this.termIds = new HashMap<>();
+        this.termsWriter = new TextWriter(FORWARD_TERMS_PATH);
+        this.entriesWriter = new ByteWriter(FORWARD_ENTRIES_PATH, new Compressor());
+        try {
+            this.offsetsWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FORWARD_OFFSETS_PATH)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the entry of the next document.
+     *
+     * @param docId   The docId of the document, following the one of the previous document.
+     * @param counter The frequency of each distinct term of the document.
+     */
+    public void addDocument(int docId, HashMap<String, Integer> counter) {
+        if (docId != nextDocId) {
+            throw new IllegalArgumentException("Documents must be added to the forward index by increasing docId: expected "
+                    + nextDocId + ", got " + docId);
+        }
+        nextDocId++;
+
+        // Number the new terms and sort the entries of the document by term id
+        long[] entries = new long[counter.size()];
+        int n = 0;
+        for (Map.Entry<String, Integer> entry : counter.entrySet()) {
+            Integer termId = termIds.get(entry.getKey());
+            if (termId == null) {
+                termId = termIds.size();
+                termIds.put(entry.getKey(), termId);
+                termsWriter.write(entry.getKey() + "\n");
+            }
+            entries[n++] = ((long) termId << 32) | entry.getValue();
+        }
+        Arrays.sort(entries);
+
+        try {
+            offsetsWriter.writeLong(offset);
+            offsetsWriter.writeInt(n);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        int previousTermId = 0;
+        for (long entry : entries) {
+            int termId = (int) (entry >>> 32);
+            offset += entriesWriter.write(termId - previousTermId);
+            offset += entriesWriter.write((int) entry);
+            previousTermId = termId;
+        }
+    }
+
+    /**
+     * Returns the number of distinct terms numbered so far.
+     *
+     * @return The number of terms of the forward index.
+     */
+    public int getTerms() {
+        return termIds.size();
+    }
+
+    /**
+     * Closes the files of the forward index.
+     */
+    public void close() {
+        termsWriter.close();
+        entriesWriter.close();
+        try {
+            offsetsWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package unipi.mircv;
+
+import java.io.File;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The paths of the files of a docId-ordered inverted index: lexicon, docIds, frequencies, last docIds and skip
+ * pointers. The main index contains all the postings; the tiers of the tiered index and the shards of the sharded
+ * index have the same layout and share the document index and the statistics of the main index.
+ * The paths of the posting files are without extension, which depends on the encoding type.
+ */
+public class IndexPaths {
+
+    public final String lexicon;
+    public final String docIds;
+    public final String freq;
+    public final String lastDocIds;
+    public final String skipPointers;
+
+    // The main index, with all the postings
+    public static final IndexPaths MAIN = new IndexPaths(LEXICON_PATH, DOCID_PATH, FREQ_PATH, LASTDOCID_PATH, SKIPPOINTERS_PATH);
+
+    public IndexPaths(String lexicon, String docIds, String freq, String lastDocIds, String skipPointers) {
+        this.lexicon = lexicon;
+        this.docIds = docIds;
+        this.freq = freq;
+        this.lastDocIds = lastDocIds;
+        this.skipPointers = skipPointers;
+    }
+
+    /**
+     * Returns the paths of a tier of the tiered index, all in the directory of the tier.
+     *
+     * @param tier The number of the tier, starting from 1.
+     * @return The paths of the tier.
+     */
+    public static IndexPaths tier(int tier) {
+        String directory = TIERS_PATH + "tier" + tier + "/";
+        return new IndexPaths(directory + "lexicon.txt", directory + "docIds", directory + "freq",
+                directory + "lastDocIds", directory + "skipPointers");
+    }
+
+    /**
+     * Returns the paths of a shard of the sharded index, all in the directory of the shard.
+     *
+     * @param shard The number of the shard, starting from 0.
+     * @return The paths of the shard.
+     */
+    public static IndexPaths shard(int shard) {
+        String directory = SHARDS_PATH + "shard" + shard + "/";
+        return new IndexPaths(directory + "lexicon.txt", directory + "docIds", directory + "freq",
+                directory + "lastDocIds", directory + "skipPointers");
+    }
+
+    /**
+     * Creates the directories of the files, which may not exist yet for the optional layouts.
+     */
+    public void createDirectories() {
+        for (String path : new String[]{lexicon, docIds, freq, lastDocIds, skipPointers}) {
+            new File(path).getParentFile().mkdirs();
+        }
+    }
+
+    /**
+     * Checks if the index has been written with the given encoding.
+     *
+     * @param encodingType The encoding type, either "text" or "byte".
+     * @return True if the lexicon and the posting files exist, false otherwise.
+     */
+    public boolean exists(String encodingType) {
+        String extension = encodingType.equals("text") ? ".txt" : ".dat";
+        return new File(lexicon).exists() && new File(docIds + extension).exists() && new File(freq + extension).exists()
+                && new File(lastDocIds + extension).exists() && new File(skipPointers + extension).exists();
+    }
+}
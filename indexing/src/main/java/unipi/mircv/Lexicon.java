@@ -40,6 +40,22 @@ public class Lexicon {
         }
     }
 
+    /**
+     * Adds the information of a term of the merged lexicon.
+     *
+     * @param term               The term to add.
+     * @param offsetDocIds       Offset for document IDs in the posting list.
+     * @param offsetFreq         Offset for term frequencies in the posting list.
+     * @param offsetLastDocIds   Offset for the last document IDs in the posting list.
+     * @param offsetSkipBlock    Offset for skip block information in the posting list.
+     * @param postingListLength  Length of the posting list for the term.
+     * @param upperBound         Upper bound of the BM25 score without the idf.
+     * @param maxTermFreq        Maximum term frequency of the posting list.
+     */
+    public void addInformation(String term, int offsetDocIds, int offsetFreq, int offsetLastDocIds, int offsetSkipBlock, int postingListLength, float upperBound, int maxTermFreq){
+        lexicon.put(term, new Term(offsetDocIds, offsetFreq, offsetLastDocIds, offsetSkipBlock, postingListLength, upperBound, maxTermFreq));
+    }
+
     /**
      * Returns a list of sorted terms taken from the lexicon.
      *
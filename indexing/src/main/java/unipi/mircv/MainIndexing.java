@@ -22,6 +22,9 @@ public class MainIndexing {
     public DocIndex docIndex;
     public Statistics statistics;
     public String encodingType;
+    public ForwardIndexWriter forwardIndexWriter; // null if the forward index is not written
+    public boolean forwardIndex = FORWARD_INDEX; // true to write the forward index while parsing the documents
+    public Merger merger; // merges the blocks at the end of the collection, with the optional indexes to write
 
     public Parser parser;
 
@@ -33,6 +36,7 @@ public class MainIndexing {
         this.lexicon = new Lexicon();
         this.docIndex = new DocIndex();
         this.statistics = new Statistics(0, 0, 0, 0);
+        this.merger = new Merger();
 
     }
 
@@ -43,9 +47,10 @@ public class MainIndexing {
     /**
      *  Method that processes a compressed document collection, performing preprocessing and analysis on each document.
      */
-    public void processCollection(String file, String type,boolean stopWordsStemming,String scoreType){
+    public void processCollection(String file, String type,boolean stopWordsStemming){
         // Set the encoding type for the document collection
         setEncodingType(type);
+        if (forwardIndex) forwardIndexWriter = new ForwardIndexWriter();
 
         try {
             // Open the compressed file
@@ -89,6 +94,10 @@ public class MainIndexing {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        if (forwardIndexWriter != null) {
+            forwardIndexWriter.close();
+            System.out.println("*** Forward index successfully written to disk: " + forwardIndexWriter.getTerms() + " terms. ***");
+        }
 
         // After processing the documents, save the block currently in main memory
         if(encodingType.equals("text")) {
@@ -106,13 +115,14 @@ public class MainIndexing {
 
         System.gc();  // Trigger garbage collection to free up memory
 
-        Merger merger = new Merger();  // Create a Merger instance for merging blocks
+        // Calculate the average document length, needed by the merging to compute the term upper bounds
+        statistics.setAvdl(statistics.getAvdl() / statistics.getNDocs());
 
         // Perform block merging based on encoding type
         if(encodingType.equals("text"))
             merger.mergeTextBlocks(blockCounter,encodingType,statistics);
         else
-            merger.mergeByteBlocks(blockCounter,encodingType,statistics,scoreType);
+            merger.mergeByteBlocks(blockCounter,encodingType,statistics);
 
         saveStatistics(); // Save the final statistics
     }
@@ -164,6 +174,8 @@ public class MainIndexing {
             statistics.setPostings(statistics.getPostings() + 1);
         }
 
+        if (forwardIndexWriter != null) forwardIndexWriter.addDocument(docId, counter);
+
         // Update document index information and statistics
         docIndex.addDocument(docId, docNo, terms.length);
         docId += 1;
@@ -258,8 +270,6 @@ public class MainIndexing {
      * Method that saves statistics about the processed document collection.
      */
     public void saveStatistics(){
-        // Calculate and set the average document length
-        statistics.setAvdl(statistics.getAvdl() / statistics.getNDocs());
         try{
             // Write collection statistics to a file
             FileWriter writer = new FileWriter(STATISTICS_PATH);
@@ -279,7 +289,6 @@ public class MainIndexing {
         String file = COLLECTION_PATH;
         String type = "bytes";  //bytes or text
         Boolean stopWordsStemming = false;
-        String scoreType = "bm25"; //tfidf
 
         // Check if the provided encoding type is valid
         if(!type.equals("text") && !type.equals("bytes")){
@@ -288,7 +297,7 @@ public class MainIndexing {
         else{
             MainIndexing index = new MainIndexing();
             long start = System.currentTimeMillis(); // Record the start time for performance measurement
-            index.processCollection(file, type, stopWordsStemming,scoreType); // Process the document collection with the specified parameters
+            index.processCollection(file, type, stopWordsStemming); // Process the document collection with the specified parameters
             long end = System.currentTimeMillis(); // Record the end time and calculate the elapsed time
             System.out.println("*** Time in milliseconds: " + (end-start) + " ***");
         }
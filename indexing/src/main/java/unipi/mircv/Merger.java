@@ -1,6 +1,14 @@
 package unipi.mircv;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static unipi.mircv.Parameters.*;
 
@@ -34,8 +42,38 @@ public class Merger {
     public ByteWriter lastDocIdsByteWriter;
     public ByteWriter skipPointersByteWriter;
 
+    //writers of the impact-ordered index, null if it is not written
+    public TextWriter impactLexiconWriter;
+    public TextWriter impactSegmentsTextWriter;
+    public TextWriter impactDocIdsTextWriter;
+    public ByteWriter impactSegmentsByteWriter;
+    public ByteWriter impactDocIdsByteWriter;
+
+    //writers of the two tiers of the tiered index, null if it is not written
+    public PostingListWriter tierOneWriter;
+    public PostingListWriter tierTwoWriter;
+
+    //writers of the shards of the sharded index, null if it is not written
+    public PostingListWriter[] shardWriters;
+    int shardLength; // number of consecutive docIds of each shard
+    ExecutorService shardPool; // threads writing the long posting lists to the shards in parallel
+
     public int BlockLenght = 500;
 
+    //optional indexes written next to the main one, those enabled in Parameters unless changed before the merging
+    public boolean impactOrderedIndex = IMPACT_ORDERED_INDEX;
+    public boolean tieredIndex = TIERED_INDEX;
+    public int shards = SHARDS;
+
+    //postings of the term being merged, written to the impact-ordered index and to the tiered index at its end
+    int[] termDocIds = new int[BlockLenght];
+    int[] termFreqs = new int[BlockLenght];
+    double[] termFrequencyParts = new double[BlockLenght];
+    int[] termImpacts = new int[BlockLenght];
+    int termPostings = 0;
+    int offsetImpactSegments = 0;
+    int offsetImpactDocIds = 0;
+
 
 
 
@@ -45,9 +83,9 @@ public class Merger {
      *
      * @param blockCounter  Number of blocks to merge.
      * @param encodingType  The encoding type "byte".
-     * @param statistics    Statistics object for indexing information.
+     * @param statistics    Statistics object for indexing information, with the final average document length.
      */
-    public void mergeByteBlocks(int blockCounter, String encodingType, Statistics statistics,String scoreType) {
+    public void mergeByteBlocks(int blockCounter, String encodingType, Statistics statistics) {
 
         int localPostingListLength;
         int postingListLength;
@@ -56,11 +94,16 @@ public class Merger {
         int offsetLastDocIds = 0;
         int offsetSkipPointers = 0;
         int docId = 0;
+        int freq;
+        double termFrequencyPart;
         float termUpperBound;
+        double maxTermFrequencyPart;
+        int blockOffsetDocIds = 0;
+        int blockOffsetFreq = 0;
+        double blockMaxTermFrequencyPart = 0;
+        int blockMaxTermFreq = 0;
         float maxTermFreq;
         float localTermFreq;
-        float tf;
-        float idf;
         String minTerm;
         int postingBlockCounter;
 
@@ -80,6 +123,7 @@ public class Merger {
         openScanners(blockCounter, encodingType); //open scanners of the block files
 
         openMergeFiles(encodingType); //open the final merge files
+        openShardFiles(encodingType, statistics.getNDocs());
 
         HashMap<Integer,DocInfo> docIndex = new HashMap<>();
 
@@ -112,6 +156,7 @@ public class Merger {
             postingListLength = 0;
             postingBlockCounter = 0;
             maxTermFreq = 0;
+            maxTermFrequencyPart = 0;
 
             // Write term information to the lexicon in text format
             lexiconWriter.write(minTerm + " "
@@ -130,22 +175,34 @@ public class Merger {
 
                     if (localTermFreq > maxTermFreq) maxTermFreq = localTermFreq;
                     for (int j = 0; j < localPostingListLength; j++) {
-                        // If at the start of the posting list block, save skip pointers for the block
+                        // If at the start of the posting list block, save its offsets and reset its maximum scores
                         if (postingBlockCounter == 0) {
-                            // Save two integers in the skipPointers file: the docId offset and the frequency offset
-                            offsetSkipPointers += skipPointersByteWriter.write(offsetDocIds);
-                            offsetSkipPointers += skipPointersByteWriter.write(offsetFreq);
+                            blockOffsetDocIds = offsetDocIds;
+                            blockOffsetFreq = offsetFreq;
+                            blockMaxTermFrequencyPart = 0;
+                            blockMaxTermFreq = 0;
                         }
 
                         docId = docIdByteScanners[i].read();
+                        freq = freqByteScanners[i].read();
                         // Save information from block files to the final files
                         offsetDocIds += docIdsByteWriter.write(docId);
-                        offsetFreq += freqByteWriter.write(freqByteScanners[i].read());
+                        offsetFreq += freqByteWriter.write(freq);
+                        termFrequencyPart = bm25TermFrequencyPart(freq, docIndex.get(docId).getDocLen(), statistics);
+                        maxTermFrequencyPart = Math.max(maxTermFrequencyPart, termFrequencyPart);
+                        blockMaxTermFrequencyPart = Math.max(blockMaxTermFrequencyPart, termFrequencyPart);
+                        blockMaxTermFreq = Math.max(blockMaxTermFreq, freq);
+                        addTermPosting(docId, freq, termFrequencyPart);
 
                         postingBlockCounter += 1;
-                        //if we are at the end of the posting list block we save the current docId in the lastDocId file.
+                        //if we are at the end of the posting list block we save the current docId in the lastDocId file,
+                        //and the skip pointers and the maximum scores of the block in the skipPointers file.
                         if (postingBlockCounter == BlockLenght) {
                             offsetLastDocIds += lastDocIdsByteWriter.write(docId);
+                            offsetSkipPointers += skipPointersByteWriter.write(blockOffsetDocIds);
+                            offsetSkipPointers += skipPointersByteWriter.write(blockOffsetFreq);
+                            offsetSkipPointers += skipPointersByteWriter.write(quantizeBlockMax(blockMaxTermFrequencyPart));
+                            offsetSkipPointers += skipPointersByteWriter.write(blockMaxTermFreq);
                             postingBlockCounter = 0;
                         }
                     }
@@ -158,22 +215,21 @@ public class Merger {
             if (postingBlockCounter != BlockLenght) {
                 offsetLastDocIds += lastDocIdsByteWriter.write(docId);
             }
-
-            //At the end of lexicon merging we add the global posting list length and the term upper bound information.
-            tf = (float) (1 + Math.log(maxTermFreq));
-            idf = (float) Math.log((double) statistics.getNDocs() / postingListLength);
-
-            if(scoreType.equals("tfidf")) {
-                termUpperBound = tf * idf;
-            }
-            else {
-                int doclen = docIndex.get(docId).getDocLen();
-                float denominator = (float) (K1 * ((1 - B) + B * ((double) doclen / statistics.getAvdl())) + tf);
-                termUpperBound = (tf * idf) / denominator;
+            //the last block, if not full, still needs its skip pointers and maximum scores.
+            if (postingBlockCounter > 0) {
+                offsetSkipPointers += skipPointersByteWriter.write(blockOffsetDocIds);
+                offsetSkipPointers += skipPointersByteWriter.write(blockOffsetFreq);
+                offsetSkipPointers += skipPointersByteWriter.write(quantizeBlockMax(blockMaxTermFrequencyPart));
+                offsetSkipPointers += skipPointersByteWriter.write(blockMaxTermFreq);
             }
 
+            //the postings of the term are also written ordered by impact and split in tiers
+            writeTermPostings(minTerm, encodingType);
+
+            //At the end of lexicon merging we add the global posting list length and the term upper bound information.
+            termUpperBound = roundUp(maxTermFrequencyPart);
             lexiconWriter.write(postingListLength + " "
-                    + termUpperBound + "\n");
+                    + termUpperBound + " " + (int) maxTermFreq + "\n");
         }
 
         // close byte scanners
@@ -191,6 +247,9 @@ public class Merger {
             docIndexByteWriter.close();
             lastDocIdsByteWriter.close();
             skipPointersByteWriter.close();
+            closeImpactFiles();
+            closeTierFiles();
+            closeShardFiles();
     }
 
 
@@ -200,7 +259,7 @@ public class Merger {
      *
      * @param blockCounter  Number of blocks to merge.
      * @param encodingType  The encoding type "text".
-     * @param statistics    Statistics object for indexing information.
+     * @param statistics    Statistics object for indexing information, with the final average document length.
      */
     public void mergeTextBlocks(int blockCounter, String encodingType, Statistics statistics) {
 
@@ -211,11 +270,16 @@ public class Merger {
         int offsetLastDocIds = 0;
         int offsetSkipPointers = 0;
         int docId = 0;
+        int freq;
+        double termFrequencyPart;
         float termUpperBound;
+        double maxTermFrequencyPart;
+        int blockOffsetDocIds = 0;
+        int blockOffsetFreq = 0;
+        double blockMaxTermFrequencyPart = 0;
+        int blockMaxTermFreq = 0;
         float maxTermFreq;
         float localTermFreq;
-        float tf;
-        float idf;
         String minTerm;
 
         // Array to store terms read from the current lexicon pointers
@@ -234,16 +298,21 @@ public class Merger {
         openScanners(blockCounter, encodingType); //open the scanners of the block files
 
         openMergeFiles(encodingType); //open the final marge files
+        openShardFiles(encodingType, statistics.getNDocs());
+
+        HashMap<Integer,DocInfo> docIndex = new HashMap<>();
 
         // Merging of the document index is performed first, reading three integers for each row.
         for (int i = 0; i < blockCounter; i++) {
             int number = documentIndexTextScanners[i].read(); //read the first integer
             while (number != -1) { //continue until the file is not ended
                 docIndexTextWriter.write(number); //write on the final file the read integer
-                for (int j = 0; j < 2; j++) // Read two more integers from the current block file and write them to the final file
-                {
-                    docIndexTextWriter.write(documentIndexTextScanners[i].read());
-                }
+                // Read two more integers from the current block file and write them to the final file
+                int docno = documentIndexTextScanners[i].read();
+                docIndexTextWriter.write(docno);
+                int docLen = documentIndexTextScanners[i].read();
+                docIndexTextWriter.write(docLen);
+                docIndex.put(number, new DocInfo(docno, docLen));
                 number = documentIndexTextScanners[i].read();
             }
         }
@@ -260,6 +329,7 @@ public class Merger {
             postingListLength = 0;
             postingBlockCounter = 0;
             maxTermFreq = 0;
+            maxTermFrequencyPart = 0;
             // Write term information to the lexicon in text format
             lexiconWriter.write(minTerm + " "
                     + offsetDocIds + " " + offsetFreq + " " + offsetLastDocIds + " " + offsetSkipPointers + " ");
@@ -277,22 +347,34 @@ public class Merger {
 
                     if (localTermFreq > maxTermFreq) maxTermFreq = localTermFreq;
                     for (int j = 0; j < localPostingListLength; j++) {
-                        // If at the start of the posting list block, save skip pointers for the block
+                        // If at the start of the posting list block, save its offsets and reset its maximum scores
                         if (postingBlockCounter == 0) {
-                            //Saves in the skiPointers file 2 integers: the docId offset and the frequency offset.
-                            offsetSkipPointers += skipPointersTextWriter.write(offsetDocIds);
-                            offsetSkipPointers += skipPointersTextWriter.write(offsetFreq);
+                            blockOffsetDocIds = offsetDocIds;
+                            blockOffsetFreq = offsetFreq;
+                            blockMaxTermFrequencyPart = 0;
+                            blockMaxTermFreq = 0;
                         }
 
                         docId = docIdsTextScanners[i].read();
+                        freq = freqTextScanners[i].read();
                         //Saves in the final files the information arriving from the block files.
                         offsetDocIds += docIdsTextWriter.write(docId);
-                        offsetFreq += freqTextWriter.write(freqTextScanners[i].read());
+                        offsetFreq += freqTextWriter.write(freq);
+                        termFrequencyPart = bm25TermFrequencyPart(freq, docIndex.get(docId).getDocLen(), statistics);
+                        maxTermFrequencyPart = Math.max(maxTermFrequencyPart, termFrequencyPart);
+                        blockMaxTermFrequencyPart = Math.max(blockMaxTermFrequencyPart, termFrequencyPart);
+                        blockMaxTermFreq = Math.max(blockMaxTermFreq, freq);
+                        addTermPosting(docId, freq, termFrequencyPart);
 
                         postingBlockCounter += 1;
-                        //if we are at the end of the posting list block we save the current docId in the lastDocId file.
+                        //if we are at the end of the posting list block we save the current docId in the lastDocId file,
+                        //and the skip pointers and the maximum scores of the block in the skipPointers file.
                         if (postingBlockCounter == BlockLenght) {
                             offsetLastDocIds += lastDocIdsTextWriter.write(docId);
+                            offsetSkipPointers += skipPointersTextWriter.write(blockOffsetDocIds);
+                            offsetSkipPointers += skipPointersTextWriter.write(blockOffsetFreq);
+                            offsetSkipPointers += skipPointersTextWriter.write(quantizeBlockMax(blockMaxTermFrequencyPart));
+                            offsetSkipPointers += skipPointersTextWriter.write(blockMaxTermFreq);
                             postingBlockCounter = 0;
                         }
                     }
@@ -305,12 +387,19 @@ public class Merger {
             if (postingBlockCounter != BlockLenght) {
                 offsetLastDocIds += lastDocIdsTextWriter.write(docId);
             }
+            //the last block, if not full, still needs its skip pointers and maximum scores.
+            if (postingBlockCounter > 0) {
+                offsetSkipPointers += skipPointersTextWriter.write(blockOffsetDocIds);
+                offsetSkipPointers += skipPointersTextWriter.write(blockOffsetFreq);
+                offsetSkipPointers += skipPointersTextWriter.write(quantizeBlockMax(blockMaxTermFrequencyPart));
+                offsetSkipPointers += skipPointersTextWriter.write(blockMaxTermFreq);
+            }
+            //the postings of the term are also written ordered by impact and split in tiers
+            writeTermPostings(minTerm, encodingType);
             //At the end we add the global posting list length and the term upper bound information.
-            tf = (float) (1 + Math.log(maxTermFreq));
-            idf = (float) Math.log((double) statistics.getNDocs() / postingListLength);
-            termUpperBound = tf * idf;
+            termUpperBound = roundUp(maxTermFrequencyPart);
             lexiconWriter.write(postingListLength + " "
-                    + termUpperBound + "\n");
+                    + termUpperBound + " " + (int) maxTermFreq + "\n");
         }
 
         // close byte scanners
@@ -328,8 +417,224 @@ public class Merger {
         docIndexTextWriter.close();
         lastDocIdsTextWriter.close();
         skipPointersTextWriter.close();
+        closeImpactFiles();
+        closeTierFiles();
+        closeShardFiles();
+    }
+
+
+    /**
+     * Computes the part of the BM25 score of a posting that does not depend on the idf of the term,
+     * tf / (K1 * ((1 - B) + B * docLen / avdl) + tf), with the same operations used at query time.
+     * The term upper bound stored in the lexicon is the maximum of this value over the posting list, so that the
+     * upper bound of the BM25 score is obtained at query time multiplying it by the idf, while the upper bound of the
+     * TFIDF score is obtained from the maximum term frequency.
+     *
+     * @param freq       The frequency of the term in the document.
+     * @param docLen     The length of the document.
+     * @param statistics Statistics object with the average document length.
+     * @return The term frequency part of the BM25 score.
+     */
+    public static double bm25TermFrequencyPart(int freq, int docLen, Statistics statistics) {
+        return freq / (K1 * ((1 - B) + B * ((double) docLen / statistics.getAvdl())) + freq);
+    }
+
+    // Converts the maximum BM25 score without the idf of a block to an integer rounding it up, so that it remains an
+    // upper bound once divided by BLOCK_MAX_SCALE at query time.
+    static int quantizeBlockMax(double blockMaxTermFrequencyPart) {
+        return (int) Math.ceil(blockMaxTermFrequencyPart * BLOCK_MAX_SCALE);
+    }
+
+    /**
+     * Quantizes the BM25 score without the idf of a posting, in [0, 1), to an integer impact in [1, IMPACT_LEVELS].
+     * The score-at-a-time processing multiplies the impact by idf / IMPACT_LEVELS to score the posting.
+     *
+     * @param termFrequencyPart The BM25 score without the idf of the posting.
+     * @return The quantized impact of the posting.
+     */
+    public static int quantizeImpact(double termFrequencyPart) {
+        return (int) Math.max(1, Math.min(IMPACT_LEVELS, Math.round(termFrequencyPart * IMPACT_LEVELS)));
     }
 
+    // Keeps a posting of the term being merged, with its quantized impact, for the impact-ordered, tiered and sharded indexes.
+    private void addTermPosting(int docId, int freq, double termFrequencyPart) {
+        if (impactLexiconWriter == null && tierOneWriter == null && shardWriters == null) return;
+        if (termPostings == termDocIds.length) {
+            termDocIds = Arrays.copyOf(termDocIds, 2 * termPostings);
+            termFreqs = Arrays.copyOf(termFreqs, 2 * termPostings);
+            termFrequencyParts = Arrays.copyOf(termFrequencyParts, 2 * termPostings);
+            termImpacts = Arrays.copyOf(termImpacts, 2 * termPostings);
+        }
+        termDocIds[termPostings] = docId;
+        termFreqs[termPostings] = freq;
+        termFrequencyParts[termPostings] = termFrequencyPart;
+        termImpacts[termPostings] = quantizeImpact(termFrequencyPart);
+        termPostings++;
+    }
+
+    // Writes the postings of the term just merged to the impact-ordered, tiered and sharded indexes, if they are written.
+    private void writeTermPostings(String term, String encodingType) {
+        writeImpactOrderedPostings(term, encodingType);
+        writeTieredPostings(term);
+        writeShardPostings(term);
+        // The buffers of a very long posting list are not kept for the rest of the merge
+        if (termDocIds.length > MERGER_TERM_POSTINGS) {
+            termDocIds = new int[BlockLenght];
+            termFreqs = new int[BlockLenght];
+            termFrequencyParts = new double[BlockLenght];
+            termImpacts = new int[BlockLenght];
+        }
+        termPostings = 0;
+    }
+
+    /**
+     * Writes the postings of the term just merged to the impact-ordered index. The postings with the same impact form
+     * a segment, and the segments are written by decreasing impact; inside a segment the docIds are increasing and
+     * stored as differences from the previous one. For each segment the segments file stores its impact, its number
+     * of postings and its offset in the docIds file, and the impact lexicon stores for the term the offset of its
+     * first segment and the number of segments.
+     *
+     * @param term         The term just merged.
+     * @param encodingType The encoding type, either "text" or "byte".
+     */
+    public void writeImpactOrderedPostings(String term, String encodingType) {
+        if (impactLexiconWriter == null) return;
+
+        // Counting sort of the postings by decreasing impact, stable so that the docIds of a segment stay sorted:
+        // the postings with impact i go to the bucket IMPACT_LEVELS - i, which starts at segmentStarts[IMPACT_LEVELS - i]
+        int[] segmentStarts = new int[IMPACT_LEVELS + 1];
+        for (int i = 0; i < termPostings; i++) {
+            segmentStarts[IMPACT_LEVELS - termImpacts[i] + 1]++;
+        }
+        int segments = 0;
+        for (int bucket = 1; bucket <= IMPACT_LEVELS; bucket++) {
+            if (segmentStarts[bucket] > 0) segments++;
+            segmentStarts[bucket] += segmentStarts[bucket - 1];
+        }
+        int[] sortedDocIds = new int[termPostings];
+        int[] positions = segmentStarts.clone();
+        for (int i = 0; i < termPostings; i++) {
+            sortedDocIds[positions[IMPACT_LEVELS - termImpacts[i]]++] = termDocIds[i];
+        }
+
+        impactLexiconWriter.write(term + " " + offsetImpactSegments + " " + segments + "\n");
+        boolean text = encodingType.equals("text");
+        for (int level = IMPACT_LEVELS; level >= 1; level--) {
+            int start = segmentStarts[IMPACT_LEVELS - level];
+            int end = segmentStarts[IMPACT_LEVELS - level + 1];
+            if (start == end) continue;
+
+            offsetImpactSegments += text ? impactSegmentsTextWriter.write(level) : impactSegmentsByteWriter.write(level);
+            offsetImpactSegments += text ? impactSegmentsTextWriter.write(end - start) : impactSegmentsByteWriter.write(end - start);
+            offsetImpactSegments += text ? impactSegmentsTextWriter.write(offsetImpactDocIds) : impactSegmentsByteWriter.write(offsetImpactDocIds);
+            int previousDocId = 0;
+            for (int i = start; i < end; i++) {
+                int gap = sortedDocIds[i] - previousDocId;
+                offsetImpactDocIds += text ? impactDocIdsTextWriter.write(gap) : impactDocIdsByteWriter.write(gap);
+                previousDocId = sortedDocIds[i];
+            }
+        }
+    }
+
+    /**
+     * Writes the postings of the term just merged to the tiered index. Tier 1 keeps the TIER_ONE_POSTINGS postings
+     * with the highest BM25 score, which for a given term are those with the highest score without the idf, and tier 2
+     * the others; among the postings with the same score the ones with the lowest docIds go to tier 1. Both tiers are
+     * ordered by docId, with their own blocks, skip pointers and upper bounds, and a term whose postings are all in
+     * tier 1 is not in the lexicon of tier 2.
+     *
+     * @param term The term just merged.
+     */
+    public void writeTieredPostings(String term) {
+        if (tierOneWriter == null) return;
+        if (termPostings <= TIER_ONE_POSTINGS) {
+            tierOneWriter.write(term, termDocIds, termFreqs, termFrequencyParts, termPostings);
+            return;
+        }
+
+        // Score of the last posting of tier 1, and number of postings with that score that still fit in tier 1
+        double[] sortedParts = Arrays.copyOf(termFrequencyParts, termPostings);
+        Arrays.sort(sortedParts);
+        double cutoff = sortedParts[termPostings - TIER_ONE_POSTINGS];
+        int tiesInTierOne = TIER_ONE_POSTINGS;
+        for (int i = termPostings - 1; i >= 0 && sortedParts[i] > cutoff; i--) {
+            tiesInTierOne--;
+        }
+
+        int[][] docIds = {new int[TIER_ONE_POSTINGS], new int[termPostings - TIER_ONE_POSTINGS]};
+        int[][] freqs = {new int[TIER_ONE_POSTINGS], new int[termPostings - TIER_ONE_POSTINGS]};
+        double[][] parts = {new double[TIER_ONE_POSTINGS], new double[termPostings - TIER_ONE_POSTINGS]};
+        int[] counts = new int[2];
+        for (int i = 0; i < termPostings; i++) {
+            int tier = 1;
+            if (termFrequencyParts[i] > cutoff) {
+                tier = 0;
+            } else if (termFrequencyParts[i] == cutoff && tiesInTierOne > 0) {
+                tier = 0;
+                tiesInTierOne--;
+            }
+            docIds[tier][counts[tier]] = termDocIds[i];
+            freqs[tier][counts[tier]] = termFreqs[i];
+            parts[tier][counts[tier]] = termFrequencyParts[i];
+            counts[tier]++;
+        }
+        tierOneWriter.write(term, docIds[0], freqs[0], parts[0], counts[0]);
+        tierTwoWriter.write(term, docIds[1], freqs[1], parts[1], counts[1]);
+    }
+
+    /**
+     * Writes the postings of the term just merged to the sharded index. The shards are ranges of shardLength
+     * consecutive docIds, so the postings of each shard are a contiguous part of the posting list and keep their
+     * global docIds. Each shard has its own writer, so the posting lists with at least SHARD_PARALLEL_POSTINGS postings
+     * are written to all the shards in parallel; the merge waits for them before the next term, so that the lexicon
+     * of every shard stays sorted.
+     *
+     * @param term The term just merged.
+     */
+    public void writeShardPostings(String term) {
+        if (shardWriters == null) return;
+        int[] starts = new int[shardWriters.length + 1];
+        int posting = 0;
+        for (int shard = 0; shard < shardWriters.length; shard++) {
+            starts[shard] = posting;
+            long shardEnd = (long) (shard + 1) * shardLength;
+            while (posting < termPostings && termDocIds[posting] < shardEnd) posting++;
+        }
+        starts[shardWriters.length] = termPostings;
+
+        if (termPostings < SHARD_PARALLEL_POSTINGS) {
+            for (int shard = 0; shard < shardWriters.length; shard++) {
+                shardWriters[shard].write(term, termDocIds, termFreqs, termFrequencyParts, starts[shard], starts[shard + 1]);
+            }
+            return;
+        }
+        ArrayList<Callable<Void>> writes = new ArrayList<>(shardWriters.length);
+        for (int shard = 0; shard < shardWriters.length; shard++) {
+            PostingListWriter writer = shardWriters[shard];
+            int start = starts[shard];
+            int end = starts[shard + 1];
+            writes.add(() -> {
+                writer.write(term, termDocIds, termFreqs, termFrequencyParts, start, end);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> write : shardPool.invokeAll(writes)) {
+                write.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Converts an upper bound to float rounding it up, so that it remains an upper bound.
+    static float roundUp(double upperBound) {
+        float rounded = (float) upperBound;
+        return rounded < upperBound ? Math.nextUp(rounded) : rounded;
+    }
 
     /**
      * Checks whether the merging phase needs to continue by examining the status of scanners.
@@ -448,6 +753,74 @@ public class Merger {
             lastDocIdsByteWriter = new ByteWriter(LASTDOCID_PATH + ".dat", compressor);
             skipPointersByteWriter = new ByteWriter(SKIPPOINTERS_PATH + ".dat", compressor);
         }
+
+        if (impactOrderedIndex) {
+            // The impact-ordered index is optional, so its directory may not exist yet
+            new File(IMPACT_LEXICON_PATH).getParentFile().mkdirs();
+            impactLexiconWriter = new TextWriter(IMPACT_LEXICON_PATH);
+            if (encodingType.equals("text")) {
+                impactSegmentsTextWriter = new TextWriter(IMPACT_SEGMENTS_PATH + ".txt");
+                impactDocIdsTextWriter = new TextWriter(IMPACT_DOCID_PATH + ".txt");
+            } else {
+                Compressor compressor = new Compressor();
+                impactSegmentsByteWriter = new ByteWriter(IMPACT_SEGMENTS_PATH + ".dat", compressor);
+                impactDocIdsByteWriter = new ByteWriter(IMPACT_DOCID_PATH + ".dat", compressor);
+            }
+        }
+
+        if (tieredIndex) {
+            tierOneWriter = new PostingListWriter(IndexPaths.tier(1), encodingType, BlockLenght);
+            tierTwoWriter = new PostingListWriter(IndexPaths.tier(2), encodingType, BlockLenght);
+        }
+    }
+
+    /**
+     * Opens the writers of the shards of the sharded index, if it is written, and describes the shards in the file
+     * SHARDS_INFO_PATH: the number of shards and the number of consecutive docIds of each one.
+     *
+     * @param encodingType Encoding type, either "text" or "byte".
+     * @param nDocs        The number of documents of the collection.
+     */
+    public void openShardFiles(String encodingType, int nDocs) {
+        if (shards <= 1) return;
+        shardLength = Math.max(1, (nDocs + shards - 1) / shards);
+        shardWriters = new PostingListWriter[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            shardWriters[shard] = new PostingListWriter(IndexPaths.shard(shard), encodingType, BlockLenght);
+        }
+        shardPool = Executors.newFixedThreadPool(shards);
+        TextWriter shardsInfoWriter = new TextWriter(SHARDS_INFO_PATH);
+        shardsInfoWriter.write(shards + " " + shardLength + "\n");
+        shardsInfoWriter.close();
+    }
+
+    // Closes the writers of the sharded index, if it is written.
+    private void closeShardFiles() {
+        if (shardWriters == null) return;
+        shardPool.shutdown();
+        for (PostingListWriter shardWriter : shardWriters) {
+            shardWriter.close();
+        }
+    }
+
+    // Closes the writers of the tiered index, if it is written.
+    private void closeTierFiles() {
+        if (tierOneWriter == null) return;
+        tierOneWriter.close();
+        tierTwoWriter.close();
+    }
+
+    // Closes the writers of the impact-ordered index, if it is written.
+    private void closeImpactFiles() {
+        if (impactLexiconWriter == null) return;
+        impactLexiconWriter.close();
+        if (impactSegmentsTextWriter != null) {
+            impactSegmentsTextWriter.close();
+            impactDocIdsTextWriter.close();
+        } else {
+            impactSegmentsByteWriter.close();
+            impactDocIdsByteWriter.close();
+        }
     }
 
 }
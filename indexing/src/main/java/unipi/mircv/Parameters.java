@@ -20,6 +20,31 @@ public interface Parameters {
     String FREQ_PATH = "D:/Output/Frequencies/freq";
     String DOCINDEX_PATH = "D:/Output/DocumentIndex/documentIndex";
 
+    // path impact-ordered index, written by the merger next to the docId-ordered one
+    boolean IMPACT_ORDERED_INDEX = false; // true to write the impact-ordered index, used by the saat processor
+    String IMPACT_LEXICON_PATH = "D:/Output/Impacts/lexicon.txt";      //only text
+    String IMPACT_SEGMENTS_PATH = "D:/Output/Impacts/segments";
+    String IMPACT_DOCID_PATH = "D:/Output/Impacts/docIds";
+
+    // path tiered index, written by the merger next to the main index: tier 1 keeps the TIER_ONE_POSTINGS postings
+    // with the highest BM25 score of each posting list, tier 2 the others
+    boolean TIERED_INDEX = false; // true to write the tiered index, used by the tiered processor
+    String TIERS_PATH = "D:/Output/Tiers/";
+    int TIER_ONE_POSTINGS = 1000;
+
+    // path sharded index, written by the merger next to the main index: the documents are split in SHARDS ranges of
+    // consecutive docIds, each with its own posting lists, sharing the statistics and the document index of the main index
+    int SHARDS = 0; // number of shards, 2 or more to write the sharded index used by SHARDED_QUERIES and the shard servers
+    String SHARDS_PATH = "D:/Output/Shards/";
+    String SHARDS_INFO_PATH = "D:/Output/Shards/shards.txt"; //only text, the number of shards and the docIds of each one
+    int SHARD_PARALLEL_POSTINGS = 10000; // posting lists at least this long are written to the shards in parallel
+
+    // path forward index, written while the documents are parsed: the distinct terms of each docId with their frequencies
+    boolean FORWARD_INDEX = false; // true to write the forward index, used by the rm3 processor
+    String FORWARD_TERMS_PATH = "D:/Output/Forward/terms.txt";      //only text
+    String FORWARD_OFFSETS_PATH = "D:/Output/Forward/offsets.dat";
+    String FORWARD_ENTRIES_PATH = "D:/Output/Forward/entries.dat";
+
 
     // path write blocks
     String LEXICON_BLOCK_PATH = "D:/Output/Lexicon/lexicon";
@@ -28,6 +53,51 @@ public interface Parameters {
     String DOCUMENT_INDEX_BLOCK_PATH = "D:/Output/DocumentIndex/documentIndex";
 
 
+    // block-max scores: the maximum BM25 score without the idf of each block is stored as an integer multiple of 1/BLOCK_MAX_SCALE
+    int BLOCK_MAX_SCALE = 65536;
+
+    // impacts: the BM25 score without the idf of each posting is quantized to an integer in [1, IMPACT_LEVELS]
+    int IMPACT_LEVELS = 255;
+
+    // merging: the postings of the term being merged are kept for the optional indexes, in buffers shrunk back after a term longer than this
+    int MERGER_TERM_POSTINGS = 1 << 20;
+
+    // query processing
+    int SKIP_CACHE_BLOCKS = 2000000; // maximum number of posting list blocks whose skip information is kept in memory
+    int RESULT_CACHE_SIZE = 10000; // maximum number of queries whose results are kept in memory
+    int RESULT_CACHE_DEPTH = 20; // minimum number of results computed and cached for every query
+    int RESULT_CACHE_MAX_DEPTH = 2560; // maximum number of results cached for a query, deeper rankings are not kept
+    long INTERSECTION_CACHE_BYTES = 64L * 1024 * 1024; // memory budget of the cached intersections of pairs of terms
+    int INTERSECTION_MIN_FREQUENCY = 3; // conjunctive queries containing a pair of terms before its intersection is cached
+    int INTERSECTION_MAX_PAIRS = 100000; // maximum number of pairs of terms whose occurrences are counted
+    int PREFETCH_THREADS = 4; // threads reading the posting lists in advance, 0 to disable the prefetching
+    int SAAT_POSTINGS_BUDGET = 1000000; // maximum number of postings scored by a score-at-a-time query
+    int SAAT_ACCUMULATORS = 4; // accumulator arrays, one entry per document, kept for reuse by the score-at-a-time queries
+    int PLANNER_MAXSCORE_OVERHEAD = 1000; // fixed cost of MaxScore in postings, for the choice of the processor in auto mode
+    boolean LOG_QUERY_PLANS = false; // print the processor chosen in auto mode for every query, for debugging
+    int RM3_FEEDBACK_DOCUMENTS = 10; // top documents of the first retrieval used as feedback by the rm3 processor
+    int RM3_FEEDBACK_TERMS = 10; // terms of the relevance model added to the query
+    double RM3_ORIGINAL_QUERY_WEIGHT = 0.5; // weight of the original query in the expanded one, the rest goes to the relevance model
+    boolean SHARDED_QUERIES = false; // process the queries on all the shards in parallel, when the sharded index is available
+
+
+    // query server
+    int MAX_PAGE_DEPTH = 10000; // deepest rank of a page of results served by the search server
+    int SERVER_PORT = 8080;
+    int SERVER_THREADS = 8; // number of queries processed at the same time
+    int SERVER_QUEUE_SIZE = 64; // number of queries waiting to be processed, the others are rejected
+    long SERVER_DEADLINE_MILLIS = 0; // default time given to a query before returning approximate results, 0 for no limit
+    double SERVER_PRUNING_FACTOR = 1; // default factor F >= 1 of the pruning threshold, 1 for the exact top-k
+
+    // shard servers, one process for each shard of the sharded index, and the broker merging their results
+    int SHARD_SERVER_PORT = 9090; // port of the server of shard 0, the server of shard i listens on SHARD_SERVER_PORT + i
+    long SHARD_TIMEOUT_MILLIS = 2000; // time given to each shard server to answer, then the broker merges the others
+    String SHARD_SERVER_HEAP = "256m"; // maximum heap of the shard servers launched by the broker
+
+
+    // parallel evaluation
+    int EVALUATION_THREADS = Runtime.getRuntime().availableProcessors();
+
     // path evaluation
     String EVALUATION_RESULTS = "D:/Output/queryResults.txt";
 
@@ -0,0 +1,133 @@
+package unipi.mircv;
+
+/**
+ * Writes whole posting lists to a docId-ordered index with the same layout of the main index written by the merger:
+ * the docIds and the frequencies of the postings, for each block of postings its last docId and its skip pointers
+ * with the maximum scores, and for each posting list a line of the lexicon with its offsets, its length and its
+ * upper bounds. It is used for the tiers of the tiered index and for the shards of the sharded index, whose posting
+ * lists are known only once the whole posting list of a term has been merged.
+ */
+public class PostingListWriter {
+
+    TextWriter lexiconWriter;
+    TextWriter docIdsTextWriter;
+    TextWriter freqTextWriter;
+    TextWriter lastDocIdsTextWriter;
+    TextWriter skipPointersTextWriter;
+    ByteWriter docIdsByteWriter;
+    ByteWriter freqByteWriter;
+    ByteWriter lastDocIdsByteWriter;
+    ByteWriter skipPointersByteWriter;
+    boolean text;
+    int blockLength;
+
+    int offsetDocIds = 0;
+    int offsetFreq = 0;
+    int offsetLastDocIds = 0;
+    int offsetSkipPointers = 0;
+
+    /**
+     * Opens the files of the index, creating their directories if needed.
+     *
+     * @param paths        The paths of the files of the index.
+     * @param encodingType The encoding type, either "text" or "byte".
+     * @param blockLength  The number of postings of a block.
+     */
+    public PostingListWriter(IndexPaths paths, String encodingType, int blockLength) {
+        paths.createDirectories();
+        this.text = encodingType.equals("text");
+        this.blockLength = blockLength;
+        lexiconWriter = new TextWriter(paths.lexicon);
+        if (text) {
+            docIdsTextWriter = new TextWriter(paths.docIds + ".txt");
+            freqTextWriter = new TextWriter(paths.freq + ".txt");
+            lastDocIdsTextWriter = new TextWriter(paths.lastDocIds + ".txt");
+            skipPointersTextWriter = new TextWriter(paths.skipPointers + ".txt");
+        } else {
+            Compressor compressor = new Compressor();
+            docIdsByteWriter = new ByteWriter(paths.docIds + ".dat", compressor);
+            freqByteWriter = new ByteWriter(paths.freq + ".dat", compressor);
+            lastDocIdsByteWriter = new ByteWriter(paths.lastDocIds + ".dat", compressor);
+            skipPointersByteWriter = new ByteWriter(paths.skipPointers + ".dat", compressor);
+        }
+    }
+
+    /**
+     * Writes the posting list of a term. A term without postings is not written to the lexicon.
+     *
+     * @param term               The term of the posting list.
+     * @param docIds             The docIds of the postings, increasing.
+     * @param freqs              The frequencies of the postings.
+     * @param termFrequencyParts The BM25 scores without the idf of the postings.
+     * @param count              The number of postings.
+     */
+    public void write(String term, int[] docIds, int[] freqs, double[] termFrequencyParts, int count) {
+        write(term, docIds, freqs, termFrequencyParts, 0, count);
+    }
+
+    /**
+     * Writes the posting list of a term made of the postings from start to end of the given arrays. A term without
+     * postings is not written to the lexicon.
+     *
+     * @param term               The term of the posting list.
+     * @param docIds             The docIds of the postings, increasing.
+     * @param freqs              The frequencies of the postings.
+     * @param termFrequencyParts The BM25 scores without the idf of the postings.
+     * @param start              The index of the first posting.
+     * @param end                The index after the last posting.
+     */
+    public void write(String term, int[] docIds, int[] freqs, double[] termFrequencyParts, int start, int end) {
+        int count = end - start;
+        if (count == 0) return;
+        lexiconWriter.write(term + " "
+                + offsetDocIds + " " + offsetFreq + " " + offsetLastDocIds + " " + offsetSkipPointers + " ");
+
+        double maxTermFrequencyPart = 0;
+        int maxTermFreq = 0;
+        for (int blockStart = start; blockStart < end; blockStart += blockLength) {
+            int blockEnd = Math.min(end, blockStart + blockLength);
+            int blockOffsetDocIds = offsetDocIds;
+            int blockOffsetFreq = offsetFreq;
+            double blockMaxTermFrequencyPart = 0;
+            int blockMaxTermFreq = 0;
+            for (int i = blockStart; i < blockEnd; i++) {
+                offsetDocIds += write(docIdsTextWriter, docIdsByteWriter, docIds[i]);
+                offsetFreq += write(freqTextWriter, freqByteWriter, freqs[i]);
+                blockMaxTermFrequencyPart = Math.max(blockMaxTermFrequencyPart, termFrequencyParts[i]);
+                blockMaxTermFreq = Math.max(blockMaxTermFreq, freqs[i]);
+            }
+            offsetLastDocIds += write(lastDocIdsTextWriter, lastDocIdsByteWriter, docIds[blockEnd - 1]);
+            offsetSkipPointers += write(skipPointersTextWriter, skipPointersByteWriter, blockOffsetDocIds);
+            offsetSkipPointers += write(skipPointersTextWriter, skipPointersByteWriter, blockOffsetFreq);
+            offsetSkipPointers += write(skipPointersTextWriter, skipPointersByteWriter, Merger.quantizeBlockMax(blockMaxTermFrequencyPart));
+            offsetSkipPointers += write(skipPointersTextWriter, skipPointersByteWriter, blockMaxTermFreq);
+            maxTermFrequencyPart = Math.max(maxTermFrequencyPart, blockMaxTermFrequencyPart);
+            maxTermFreq = Math.max(maxTermFreq, blockMaxTermFreq);
+        }
+
+        lexiconWriter.write(count + " " + Merger.roundUp(maxTermFrequencyPart) + " " + maxTermFreq + "\n");
+    }
+
+    // Writes an integer with the writer of the encoding, returning the size of the written integer.
+    private int write(TextWriter textWriter, ByteWriter byteWriter, int number) {
+        return text ? textWriter.write(number) : byteWriter.write(number);
+    }
+
+    /**
+     * Closes the files of the index.
+     */
+    public void close() {
+        lexiconWriter.close();
+        if (text) {
+            docIdsTextWriter.close();
+            freqTextWriter.close();
+            lastDocIdsTextWriter.close();
+            skipPointersTextWriter.close();
+        } else {
+            docIdsByteWriter.close();
+            freqByteWriter.close();
+            lastDocIdsByteWriter.close();
+            skipPointersByteWriter.close();
+        }
+    }
+}
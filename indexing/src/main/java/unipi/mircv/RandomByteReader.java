@@ -4,6 +4,8 @@ import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A class for reading bytes from a random access file using a specified compressor.
@@ -15,6 +17,9 @@ public class RandomByteReader {
         public BufferedInputStream bufferedInputStream; // for reading bytes from the file input stream.
         public Compressor compressor; //for reading encoded integers.
 
+        // buffer of each thread for the positional reads
+        private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(2560));
+
 
     /**
      * Constructs a RandomByteReader with the given file path and compressor.
@@ -43,6 +48,39 @@ public class RandomByteReader {
         }
 
 
+    /**
+     * Reads a sequence of encoded integers starting at the specified offset. The read is positional: the file pointer
+     * is not moved, so the method can be called by many threads at the same time.
+     *
+     * @param offset  The offset of the first encoded integer.
+     * @param count   The number of integers to read.
+     * @param numbers The array in which the decoded integers are stored.
+     * @return The number of decoded integers, less than count only if the end of the file is reached.
+     */
+        public int read(long offset, int count, int[] numbers) {
+            // An encoded integer takes at most 5 bytes
+            ByteBuffer buffer = BUFFER.get();
+            if (buffer.capacity() < count * 5) {
+                buffer = ByteBuffer.allocate(count * 5);
+                BUFFER.set(buffer);
+            }
+            buffer.clear().limit(count * 5);
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                long position = offset;
+                while (buffer.hasRemaining()) {
+                    int bytesRead = channel.read(buffer, position);
+                    if (bytesRead == -1) break;
+                    position += bytesRead;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            buffer.flip();
+            return compressor.decode(buffer, count, numbers);
+        }
+
+
     /**
      * Closes the underlying buffered input stream.
      */
@@ -3,6 +3,8 @@ package unipi.mircv;
 /**
  * A class representing a term in an inverted index, containing various metadata such as offsets,
  * posting list length, and a term upper bound.
+ * In the merged lexicon the upper bound is the maximum over the posting list of the BM25 score without the idf,
+ * and the maximum term frequency is stored to compute the upper bound of the TFIDF score.
  */
 public class Term {
 
@@ -12,6 +14,7 @@ public class Term {
     public int offsetSkipPointer;
     public int postingListLength;
     public float upperBound;
+    public int maxTermFreq;
 
     /**
      * Constructs a Term with the given metadata.
@@ -24,12 +27,28 @@ public class Term {
      * @param upperBound     Upper bound for the term.
      */
     public Term(int offsetDocId, int offsetFreq, int offsetLastDocIds, int offsetSkipPointer, int postingListLength, float upperBound) {
+        this(offsetDocId, offsetFreq, offsetLastDocIds, offsetSkipPointer, postingListLength, upperBound, 0);
+    }
+
+    /**
+     * Constructs a Term of the merged lexicon with the given metadata.
+     *
+     * @param offsetDocId        Offset of the document identifier.
+     * @param offsetFreq         Offset of the term frequency.
+     * @param offsetLastDocIds   Offset of the last document identifiers.
+     * @param offsetSkipPointer  Offset of the skip block.
+     * @param postingListLength  Length of the posting list.
+     * @param upperBound         Upper bound of the BM25 score without the idf.
+     * @param maxTermFreq        Maximum term frequency of the posting list.
+     */
+    public Term(int offsetDocId, int offsetFreq, int offsetLastDocIds, int offsetSkipPointer, int postingListLength, float upperBound, int maxTermFreq) {
         this.offsetDocId = offsetDocId;
         this.offsetFreq = offsetFreq;
         this.offsetLastDocIds = offsetLastDocIds;
         this.offsetSkipPointer = offsetSkipPointer;
         this.postingListLength = postingListLength;
         this.upperBound = upperBound;
+        this.maxTermFreq = maxTermFreq;
     }
 
     public float getUpperBound() {
@@ -41,6 +60,10 @@ public class Term {
     }
 
 
+    public int getMaxTermFreq() {
+        return maxTermFreq;
+    }
+
     public int getPostingListLength() {
         return postingListLength;
     }
@@ -2,6 +2,7 @@ package unipi.mircv;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -35,6 +36,21 @@ public class TextReader {
             else return -1;
         }
 
+        /**
+         * Reads all the remaining integers of the text input.
+         *
+         * @return An array containing the read integers.
+         */
+        public int[] readAll() {
+            int[] numbers = new int[1024];
+            int size = 0;
+            while(scanner.hasNext()){
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+                numbers[size++] = Integer.parseInt(scanner.next());
+            }
+            return Arrays.copyOf(numbers, size);
+        }
+
         /**
          * Reads a line of text from the input.
          *
@@ -0,0 +1,129 @@
+package unipi.mircv;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The BlockMaxMaxScore class implements MaxScore with block-max pruning. The posting lists are sorted by upper bound
+ * and split into essential and non-essential lists as in MaxScore: the candidate documents come only from the
+ * essential lists, since the non-essential ones together cannot beat the score of the k-th document. Before looking
+ * for a candidate in the non-essential lists, the maximum scores of the blocks that would contain it, stored with the
+ * skip information, are summed: if they cannot beat the threshold the candidate is discarded without decoding them.
+ * The top-k documents are the same of the exhaustive DAAT processing. Conjunctive queries are processed as in DAAT.
+ */
+public class BlockMaxMaxScore {
+
+    String queryType; // conjunctive or disjunctive
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+
+    /**
+     * Constructs a BlockMaxMaxScore instance with the specified query type and query processor.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive)
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public BlockMaxMaxScore(String queryType, QueryProcessor queryProcessor){
+        this.queryType = queryType;
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Scores documents based on the given query terms, skipping the documents and the blocks that cannot enter the top-k.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
+
+        // A conjunctive query has no non-essential lists, since every posting list must contain the document: it is
+        // processed as in DAAT
+        if(queryType.equals("conjunctive")){
+            new DAAT(queryType, queryProcessor).processConjunctive(scores,
+                    queryProcessor.intersectionCache.cursors(queryTerms, scoreFunction, encodingType), encodingType, scoreType);
+            return scores;
+        }
+
+        // One posting list for each query term, as in DAAT, sorted by increasing upper bound. The blocks are not
+        // read in advance, since the blocks of the non-essential lists may be skipped.
+        int n = queryTerms.length;
+        double[] upperBounds = new double[n];
+        Integer[] sortedIndexes = new Integer[n];
+        for(int i = 0; i < n; i++){
+            upperBounds[i] = scoreFunction.upperBound(queryTerms[i], scoreType);
+            sortedIndexes[i] = i;
+        }
+        Arrays.sort(sortedIndexes, (a, b) -> Double.compare(upperBounds[a], upperBounds[b]));
+        String[] terms = new String[n];
+        double[] sortedUpperBounds = new double[n];
+        double[] prefixUpperBounds = new double[n]; // sum of the upper bounds of the lists up to each one
+        for(int i = 0; i < n; i++){
+            terms[i] = queryTerms[sortedIndexes[i]];
+            sortedUpperBounds[i] = upperBounds[sortedIndexes[i]];
+            prefixUpperBounds[i] = sortedUpperBounds[i] + (i > 0 ? prefixUpperBounds[i - 1] : 0);
+        }
+        ArrayList<PLI> Iterators = queryProcessor.openCursors(terms, scoreFunction, encodingType, false);
+        double[] prefixBlockUpperBounds = new double[n]; // sum of the block upper bounds of the non-essential lists
+
+        // The lists before firstEssential are non-essential: the sum of their upper bounds does not exceed the threshold
+        int firstEssential = 0;
+        while(true){
+            boolean full = scoreFunction.canPrune(scores);
+            double threshold = scoreFunction.pruningThreshold(scores);
+            while(full && firstEssential < n && prefixUpperBounds[firstEssential] <= threshold){
+                firstEssential++;
+            }
+            if(firstEssential == n) break; // No other document can enter the top-k
+
+            // The candidate is the minimum docId of the essential lists
+            int candidate = Integer.MAX_VALUE;
+            for(int i = firstEssential; i < n; i++){
+                candidate = Math.min(candidate, Iterators.get(i).currentDocId(encodingType));
+            }
+            if(candidate == Integer.MAX_VALUE) break;
+
+            // Score the candidate on the essential lists
+            double score = 0.0;
+            for(int i = firstEssential; i < n; i++){
+                PLI termIterator = Iterators.get(i);
+                if(termIterator.currentDocId(encodingType) == candidate){
+                    score += termIterator.score();
+                    termIterator.next();
+                }
+            }
+
+            boolean pruned = false;
+            if(firstEssential > 0){
+                // Bound the score of the candidate with the maximum scores of the blocks of the non-essential lists
+                for(int i = 0; i < firstEssential; i++){
+                    prefixBlockUpperBounds[i] = Iterators.get(i).blockUpperBound(candidate, sortedUpperBounds[i], scoreType)
+                            + (i > 0 ? prefixBlockUpperBounds[i - 1] : 0);
+                }
+
+                // Look for the candidate in the non-essential lists from the one with the highest upper bound,
+                // stopping as soon as the remaining lists cannot make the candidate enter the top-k
+                for(int i = firstEssential - 1; i >= 0; i--){
+                    if(full && score + Math.min(prefixBlockUpperBounds[i], prefixUpperBounds[i]) <= threshold){
+                        pruned = true;
+                        break;
+                    }
+                    PLI termIterator = Iterators.get(i);
+                    if(termIterator.getShallowBlock() == -1) continue;
+                    termIterator.nextGEQ(candidate, encodingType);
+                    if(termIterator.currentDocId(encodingType) == candidate){
+                        score += termIterator.score();
+                        termIterator.next();
+                    }
+                }
+            }
+
+            if(!pruned) scores.add(candidate, score);
+        }
+        return scores; //Return the top K scores
+    }
+}
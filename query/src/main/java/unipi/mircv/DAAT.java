@@ -2,7 +2,6 @@ package unipi.mircv;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
     * Represents a Document-At-A-Time (DAAT) query processing strategy, handling conjunctive or disjunctive queries.
@@ -23,50 +22,52 @@ public class DAAT {
     }
 
     /**
-     * Scores documents based on the given query terms, posting lists, score function, k value, encoding type, and score type.
+     * Scores documents based on the given query terms, score function, k value, encoding type, and score type.
      *
      * @param queryTerms An array of query terms.
-     * @param postingLists A HashMap containing posting lists for each query term.
      * @param scoreFunction The ScoreFunction used for computing document scores.
      * @param k The maximum number of top documents to consider.
      * @param encodingType The encoding type for processing postings.
      * @param scoreType The type of score computation.
-     * @return A PQueue containing the top-k documents and their scores.
+     * @return A TopKHeap containing the top-k documents and their scores.
      */
-    public PQueue scoreDocuments(String[] queryTerms, HashMap<String, ArrayList<Posting>> postingLists, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
-        PQueue scores = new PQueue(k); //Initialize a new PriorityQueue with a capacity of k
-        ArrayList<PLI> Iterators = new ArrayList<>(); //List of iterators
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
 
-        //Create an iterator through the posting list related to each query term
-        for(String term : queryTerms){
-            Iterators.add(new PLI(term, postingLists.get(term), scoreFunction, queryProcessor, "daat"));
-        }
-
-        //Check if the query is conjunctive
+        //Check if the query is conjunctive, starting from the cached intersections of its terms
         if(queryType.equals("conjunctive")){
-            processConjunctive(scores,Iterators, encodingType,scoreType);
+            processConjunctive(scores, queryProcessor.intersectionCache.cursors(queryTerms, scoreFunction, encodingType), encodingType, scoreType);
             return scores;
         }
 
-        //Get minimum docID over all posting lists
-        while(!notFinished(Iterators)){
-            int minDocid = minDocId(Iterators, encodingType);
+        //Create an iterator through the posting list related to each query term, reading their first blocks in parallel
+        ArrayList<PLI> Iterators = queryProcessor.openCursors(queryTerms, scoreFunction, encodingType);
 
+        //Keep the posting lists in a tournament tree by current docID, so that long queries cost a logarithmic number of
+        //comparisons per posting. Each key packs the current docID in the high bits and the term index in the low bits:
+        //ties are broken by term index, so the scores are summed in the order of the query terms as before.
+        int leaves = Integer.highestOneBit(Math.max(1, queryTerms.length - 1)) << 1;
+        long[] keys = new long[leaves];
+        for(int i = 0; i < leaves; i++){
+            keys[i] = i < queryTerms.length ? key(Iterators.get(i), i, encodingType) : Long.MAX_VALUE;
+        }
+        int[] losers = buildTree(keys);
+
+        while(keys[losers[0]] != Long.MAX_VALUE){
+            int minDocid = (int) (keys[losers[0]] >>> 32);
             double score = 0.0;
 
-            //For each posting list check if the current posting correspond to the minimum docID
-            for(int i = 0; i < queryTerms.length; i++){
+            //Advance the posting lists on the minimum docID, in the order of the query terms
+            int i;
+            while(keys[i = losers[0]] >>> 32 == minDocid){
                 PLI termIterator = Iterators.get(i);
-                if (!termIterator.isFinished(encodingType)) {
-                    //If the current posting has the docID equal to the minimum docID
-                    if (termIterator.docid() == minDocid) {
-                        score += termIterator.score(queryTerms[i], scoreType); //Compute the score using the posting score function
-                        termIterator.next(); //Navigate to the next element of the posting list
-                    }
-                }
+                score += termIterator.score(); //Compute the score using the posting score function
+                termIterator.next(); //Navigate to the next element of the posting list
+                keys[i] = key(termIterator, i, encodingType);
+                replay(losers, keys, i);
             }
-            //Add the final score to the priorityQueue
-            scores.add(new DocsRanked(minDocid,score));
+            //Add the final score to the heap
+            scores.add(minDocid, score);
         }
         return scores; //Return the top K scores
     }
@@ -74,19 +75,19 @@ public class DAAT {
     /**
      * Processes conjunctive query to score documents based on posting lists and iterators.
      *
-     * @param scores A PQueue to store the scores of top documents.
+     * @param scores A TopKHeap to store the scores of top documents.
      * @param Iterators An ArrayList of Posting List Iterators.
      * @param encodingType The encoding type for processing postings.
      * @param scoreType The type of score computation.
      */
-    public void processConjunctive(PQueue scores, ArrayList<PLI> Iterators, String encodingType, String scoreType){
+    public void processConjunctive(TopKHeap scores, ArrayList<PLI> Iterators, String encodingType, String scoreType){
         //Find the smallest postingList
         int minPostingListIndex = 0;
-        int minPostingListLength = queryProcessor.getLexicon().getLexicon().get(Iterators.get(0).getTerm()).getPostingListLength();
+        int minPostingListLength = Iterators.get(0).getPostingListLength();
         for(int i=1; i<Iterators.size(); i++){
-            if(minPostingListLength>queryProcessor.getLexicon().getLexicon().get(Iterators.get(i).getTerm()).getPostingListLength()){
+            if(minPostingListLength>Iterators.get(i).getPostingListLength()){
                 minPostingListIndex = i;
-                minPostingListLength = queryProcessor.getLexicon().getLexicon().get(Iterators.get(i).getTerm()).getPostingListLength();
+                minPostingListLength = Iterators.get(i).getPostingListLength();
             }
         }
 
@@ -95,7 +96,7 @@ public class DAAT {
         while(!minPLI.isFinished(encodingType)){
             boolean toAdd = true;
             int docId = minPLI.docid();
-            double score = minPLI.score(minPLI.getTerm(), scoreType);
+            double score = minPLI.score();
             minPLI.next();
 
             //for each other posting list call the nextGEQ on the docID of the smallest postingList
@@ -103,7 +104,7 @@ public class DAAT {
                 if(i!=minPostingListIndex){
                     Iterators.get(i).nextGEQ(docId, encodingType);
                     if(docId == Iterators.get(i).docid()){
-                        score += Iterators.get(i).score(Iterators.get(i).getTerm(), scoreType);
+                        score += Iterators.get(i).score();
                     }else{
                         toAdd = false;
                         break;
@@ -111,46 +112,49 @@ public class DAAT {
                 }
             }
             if(toAdd){
-                scores.add(new DocsRanked(queryProcessor.getDocIndex().getDocIndex().get(docId).getDocNo(),score));
+                scores.add(docId, score);
             }
         }
 
     }
 
 
-    /**
-     * Gets the minimum document ID over all the posting lists.
-     *
-     * @param Iterators An ArrayList of Posting List Iterators.
-     * @param encodingType The encoding type for processing postings.
-     * @return The minimum document ID.
-     */
-    public int minDocId(ArrayList<PLI> Iterators, String encodingType){
-        int minDocId = Integer.MAX_VALUE; //maximum docID
-        for(PLI postingListIterator : Iterators){
-            if(!postingListIterator.isFinished(encodingType)){
-                if(postingListIterator.docid() < minDocId){
-                    minDocId = postingListIterator.docid();
-                }
-            }
+    // Returns the key of a posting list in the tournament tree: its current docID followed by the term index, or
+    // Long.MAX_VALUE if the posting list is finished. DocIDs are not negative, so the keys are ordered by docID.
+    private static long key(PLI termIterator, int termIndex, String encodingType){
+        return termIterator.isFinished(encodingType) ? Long.MAX_VALUE : ((long) termIterator.docid() << 32) | termIndex;
+    }
+
+    // Builds a tournament tree over the keys, whose number is a power of two. Every internal node stores the loser of
+    // the match played there, and the first position the overall winner, the posting list with the lowest key.
+    private static int[] buildTree(long[] keys){
+        int leaves = keys.length;
+        int[] losers = new int[leaves];
+        int[] winners = new int[2 * leaves];
+        for(int i = 0; i < leaves; i++){
+            winners[leaves + i] = i;
         }
-        return minDocId;
+        for(int node = leaves - 1; node > 0; node--){
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            boolean leftWins = keys[left] <= keys[right];
+            winners[node] = leftWins ? left : right;
+            losers[node] = leftWins ? right : left;
+        }
+        losers[0] = winners[1];
+        return losers;
     }
 
-    /**
-     * Checks if the query processing is finished, i.e., all the posting lists have been fully processed.
-     *
-     * @param Iterators An ArrayList of Posting List Iterators.
-     * @return True if the processing is finished, false otherwise.
-     */
-    public boolean notFinished(ArrayList<PLI> Iterators){
-        boolean finished = true;
-        for(PLI postingListIterator : Iterators){
-            if (postingListIterator.hasNext()) {
-                finished = false;
-                break;
+    // Plays again the matches from the leaf of a posting list, whose key changed, up to the root.
+    private static void replay(int[] losers, long[] keys, int leaf){
+        int winner = leaf;
+        for(int node = (leaf + keys.length) >>> 1; node > 0; node >>>= 1){
+            if(keys[losers[node]] < keys[winner]){
+                int loser = winner;
+                winner = losers[node];
+                losers[node] = loser;
             }
         }
-        return finished;
+        losers[0] = winner;
     }
 }
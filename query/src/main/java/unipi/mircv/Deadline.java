@@ -0,0 +1,57 @@
+package unipi.mircv;
+
+/**
+ * The time limit of a query. The document processors check it only when a cursor moves to another block of its
+ * posting list, so that the check costs one clock read every block of postings; once the deadline has expired the
+ * cursors behave as finished and the processors return the best top-k documents found so far.
+ * A deadline belongs to a single query, but is shared by all the shards of a sharded query, each checked by its own
+ * thread: the expiration found by a shard is seen by the others.
+ */
+public class Deadline {
+
+    // Deadline of the queries without a time limit
+    public static final Deadline NONE = new Deadline(false, 0);
+
+    private final boolean limited; // false if the query has no time limit
+    private final long expiration; // value of System.nanoTime() at which the deadline expires
+    private volatile boolean expired;
+
+    private Deadline(boolean limited, long expiration) {
+        this.limited = limited;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Creates the deadline of a query starting now.
+     *
+     * @param millis The time given to the query in milliseconds, 0 or less for no time limit.
+     * @return The deadline of the query.
+     */
+    public static Deadline after(long millis) {
+        if (millis <= 0) return NONE;
+        return new Deadline(true, System.nanoTime() + millis * 1_000_000);
+    }
+
+    /**
+     * Checks the clock and returns whether the deadline has expired.
+     *
+     * @return True if the deadline has expired, false otherwise.
+     */
+    public boolean check() {
+        if (limited && !expired && System.nanoTime() - expiration >= 0) expired = true;
+        return expired;
+    }
+
+    /**
+     * Returns whether the deadline was found expired by a previous check, without reading the clock.
+     *
+     * @return True if the deadline has expired, false otherwise.
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    public boolean isLimited() {
+        return limited;
+    }
+}
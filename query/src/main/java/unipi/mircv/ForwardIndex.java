@@ -0,0 +1,115 @@
+package unipi.mircv;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * Reads the forward index written by the ForwardIndexWriter: the distinct terms of a document with their frequencies.
+ * The terms and the fixed-width offset array are loaded in main memory, so reading a document costs a single
+ * positional read of its compressed entry, and the index can be shared by many threads.
+ */
+public class ForwardIndex {
+
+    private final String[] terms; // term of each term id
+    private final long[] offsets; // offset of the entry of each docId in the entries file
+    private final int[] termCounts; // number of distinct terms of each docId
+    private final RandomByteReader entriesRead;
+
+    private ForwardIndex(String[] terms, long[] offsets, int[] termCounts, RandomByteReader entriesRead) {
+        this.terms = terms;
+        this.offsets = offsets;
+        this.termCounts = termCounts;
+        this.entriesRead = entriesRead;
+    }
+
+    /**
+     * Loads the forward index from disk.
+     *
+     * @return The forward index, or null if it has not been written.
+     */
+    public static ForwardIndex load() {
+        File offsetsFile = new File(FORWARD_OFFSETS_PATH);
+        if (!new File(FORWARD_TERMS_PATH).exists() || !offsetsFile.exists() || !new File(FORWARD_ENTRIES_PATH).exists()) {
+            return null;
+        }
+
+        ArrayList<String> terms = new ArrayList<>();
+        TextReader termsRead = new TextReader(FORWARD_TERMS_PATH);
+        while (termsRead.hasNextLine()) {
+            terms.add(termsRead.readLine());
+        }
+        termsRead.close();
+
+        // A long and an int for each document
+        int documents = (int) (offsetsFile.length() / (Long.BYTES + Integer.BYTES));
+        long[] offsets = new long[documents];
+        int[] termCounts = new int[documents];
+        try (DataInputStream offsetsRead = new DataInputStream(new BufferedInputStream(new FileInputStream(offsetsFile)))) {
+            for (int docId = 0; docId < documents; docId++) {
+                offsets[docId] = offsetsRead.readLong();
+                termCounts[docId] = offsetsRead.readInt();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return new ForwardIndex(terms.toArray(new String[0]), offsets, termCounts,
+                new RandomByteReader(FORWARD_ENTRIES_PATH, new Compressor()));
+    }
+
+    /**
+     * Returns the number of distinct terms of a document.
+     *
+     * @param docId The docId of the document.
+     * @return The number of distinct terms, 0 if the document is not in the forward index.
+     */
+    public int getTermCount(int docId) {
+        return docId >= 0 && docId < termCounts.length ? termCounts[docId] : 0;
+    }
+
+    /**
+     * Reads the distinct terms of a document with their frequencies, by increasing term id.
+     *
+     * @param docId   The docId of the document.
+     * @param termIds The array in which the term ids are stored, at least getTermCount(docId) long.
+     * @param freqs   The array in which the frequencies are stored, at least getTermCount(docId) long.
+     * @return The number of distinct terms of the document.
+     */
+    public int readDocument(int docId, int[] termIds, int[] freqs) {
+        int n = getTermCount(docId);
+        if (n == 0) return 0;
+        int[] entries = new int[2 * n];
+        entriesRead.read(offsets[docId], entries.length, entries);
+        int termId = 0;
+        for (int i = 0; i < n; i++) {
+            termId += entries[2 * i];
+            termIds[i] = termId;
+            freqs[i] = entries[2 * i + 1];
+        }
+        return n;
+    }
+
+    /**
+     * Returns the term with the given id.
+     *
+     * @param termId The id of the term.
+     * @return The term.
+     */
+    public String getTerm(int termId) {
+        return terms[termId];
+    }
+
+    public int getDocuments() {
+        return offsets.length;
+    }
+
+    public void close() {
+        entriesRead.close();
+    }
+}
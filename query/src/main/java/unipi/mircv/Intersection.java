@@ -0,0 +1,64 @@
+package unipi.mircv;
+
+/**
+ * Holds in main memory the intersection of the posting lists of two terms: the docIds contained in both the posting
+ * lists, in increasing order, with the frequencies of the two terms in each document.
+ */
+public class Intersection {
+
+    private final String firstTerm;
+    private final String secondTerm;
+    private final int[] docIds; // docIds contained in both the posting lists
+    private final int[] firstFreqs; // frequency of the first term in each document
+    private final int[] secondFreqs; // frequency of the second term in each document
+
+    /**
+     * Constructs the intersection of two posting lists.
+     *
+     * @param firstTerm   The first term.
+     * @param secondTerm  The second term.
+     * @param docIds      The docIds contained in both the posting lists.
+     * @param firstFreqs  The frequencies of the first term.
+     * @param secondFreqs The frequencies of the second term.
+     */
+    public Intersection(String firstTerm, String secondTerm, int[] docIds, int[] firstFreqs, int[] secondFreqs) {
+        this.firstTerm = firstTerm;
+        this.secondTerm = secondTerm;
+        this.docIds = docIds;
+        this.firstFreqs = firstFreqs;
+        this.secondFreqs = secondFreqs;
+    }
+
+    /**
+     * Returns the memory occupied by the postings of the intersection.
+     *
+     * @return The size in bytes.
+     */
+    public long getBytes() {
+        return 12L * docIds.length;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public String getFirstTerm() {
+        return firstTerm;
+    }
+
+    public String getSecondTerm() {
+        return secondTerm;
+    }
+
+    public int[] getDocIds() {
+        return docIds;
+    }
+
+    public int[] getFirstFreqs() {
+        return firstFreqs;
+    }
+
+    public int[] getSecondFreqs() {
+        return secondFreqs;
+    }
+}
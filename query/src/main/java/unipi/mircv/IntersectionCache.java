@@ -0,0 +1,181 @@
+package unipi.mircv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A cache of the intersections of the posting lists of the pairs of terms that appear frequently together in
+ * conjunctive queries. Every conjunctive query counts the pairs of its terms; when a pair has been observed a minimum
+ * number of times its intersection is computed and kept in memory, so that the next queries containing the pair
+ * can start from it instead of intersecting the two posting lists again.
+ * The intersections are evicted in LRU order when their total size exceeds the memory budget, while the counters of
+ * the pairs are halved when there are too many of them, so that the old traffic counts less than the recent one.
+ * The cache is shared by all the queries, so its accesses are synchronized; the intersections are computed outside
+ * the lock, and never by a query with a deadline, which would pay for the whole posting lists of the pair: its
+ * observation is counted and the intersection is left to the next query without a deadline.
+ */
+public class IntersectionCache {
+
+    private final QueryProcessor queryProcessor; // used to read the posting lists
+    private final LinkedHashMap<String, Intersection> cache; // access ordered map between a pair of terms and their intersection
+    private final HashMap<String, Integer> pairCounts; // number of times each pair not yet cached has been observed
+    private final long maxBytes; // memory budget of the intersections
+    private final int minFrequency; // number of observations after which a pair is cached
+    private final int maxPairs; // maximum number of pairs whose observations are counted
+    private long cachedBytes; // memory currently occupied by the intersections
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param queryProcessor The QueryProcessor used to read the posting lists.
+     * @param maxBytes       The memory budget of the intersections, in bytes.
+     * @param minFrequency   The number of observations after which the intersection of a pair is cached.
+     * @param maxPairs       The maximum number of pairs whose observations are counted.
+     */
+    public IntersectionCache(QueryProcessor queryProcessor, long maxBytes, int minFrequency, int maxPairs) {
+        this.queryProcessor = queryProcessor;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        this.pairCounts = new HashMap<>();
+        this.maxBytes = maxBytes;
+        this.minFrequency = minFrequency;
+        this.maxPairs = maxPairs;
+        this.cachedBytes = 0;
+    }
+
+    /**
+     * Creates the cursors for a conjunctive query. The pairs of terms whose intersection is cached are covered by
+     * a cursor over the intersection, choosing first the smallest intersections; the remaining terms get a cursor
+     * over their posting list. Every pair of the query is counted as observed.
+     *
+     * @param queryTerms    The terms of the query.
+     * @param scoreFunction The ScoreFunction used to score the postings.
+     * @param encodingType  The encoding type for reading postings.
+     * @return The cursors covering all the terms of the query.
+     */
+    public ArrayList<PLI> cursors(String[] queryTerms, ScoreFunction scoreFunction, String encodingType) {
+        String[] terms = new TreeSet<>(Arrays.asList(queryTerms)).toArray(new String[0]);
+        ArrayList<Intersection> candidates = new ArrayList<>();
+        for (int i = 0; i < terms.length; i++) {
+            for (int j = i + 1; j < terms.length; j++) {
+                Intersection intersection = get(terms[i], terms[j], scoreFunction.getDeadline(), encodingType);
+                if (intersection != null) candidates.add(intersection);
+            }
+        }
+        candidates.sort(Comparator.comparingInt(Intersection::size));
+
+        // Every intersection replaces one occurrence of each of its terms
+        ArrayList<String> remainingTerms = new ArrayList<>(Arrays.asList(queryTerms));
+        ArrayList<PLI> cursors = new ArrayList<>();
+        for (Intersection intersection : candidates) {
+            if (remainingTerms.contains(intersection.getFirstTerm()) && remainingTerms.contains(intersection.getSecondTerm())) {
+                remainingTerms.remove(intersection.getFirstTerm());
+                remainingTerms.remove(intersection.getSecondTerm());
+                cursors.add(new PLI(intersection, scoreFunction));
+            }
+        }
+        cursors.addAll(queryProcessor.openCursors(remainingTerms.toArray(new String[0]), scoreFunction, encodingType));
+        return cursors;
+    }
+
+    /**
+     * Counts an observation of a pair of terms and returns its intersection, computing it if the pair has become
+     * frequent enough and the query has no deadline.
+     *
+     * @param firstTerm    The first term, lower than the second one.
+     * @param secondTerm   The second term.
+     * @param deadline     The deadline of the query.
+     * @param encodingType The encoding type for reading postings.
+     * @return The intersection of the posting lists, or null if the pair is not cached.
+     */
+    public Intersection get(String firstTerm, String secondTerm, Deadline deadline, String encodingType) {
+        int firstLength = queryProcessor.getTerm(firstTerm).getPostingListLength();
+        int secondLength = queryProcessor.getTerm(secondTerm).getPostingListLength();
+        // Empty posting lists are not worth caching, as are those whose intersection could exceed the whole budget
+        if (firstLength == 0 || secondLength == 0 || 12L * Math.min(firstLength, secondLength) > maxBytes) return null;
+
+        String key = firstTerm + " " + secondTerm;
+        synchronized (this) {
+            Intersection intersection = cache.get(key);
+            if (intersection != null) return intersection;
+            if (pairCounts.merge(key, 1, Integer::sum) < minFrequency) {
+                if (pairCounts.size() > maxPairs) age();
+                return null;
+            }
+            // The pair stays counted, so the next query without a deadline computes its intersection
+            if (deadline.isLimited()) return null;
+        }
+
+        Intersection intersection = intersect(firstTerm, secondTerm, encodingType);
+        synchronized (this) {
+            // Another query could have computed the same intersection in the meantime
+            pairCounts.remove(key);
+            if (!cache.containsKey(key)) {
+                cache.put(key, intersection);
+                cachedBytes += intersection.getBytes();
+                evict();
+            }
+        }
+        return intersection;
+    }
+
+    // Computes the intersection of the posting lists of two terms, driving it with the shortest one.
+    private Intersection intersect(String firstTerm, String secondTerm, String encodingType) {
+        PLI first = new PLI(firstTerm, null, queryProcessor, encodingType);
+        PLI second = new PLI(secondTerm, null, queryProcessor, encodingType);
+        boolean firstShorter = first.getPostingListLength() <= second.getPostingListLength();
+        PLI shortest = firstShorter ? first : second;
+        PLI longest = firstShorter ? second : first;
+
+        int[] docIds = new int[shortest.getPostingListLength()];
+        int[] shortestFreqs = new int[docIds.length];
+        int[] longestFreqs = new int[docIds.length];
+        int size = 0;
+        while (!shortest.isFinished(encodingType)) {
+            int docId = shortest.docid();
+            longest.nextGEQ(docId, encodingType);
+            if (longest.docid() == docId) {
+                docIds[size] = docId;
+                shortestFreqs[size] = shortest.freq();
+                longestFreqs[size] = longest.freq();
+                size++;
+            }
+            shortest.next();
+        }
+
+        docIds = Arrays.copyOf(docIds, size);
+        shortestFreqs = Arrays.copyOf(shortestFreqs, size);
+        longestFreqs = Arrays.copyOf(longestFreqs, size);
+        return new Intersection(firstTerm, secondTerm, docIds,
+                firstShorter ? shortestFreqs : longestFreqs, firstShorter ? longestFreqs : shortestFreqs);
+    }
+
+    // Remove the least recently used intersections until the cache is within its budget, always keeping the last one.
+    private void evict() {
+        Iterator<Map.Entry<String, Intersection>> iterator = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes && cache.size() > 1) {
+            cachedBytes -= iterator.next().getValue().getBytes();
+            iterator.remove();
+        }
+    }
+
+    // Halve the counters of the observed pairs, forgetting the ones that reach zero.
+    private void age() {
+        pairCounts.replaceAll((key, count) -> count / 2);
+        pairCounts.values().removeIf(count -> count == 0);
+    }
+
+    /**
+     * Removes all the intersections and the observations from the cache.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        pairCounts.clear();
+        cachedBytes = 0;
+    }
+}
@@ -1,8 +1,14 @@
 package unipi.mircv;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static unipi.mircv.Parameters.LOG_QUERY_PLANS;
+import static unipi.mircv.Parameters.RESULT_CACHE_DEPTH;
+import static unipi.mircv.Parameters.RESULT_CACHE_MAX_DEPTH;
+import static unipi.mircv.Parameters.RESULT_CACHE_SIZE;
+import static unipi.mircv.Parameters.SHARDED_QUERIES;
 
 /**
  * The MainQueries class serves as the central hub for handling user queries. It facilitates user interactions
@@ -11,12 +17,30 @@ import java.util.Scanner;
 
 public class MainQueries {
 
+    // Supported settings of the query processing
+    public static final List<String> SCORE_TYPES = List.of("tfidf", "bm25");
+    public static final List<String> DOCUMENT_PROCESSORS = List.of("daat", "maxscore", "wand", "bmw", "bmm", "saat", "svs", "auto", "tiered", "rm3");
+    public static final List<String> QUERY_TYPES = List.of("conjunctive", "disjunctive");
+
     private int k; // Number of top results to retrieve
-    public QueryProcessor queryProcessor;
+    public volatile QueryProcessor queryProcessor;
+    public ResultCache resultCache; // results of the previous queries
+    private final String encodingType;
     public String stringScore;  // string for the type of scoring documents
     public String documentProcessor;
     public Parser parser;
 
+    // Queries processed with a deadline, and how many of them were stopped by it
+    private final AtomicLong deadlineQueries = new AtomicLong();
+    private final AtomicLong expiredDeadlines = new AtomicLong();
+
+    // Process the queries on all the shards of the sharded index at the same time, when it is available
+    public volatile boolean sharded = SHARDED_QUERIES;
+
+    // Queries processed on the tiered index, and how many of them fell back to the whole index
+    private final AtomicLong tieredQueries = new AtomicLong();
+    private final AtomicLong tieredFallbacks = new AtomicLong();
+
     // Flag indicating the query type:disjunctive (true) or conjunctive (false)
     private final String queryType;
 
@@ -25,7 +49,7 @@ public class MainQueries {
      *
      * @param k                Number of top results to retrieve
      * @param stringScore      Type of document scoring
-     * @param documentProcessor How to process the posting list (daat, maxscore)
+     * @param documentProcessor How to process the posting list (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
      * @param queryType        Type of relation (conjunctive or disjunctive)
      * @param stopwordStemming Flag for enabling or disabling stopwords removal and stemming
      * @param encodingType     Encoding type for processing the query
@@ -36,11 +60,24 @@ public class MainQueries {
         this.stringScore = stringScore;
         this.documentProcessor = documentProcessor;
         this.queryType = queryType;
+        this.encodingType = encodingType;
         this.queryProcessor = new QueryProcessor(encodingType);
+        this.resultCache = new ResultCache(RESULT_CACHE_SIZE, RESULT_CACHE_MAX_DEPTH);
         this.parser = new Parser();
 
     }
 
+    /**
+     * Loads the index again from disk, for example after it has been rebuilt, and invalidates the cached results.
+     * It must be called when no query is being processed.
+     */
+    public synchronized void reload() {
+        QueryProcessor oldQueryProcessor = queryProcessor;
+        queryProcessor = new QueryProcessor(encodingType);
+        resultCache.clear();
+        oldQueryProcessor.close();
+    }
+
 
     /**
      * Processes the user query and returns the top-k results.
@@ -48,19 +85,88 @@ public class MainQueries {
      * @param query             The query to process
      * @param stopwordStemming Flag for enabling or disabling stopwords removal and stemming
      * @param encodingType     Encoding type for processing the query
-     * @return BoundedPriorityQueue of top-k results
+     * @return TopKHeap of top-k results
      */
-    public PQueue processQuery(String query, boolean stopwordStemming, String encodingType) {
+    public TopKHeap processQuery(String query, boolean stopwordStemming, String encodingType) {
+        return processQuery(query, k, stringScore, documentProcessor, queryType, stopwordStemming, encodingType, 0, 1);
+    }
+
+    /**
+     * Processes the user query with the given settings, instead of the ones of this instance, and returns the
+     * top-k results. The index is shared, so queries with different settings can be processed at the same time.
+     * When the deadline expires the document processor stops at the next block of postings and the best top-k found
+     * so far is returned, flagged as approximate. A pruning factor F greater than 1 multiplies the threshold of the
+     * pruning decisions of the dynamic pruning processors (maxscore, wand, bmw, bmm, tiered and auto), trading some
+     * of the top-k documents for a faster processing.
+     *
+     * @param query             The query to process
+     * @param k                 Number of top results to retrieve
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param stopwordStemming  Flag for enabling or disabling stopwords removal and stemming
+     * @param encodingType      Encoding type for processing the query
+     * @param deadlineMillis    Time given to the query in milliseconds, 0 for no time limit
+     * @param pruningFactor     Factor F >= 1 of the pruning threshold, 1 for the exact top-k
+     * @return TopKHeap of top-k results
+     */
+    public TopKHeap processQuery(String query, int k, String stringScore, String documentProcessor, String queryType, boolean stopwordStemming, String encodingType, long deadlineMillis, double pruningFactor) {
+        Deadline deadline = Deadline.after(deadlineMillis);
         String[] queryTerms = parser.processDocument(query, stopwordStemming).split(" "); //Parse the query
-        HashMap<String, ArrayList<Posting>> postingLists;
 
-        if (documentProcessor.equals("daat")) {
-            postingLists = queryProcessor.lookup(queryTerms, encodingType);
-        } else {
-            postingLists = queryProcessor.initialLookUp(queryTerms, encodingType); //Retrieve candidate postinglists
+        return scoreDocuments(queryTerms, k, stringScore, documentProcessor, queryType, encodingType, deadline, pruningFactor); //Return scores
+    }
+
+    /**
+     * Processes the user query and returns a page of its ranking, with the settings of this instance.
+     *
+     * @param query            The query to process
+     * @param offset           Number of documents ranked before the page
+     * @param limit            Maximum number of documents of the page
+     * @param stopwordStemming Flag for enabling or disabling stopwords removal and stemming
+     * @param encodingType     Encoding type for processing the query
+     * @return The page of results
+     */
+    public ResultPage searchPage(String query, int offset, int limit, boolean stopwordStemming, String encodingType) {
+        return searchPage(query, offset, limit, stringScore, documentProcessor, queryType, stopwordStemming, encodingType, 0, 1);
+    }
+
+    /**
+     * Processes the user query and returns the documents from position offset + 1 to offset + limit of its ranking.
+     * The top documents are computed to a depth that doubles from RESULT_CACHE_DEPTH until it covers the page, at most
+     * the size of the collection, and are kept in the result cache up to RESULT_CACHE_MAX_DEPTH: the following pages
+     * of the same query are sliced from the cached ranking, and a new ranking, twice as deep, is computed only when a
+     * page goes past its end.
+     *
+     * @param query             The query to process
+     * @param offset            Number of documents ranked before the page
+     * @param limit             Maximum number of documents of the page
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param stopwordStemming  Flag for enabling or disabling stopwords removal and stemming
+     * @param encodingType      Encoding type for processing the query
+     * @param deadlineMillis    Time given to the query in milliseconds, 0 for no time limit
+     * @param pruningFactor     Factor F >= 1 of the pruning threshold, 1 for the exact top-k
+     * @return The page of results, null if the document processor is unknown
+     */
+    public ResultPage searchPage(String query, int offset, int limit, String stringScore, String documentProcessor, String queryType, boolean stopwordStemming, String encodingType, long deadlineMillis, double pruningFactor) {
+        // No ranking is longer than the collection
+        int collectionSize = queryProcessor.getDocIndex().getDocIndex().size();
+        long k = Math.min((long) offset + limit, collectionSize);
+        long depth = RESULT_CACHE_DEPTH;
+        while (depth < k) {
+            depth *= 2;
         }
+        int pageDepth = (int) Math.min(depth, collectionSize);
+        Deadline deadline = Deadline.after(deadlineMillis);
+        String[] queryTerms = parser.processDocument(query, stopwordStemming).split(" "); //Parse the query
 
-        return scoreDocuments(queryTerms, postingLists, encodingType); //Return scores
+        TopKHeap results = scoreDocuments(queryTerms, pageDepth, stringScore, documentProcessor, queryType, encodingType, deadline, pruningFactor);
+        if (results == null) return null;
+        List<DocsRanked> ranking = results.getSortedResults();
+        boolean complete = ranking.size() < pageDepth || ranking.size() == collectionSize;
+        return ResultPage.of(ranking, complete, offset, limit, this, results.isApproximate());
     }
 
 
@@ -68,29 +174,204 @@ public class MainQueries {
      * Scores the documents using the specified score function.
      *
      * @param queryTerms   Terms of the query
-     * @param postingLists Posting lists of the query terms
      * @param encodingType type of encoding (byte or text)
-     * @return BoundedPriorityQueue of top-k results
+     * @return TopKHeap of top-k results
      */
-    public PQueue scoreDocuments(String[] queryTerms, HashMap<String, ArrayList<Posting>> postingLists, String encodingType) {
+    public TopKHeap scoreDocuments(String[] queryTerms, String encodingType) {
+        return scoreDocuments(queryTerms, k, stringScore, documentProcessor, queryType, encodingType, Deadline.NONE, 1);
+    }
 
-        if (documentProcessor.equals("daat")) {
+    /**
+     * Scores the documents using the given settings, deadline and pruning factor. The results are looked up in the
+     * result cache first; on a miss the top-max(k, RESULT_CACHE_DEPTH) documents are computed and cached, so that
+     * later requests of the same query with a larger k can be served from the cache too. Results cut short by the
+     * deadline are flagged as approximate and not cached, and the results of each pruning factor are cached apart.
+     *
+     * @param queryTerms        Terms of the query
+     * @param k                 Number of top results to retrieve
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param encodingType      type of encoding (byte or text)
+     * @param deadline          Time limit of the query
+     * @param pruningFactor     Factor F >= 1 of the pruning threshold, 1 for the exact top-k
+     * @return TopKHeap of top-k results
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, int k, String stringScore, String documentProcessor, String queryType, String encodingType, Deadline deadline, double pruningFactor) {
+        String key = ResultCache.key(queryTerms, stringScore, documentProcessor, queryType, pruningFactor);
+        TopKHeap results = resultCache.get(key, k);
+        if (results != null) return results;
+
+        int depth = Math.max(k, RESULT_CACHE_DEPTH);
+        results = computeScores(queryTerms, depth, stringScore, documentProcessor, queryType, encodingType, deadline, pruningFactor);
+        if (results == null) return null;
+        if (deadline.isLimited()) deadlineQueries.incrementAndGet();
+        if (deadline.isExpired()) {
+            expiredDeadlines.incrementAndGet();
+            results.setApproximate(true);
+        }
+        else {
+            resultCache.put(key, results, depth);
+        }
+        if (depth == k) return results;
+        TopKHeap topK = ResultCache.topK(results.getSortedResults(), k);
+        topK.setApproximate(results.isApproximate());
+        return topK;
+    }
+
+    /**
+     * Scores the documents with the chosen document processor, deadline and pruning factor, without using the result
+     * cache. If the deadline expires the processor returns the best top-k found so far. The exhaustive processors
+     * (daat, saat, svs) ignore the pruning factor. When sharded, the processors listed in
+     * ShardCoordinator.SHARDED_PROCESSORS run on all the shards at the same time, with the same results.
+     *
+     * @param queryTerms        Terms of the query
+     * @param k                 Number of top results to retrieve
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param encodingType      type of encoding (byte or text)
+     * @param deadline          Time limit of the query
+     * @param pruningFactor     Factor F >= 1 of the pruning threshold, 1 for the exact top-k
+     * @return TopKHeap of top-k results, null if the document processor is unknown
+     */
+    public TopKHeap computeScores(String[] queryTerms, int k, String stringScore, String documentProcessor, String queryType, String encodingType, Deadline deadline, double pruningFactor) {
+        QueryProcessor queryProcessor = this.queryProcessor;
+        if (!DOCUMENT_PROCESSORS.contains(documentProcessor)) return null;
+
+        ScoreFunction x = new ScoreFunction(queryTerms, queryProcessor, stringScore, deadline, pruningFactor);
+        if (sharded && ShardCoordinator.SHARDED_PROCESSORS.contains(documentProcessor) && queryProcessor.openShards()) {
+            ShardCoordinator coordinator = new ShardCoordinator(queryProcessor);
+            return coordinator.scoreDocuments(x, k, (shard, shardScoreFunction) ->
+                    process(queryTerms, shard, shardScoreFunction, k, stringScore, documentProcessor, queryType, encodingType));
+        }
+        return process(queryTerms, queryProcessor, x, k, stringScore, documentProcessor, queryType, encodingType);
+    }
+
+    // Scores the documents of the given index with the chosen document processor, counting the tiered queries
+    private TopKHeap process(String[] queryTerms, QueryProcessor queryProcessor, ScoreFunction x, int k, String stringScore, String documentProcessor, String queryType, String encodingType) {
+        Tiered tiered = new Tiered(queryType, queryProcessor);
+        TopKHeap results = scoreIndex(queryTerms, queryProcessor, x, k, stringScore, documentProcessor, queryType, encodingType, tiered);
+        if (documentProcessor.equals("tiered")) {
+            tieredQueries.incrementAndGet();
+            if (tiered.fellBack()) tieredFallbacks.incrementAndGet();
+        }
+        return results;
+    }
+
+    /**
+     * Scores the documents of an index with the chosen document processor and scoring function, such as the index
+     * of a shard served by a ShardServer with the scoring function of the whole collection.
+     *
+     * @param queryTerms        Terms of the query
+     * @param queryProcessor    Processor of the index
+     * @param x                 Scoring function of the query
+     * @param k                 Number of top results to retrieve
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param encodingType      type of encoding (byte or text)
+     * @return TopKHeap of top-k results, null if the document processor is unknown
+     */
+    public static TopKHeap scoreIndex(String[] queryTerms, QueryProcessor queryProcessor, ScoreFunction x, int k, String stringScore, String documentProcessor, String queryType, String encodingType) {
+        return scoreIndex(queryTerms, queryProcessor, x, k, stringScore, documentProcessor, queryType, encodingType, new Tiered(queryType, queryProcessor));
+    }
 
+    // Scores the documents of an index as above, with the given Tiered instance for the tiered processor
+    private static TopKHeap scoreIndex(String[] queryTerms, QueryProcessor queryProcessor, ScoreFunction x, int k, String stringScore, String documentProcessor, String queryType, String encodingType, Tiered tiered) {
+        if (documentProcessor.equals("tiered")) {
+            return tiered.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+        }
+        if (documentProcessor.equals("daat")) {
             DAAT daat = new DAAT(queryType, queryProcessor);
-            ScoreFunction x = new ScoreFunction(postingLists, queryTerms, queryProcessor, stringScore);
-            return daat.scoreDocuments(queryTerms, postingLists, x, k, encodingType, stringScore);
+            return daat.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
         }
         else {
             if (documentProcessor.equals("maxscore")) {
-
                 MaxScore maxScore = new MaxScore(queryType, queryProcessor);
-                ScoreFunction x = new ScoreFunction(postingLists, queryTerms, queryProcessor, stringScore);
-                return maxScore.scoreDocuments(queryTerms, postingLists, x, k, encodingType, stringScore);
+                return maxScore.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("wand")) {
+                WAND wand = new WAND(queryType, queryProcessor);
+                return wand.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("bmw")) {
+                BlockMaxWAND blockMaxWand = new BlockMaxWAND(queryType, queryProcessor);
+                return blockMaxWand.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("bmm")) {
+                BlockMaxMaxScore blockMaxMaxScore = new BlockMaxMaxScore(queryType, queryProcessor);
+                return blockMaxMaxScore.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("saat")) {
+                SAAT saat = new SAAT(queryType, queryProcessor);
+                return saat.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("svs")) {
+                SvS svs = new SvS(queryType, queryProcessor);
+                return svs.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("auto")) {
+                QueryPlanner planner = new QueryPlanner(queryProcessor);
+                QueryPlanner.Plan plan = planner.plan(queryTerms, x, queryType, stringScore);
+                if (LOG_QUERY_PLANS) System.out.println("*** PLAN " + String.join(" ", queryTerms) + ": " + plan + " ***");
+                return planner.execute(plan, queryTerms, x, k, queryType, encodingType, stringScore);
+            }
+            if (documentProcessor.equals("rm3")) {
+                RM3 rm3 = new RM3(queryType, queryProcessor);
+                return rm3.scoreDocuments(queryTerms, x, k, encodingType, stringScore);
             }
         }
         return null;
     }
 
+    /**
+     * Returns the number of queries processed with a deadline, excluding those served by the result cache.
+     *
+     * @return The number of queries with a deadline
+     */
+    public long getDeadlineQueries() {
+        return deadlineQueries.get();
+    }
+
+    /**
+     * Returns the number of queries stopped by their deadline, whose results are approximate.
+     *
+     * @return The number of expired deadlines
+     */
+    public long getExpiredDeadlines() {
+        return expiredDeadlines.get();
+    }
+
+    /**
+     * Returns the number of queries processed with the tiered processor, excluding those served by the result cache.
+     *
+     * @return The number of tiered queries
+     */
+    public long getTieredQueries() {
+        return tieredQueries.get();
+    }
+
+    /**
+     * Returns the number of tiered queries that were not answered safely by tier 1 and processed on the whole index.
+     *
+     * @return The number of fallbacks to the whole index
+     */
+    public long getTieredFallbacks() {
+        return tieredFallbacks.get();
+    }
+
+    /**
+     * Returns the number of a document in the collection, the identifier written in the results. The document
+     * processors rank the documents by their docId, assigned during the indexing.
+     *
+     * @param docId The docId of the document
+     * @return The docNo of the document
+     */
+    public int getDocNo(int docId) {
+        return queryProcessor.getDocIndex().getDocIndex().get(docId).getDocNo();
+    }
+
     /**
      * The main method to execute queries and display results.
      *
@@ -109,7 +390,7 @@ public class MainQueries {
         System.out.print("Score function to use (tfidf/bm25): ");
         String scoreType = scanner.nextLine(); // Use next() for reading a single word
 
-        System.out.print("How to process the postinglist (daat/maxscore): ");
+        System.out.print("How to process the postinglist (daat/maxscore/wand/bmw/bmm/saat/svs/auto/tiered/rm3): ");
         String documentProcessor = scanner.nextLine();
 
         System.out.print("Type of relation (conjunctive/disjunctive): ");
@@ -130,7 +411,7 @@ public class MainQueries {
             String query=scanner.nextLine();
 
             long start = System.currentTimeMillis();
-            PQueue results = mainQueries.processQuery(query, stopwordStemming, encodingType);
+            TopKHeap results = mainQueries.processQuery(query, stopwordStemming, encodingType);
             long end = System.currentTimeMillis();
 
             System.out.println("*** Time in milliseconds: " + (end - start) + " ***");
@@ -1,8 +1,10 @@
 package unipi.mircv;
 
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 
 /**
  * The MaxScore class implements scoring of documents using the Document-At-a-Time retrieval model.
@@ -27,121 +29,122 @@ public class MaxScore {
     }
 
     /**
-     * Main function for scoring documents based on the Document-At-a-Time retrieval model.
+     * Main function for scoring documents based on the Document-At-a-Time retrieval model. The distinct query terms
+     * are sorted by increasing upper bound and the prefix sums of the upper bounds are computed once: the posting
+     * lists whose prefix sum does not exceed the threshold are non-essential, since the documents appearing only in
+     * them cannot enter the top-k. The partition pointer only moves forward, when the threshold rises.
+     * A term repeated in the query has a single posting list, whose scores and upper bound are multiplied by its
+     * occurrences, so that the documents get the same scores as in DAAT.
      *
      * @param queryTerms      Array of query terms
-     * @param postingLists    Mapping of query terms to their corresponding posting lists
      * @param scoreFunction   Scoring function (TFIDF or BM25)
      * @param k               Number of top documents to retrieve
      * @param encodingType    Encoding type for document and query representation
      * @param scoreType       Type of score to calculate (e.g., raw score or normalized score)
-     * @return                Priority queue containing the top K scored documents
+     * @return                Heap containing the top K scored documents
      */
-    public PQueue scoreDocuments(String[] queryTerms, HashMap<String, ArrayList<Posting>> postingLists, ScoreFunction scoreFunction, int k,String encodingType,String scoreType){
-        PQueue scores = new PQueue(k); //Initialize a new PriorityQueue with a capacity of k
-        HashMap<String, Double> UpperBounds = new HashMap<>(); //Create a HashMap of term upper bounds
-        double threshold = 0;
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k,String encodingType,String scoreType){
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
 
-        // Determine term upper bounds for each query term
-        for(String term : queryTerms){
-            UpperBounds.put(term,(double) queryProcessor.getLexicon().getLexicon().get(term).getUpperBound());
+        // Check if the query is conjunctive and process it accordingly, starting from the cached intersections of its
+        // terms: every occurrence of a repeated term is covered by a cursor
+        if(queryType.equals("conjunctive")){
+            processConjunctive(scores, queryProcessor.intersectionCache.cursors(queryTerms, scoreFunction, encodingType), encodingType, scoreType);
+            return scores;
         }
 
-        // Sort the posting lists based on the term upper bounds
-        postingLists = postingLists.entrySet().stream()
-                .sorted(Comparator.comparingDouble(e -> UpperBounds.get(e.getKey())))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
-
-        // Create an array of terms in the order they appear in the posting lists
-        String[] orderedTerms = postingLists.keySet().toArray(new String[0]);
-
-        // Create an array of booleans to keep track of essential posting lists and mark them accordingly
-        boolean[] essentialPostingList = new boolean[orderedTerms.length];
-        double counter = 0;
-        for(int i = 0; i < orderedTerms.length; i++){
-            counter += UpperBounds.get(orderedTerms[i]);
-            essentialPostingList[i] = counter >= threshold;
+        // Create an array of the distinct query terms, with their occurrences, sorted by their upper bounds
+        LinkedHashMap<String, Integer> termOccurrences = new LinkedHashMap<>();
+        for(String term : queryTerms){
+            termOccurrences.merge(term, 1, Integer::sum);
         }
-
-        //Create an array list of PostingListIterators, one for each query term
-        ArrayList<PLI> Iterators = new ArrayList<>();
-        for(String term : orderedTerms){
-            Iterators.add(new PLI(term, postingLists.get(term), scoreFunction, queryProcessor, "maxscore"));
+        String[] distinctTerms = termOccurrences.keySet().toArray(new String[0]);
+        int n = distinctTerms.length;
+        double[] termUpperBounds = new double[n];
+        Integer[] sortedIndexes = new Integer[n];
+        for(int i = 0; i < n; i++){
+            termUpperBounds[i] = termOccurrences.get(distinctTerms[i]) * scoreFunction.upperBound(distinctTerms[i], scoreType);
+            sortedIndexes[i] = i;
         }
-
-        // Check if the query is conjunctive and process it accordingly
-        if(queryType.equals("conjunctive")){
-            processConjunctive(scores,Iterators,encodingType,scoreType);
-            return scores;
+        Arrays.sort(sortedIndexes, Comparator.comparingDouble(i -> termUpperBounds[i]));
+        String[] orderedTerms = new String[n];
+        int[] occurrences = new int[n]; // occurrences in the query of each ordered term
+        double[] prefixUpperBounds = new double[n]; // sum of the upper bounds of the posting lists up to each one
+        for(int i = 0; i < n; i++){
+            orderedTerms[i] = distinctTerms[sortedIndexes[i]];
+            occurrences[i] = termOccurrences.get(orderedTerms[i]);
+            prefixUpperBounds[i] = termUpperBounds[sortedIndexes[i]] + (i > 0 ? prefixUpperBounds[i - 1] : 0);
         }
 
-        // Iterate through the posting lists until all are finished
-        while(!notFinished(Iterators, essentialPostingList,encodingType)){
-            int minDocid = minDocId(Iterators, essentialPostingList,encodingType); //Get minimum docID over all posting lists
+        //Create an array list of PostingListIterators, one for each query term, reading their first blocks in parallel
+        ArrayList<PLI> Iterators = queryProcessor.openCursors(orderedTerms, scoreFunction, encodingType);
+
+        // The posting lists before firstEssential are non-essential. Until the heap is full every posting list is
+        // essential; then a document enters the heap only if its score is strictly greater than the threshold.
+        int firstEssential = 0;
+        double threshold = 0;
+        while(true){
+            int minDocid = minDocId(Iterators, firstEssential, encodingType); //Get minimum docID over the essential posting lists
+            if(minDocid == Integer.MAX_VALUE) break;
             double score = 0.0;
-            boolean checkDocUpperBound = false;
 
-            // Loop through the posting lists in reverse order
-            for(int i = orderedTerms.length-1; i >= 0; i--){ //Foreach posting list check if the current posting corresponds to the minimum docID
+            // Score the document on the essential posting lists, from the one with the highest upper bound
+            for(int i = n - 1; i >= firstEssential; i--){
                 PLI termIterator = Iterators.get(i);
-                if (termIterator.getPostingList().isEmpty()) continue;
-
-                // If the current posting list is not essential
-                if (!essentialPostingList[i]) {
-                    if(!checkDocUpperBound) { // Check if the document upper bound has been reached
-                        if(!checkDocumentUpperBound(score, UpperBounds, orderedTerms,  i, threshold)){
-                            break; // If it has reached, break out of the loop
-                        }else{
-                            checkDocUpperBound = true;
-                        }
-                    }
-                    termIterator.nextGEQ(minDocid,encodingType); // Move the iterator to the next element with a docID greater or equal to the minimum docID
-                }
-                // If the iterator has not reached the end of the posting list
-                if (termIterator.hasNext()) {
-                    if (termIterator.docid() == minDocid) {  // If the current posting has the same docID as the minimum docID
-                        score += termIterator.score(orderedTerms[i],scoreType); // Add the score for the posting to the total score for the document
-                        termIterator.next(); // Move the iterator to the next element
-                    }
+                if(termIterator.currentDocId(encodingType) == minDocid){
+                    score += occurrences[i] * termIterator.score();
+                    termIterator.next();
                 }
             }
 
-            // Add the final score as a pair for the document to the priority queue
-            scores.add(new DocsRanked(minDocid, score));
-            // If the priority queue is full
-            if(scores.isFull()){
-                threshold = scores.peek().getValue();  // Set the threshold to the minimum score in the priority queue
+            // Look for the document in the non-essential posting lists, while the upper bounds of the remaining
+            // ones can still make it enter the top-k
+            boolean pruned = false;
+            for(int i = firstEssential - 1; i >= 0; i--){
+                if(score + prefixUpperBounds[i] <= threshold){
+                    pruned = true;
+                    break;
+                }
+                PLI termIterator = Iterators.get(i);
+                termIterator.nextGEQ(minDocid, encodingType);
+                if(termIterator.currentDocId(encodingType) == minDocid){
+                    score += occurrences[i] * termIterator.score();
+                    termIterator.next();
+                }
             }
 
-            counter = 0;
-            for(int i = 0; i < orderedTerms.length; i++){
-                counter += UpperBounds.get(orderedTerms[i]);
-                essentialPostingList[i] = counter >= threshold;
+            // Add the final score as a pair for the document to the heap, unless it was pruned with a partial score
+            if(!pruned || !scoreFunction.canPrune(scores)) scores.add(minDocid, score);
+
+            // When the threshold rises, move the posting lists that are no longer essential out of the partition
+            if(scoreFunction.pruningThreshold(scores) > threshold){
+                threshold = scoreFunction.pruningThreshold(scores);
+                while(firstEssential < n && prefixUpperBounds[firstEssential] <= threshold){
+                    firstEssential++;
+                }
             }
         }
 
         return scores; //Return the top K scores
-
-
     }
 
 
-    public void processConjunctive(PQueue scores, ArrayList<PLI> Iterators, String encodingType, String scoreType){
+    public void processConjunctive(TopKHeap scores, ArrayList<PLI> Iterators, String encodingType, String scoreType){
     /**
      * Process conjunctive query, finding the common documents among posting lists and calculating their scores.
      *
-     * @param scores              Priority queue to store the top K scored documents
+     * @param scores              Heap to store the top K scored documents
      * @param postingListIterators List of posting list iterators for each query term
      * @param encodingType        Encoding type for document and query representation
      * @param scoreType           Type of score to calculate (e.g., raw score or normalized score)
      */
         //Find the smallest postingList
         int minPostingListIndex = 0;
-        int minPostingListLength = queryProcessor.getLexicon().getLexicon().get(Iterators.get(0).getTerm()).getPostingListLength();
+        int minPostingListLength = Iterators.get(0).getPostingListLength();
         for(int i=1; i<Iterators.size(); i++){
-            if(minPostingListLength>queryProcessor.getLexicon().getLexicon().get(Iterators.get(i).getTerm()).getPostingListLength()){
+            if(minPostingListLength>Iterators.get(i).getPostingListLength()){
                 minPostingListIndex = i;
-                minPostingListLength = queryProcessor.getLexicon().getLexicon().get(Iterators.get(i).getTerm()).getPostingListLength();
+                minPostingListLength = Iterators.get(i).getPostingListLength();
             }
         }
 
@@ -150,7 +153,7 @@ public class MaxScore {
         // Set the iterator to the posting list with the smallest length and process its entries
             boolean toAdd = true;
             int docId = minPLI.docid();
-            double score = minPLI.score(minPLI.getTerm(),scoreType);
+            double score = minPLI.score();
             minPLI.next();
 
             // Iterate over other posting lists and synchronize on the document ID
@@ -158,7 +161,7 @@ public class MaxScore {
                 if(i!=minPostingListIndex){
                     Iterators.get(i).nextGEQ(docId,encodingType);
                     if(docId == Iterators.get(i).docid()){
-                        score += Iterators.get(i).score(Iterators.get(i).getTerm(),scoreType);
+                        score += Iterators.get(i).score();
                     }else{
                         toAdd = false;
                         break;
@@ -167,53 +170,18 @@ public class MaxScore {
             }
             // Add the document with its aggregated score if it satisfies conditions
             if(toAdd){
-                scores.add(new DocsRanked(queryProcessor.getDocIndex().getDocIndex().get(docId).getDocNo(),score));
+                scores.add(docId, score);
             }
         }
 
     }
 
-    // Check if the remaining upper bound score of the terms exceeds the threshold
-    public boolean checkDocumentUpperBound(double score, HashMap<String, Double> UpperBounds, String[] orderedTerms, int i, double threshold){
-        for(int j=i; j>=0; j--){
-            score += UpperBounds.get(orderedTerms[j]);
-        }
-        return score >= threshold;
-    }
-
-    // Determine the minimum document ID across all posting lists
-    public int minDocId(ArrayList<PLI> Iterators, boolean[] essentialPostingList, String encodingType){
+    // Determine the minimum document ID across the essential posting lists, Integer.MAX_VALUE if they are finished
+    private int minDocId(ArrayList<PLI> Iterators, int firstEssential, String encodingType){
         int minDocId = Integer.MAX_VALUE;
-
-        for(int i=essentialPostingList.length-1; i>=0; i--){
-            if(essentialPostingList[i]){
-                PLI postingListIterator = Iterators.get(i);
-                if(!postingListIterator.isFinished(encodingType)) {
-                    if(postingListIterator.docid() < minDocId){
-                        minDocId = postingListIterator.docid();
-                    }
-                }
-            }
+        for(int i = firstEssential; i < Iterators.size(); i++){
+            minDocId = Math.min(minDocId, Iterators.get(i).currentDocId(encodingType));
         }
-
         return minDocId;
     }
-
-    //Check if the query processing is finished, i.e. all the posting lists has been fully processed
-    public boolean notFinished(ArrayList<PLI> Iterators, boolean[] essentialPostingList, String encodingType){
-        boolean finished = true;
-        for(int i=essentialPostingList.length-1; i>=0; i--){
-            if(essentialPostingList[i]){
-                if(!Iterators.get(i).isFinished(encodingType)) {
-                    finished = false;
-                    break;
-                }
-            }
-        }
-        return finished;
-    }
-
-
-
-
 }
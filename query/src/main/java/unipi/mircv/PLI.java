@@ -1,127 +1,365 @@
 package unipi.mircv;
 
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-
 /**
- * Represents a collection of postings in the inverted index, providing functionality to iterate through and manage
- * posting, in fact implements the interface Iterator.
+ * Represents a cursor over a posting list of the inverted index, providing functionality to iterate through and
+ * manage postings.
+ * Only one block of the posting list is kept in memory, stored as two parallel arrays of docIds and frequencies that
+ * are reused for every block: the following blocks are read from disk when the current one is exhausted or when
+ * nextGEQ jumps past it, using the skip pointers of the posting list.
+ * When prefetching is enabled, after reading a block the following one is read in advance by the I/O threads of the
+ * QueryProcessor into a second pair of arrays, which are swapped with the current ones when the cursor moves there.
+ * A cursor can also iterate over a cached Intersection of two posting lists, which is entirely in memory: in that case
+ * the score of a posting is the sum of the scores of the two terms.
+ * Before moving to another block the cursor checks the deadline of its query: once it has expired the cursor is
+ * finished, so that every document processor stops within a block of postings and returns its current top-k.
  */
-public class PLI implements Iterator<Posting> {
+public class PLI {
 
     private final String term;
-    private ArrayList<Posting> postingList;
+    private final int postingListLength;
+    private final int numBlocks;
     private final ScoreFunction scoreFunction;
     private final QueryProcessor queryProcessor;
-    private final String documentProcessor;
+    private final Deadline deadline; // time limit of the query
+
+    // docIds and frequencies of the current block
+    private int[] docIds;
+    private int[] freqs;
+    private int size;
+
+    // Arrays in which the following block is read in advance, with the pending read
+    private int[] nextDocIds;
+    private int[] nextFreqs;
+    private Prefetch<Integer> readAhead;
+    private int readAheadBlock;
+    private final boolean readAheadEnabled;
+
+    // skip information of the posting list, loaded on the first shallow move
+    private SkipBlocks skipBlocks;
+
+    // block found by the last shallow move of the block-max processors, -2 before the first one, and its maximum score
+    private int shallowBlock = -2;
+    private double blockUpperBound;
+
+    // second term and its frequencies, only for the cursors over an intersection
+    private final String secondTerm;
+    private final int[] secondFreqs;
 
-    // The current position of the iterator
+    // indexes of the terms in the score function, -1 without a score function
+    private final int termIndex;
+    private final int secondTermIndex;
+
+    // The current position of the iterator inside the block and the index of the block
     private int position;
+    private int block;
     private boolean isFinished;
 
-    // Constructor
-public PLI(String term, ArrayList<Posting> postingList, ScoreFunction scoreFunction, QueryProcessor queryProcessor, String documentProcessor) {
-        this.postingList = postingList;
-        this.position = 0;
-        this.scoreFunction = scoreFunction;
+    /**
+     * Constructs an iterator over the posting list of a term, reading its first block.
+     *
+     * @param term           The term of the posting list.
+     * @param scoreFunction  The ScoreFunction used to score the postings.
+     * @param queryProcessor The QueryProcessor used to read the blocks.
+     * @param encodingType   The encoding type for reading postings.
+     */
+    public PLI(String term, ScoreFunction scoreFunction, QueryProcessor queryProcessor, String encodingType) {
+        this(term, scoreFunction, queryProcessor, encodingType, true);
+    }
+
+    /**
+     * Constructs an iterator over the posting list of a term, reading its first block. The block-max processors
+     * disable the read in advance, since the following block may be skipped without being decoded.
+     *
+     * @param term           The term of the posting list.
+     * @param scoreFunction  The ScoreFunction used to score the postings.
+     * @param queryProcessor The QueryProcessor used to read the blocks.
+     * @param encodingType   The encoding type for reading postings.
+     * @param readAhead      True to read in advance the following block while the posting list is scanned.
+     */
+    public PLI(String term, ScoreFunction scoreFunction, QueryProcessor queryProcessor, String encodingType, boolean readAhead) {
         this.term = term;
+        this.readAheadEnabled = readAhead;
+        this.scoreFunction = scoreFunction;
         this.queryProcessor = queryProcessor;
-        this.documentProcessor = documentProcessor;
-        this.isFinished = false;
+        this.postingListLength = queryProcessor.getTerm(term).getPostingListLength();
+        this.numBlocks = (postingListLength + queryProcessor.BlockLenght - 1) / queryProcessor.BlockLenght;
+        this.docIds = new int[Math.min(postingListLength, queryProcessor.BlockLenght)];
+        this.freqs = new int[docIds.length];
+        this.secondTerm = null;
+        this.secondFreqs = null;
+        this.termIndex = scoreFunction != null ? scoreFunction.termIndex(term) : -1;
+        this.secondTermIndex = -1;
+        this.deadline = scoreFunction != null ? scoreFunction.getDeadline() : Deadline.NONE;
+        this.isFinished = postingListLength == 0;
+        if (!isFinished) loadBlock(0, encodingType);
+    }
+
+    /**
+     * Constructs an iterator over the intersection of the posting lists of two terms, kept in memory as a single block.
+     *
+     * @param intersection  The intersection of the posting lists.
+     * @param scoreFunction The ScoreFunction used to score the postings.
+     */
+    public PLI(Intersection intersection, ScoreFunction scoreFunction) {
+        this.term = intersection.getFirstTerm();
+        this.secondTerm = intersection.getSecondTerm();
+        this.scoreFunction = scoreFunction;
+        this.queryProcessor = null;
+        this.readAheadEnabled = false;
+        this.postingListLength = intersection.size();
+        this.numBlocks = 1;
+        this.docIds = intersection.getDocIds();
+        this.freqs = intersection.getFirstFreqs();
+        this.secondFreqs = intersection.getSecondFreqs();
+        this.termIndex = scoreFunction.termIndex(term);
+        this.secondTermIndex = scoreFunction.termIndex(secondTerm);
+        this.deadline = scoreFunction.getDeadline();
+        this.size = postingListLength;
+        this.isFinished = postingListLength == 0;
+    }
+
+    /**
+     * Returns the current docId of the posting list, loading its next block if needed.
+     *
+     * @param encodingType The encoding type for processing postings.
+     * @return The current docId, or Integer.MAX_VALUE if the posting list is finished.
+     */
+    public int currentDocId(String encodingType) {
+        return isFinished(encodingType) ? Integer.MAX_VALUE : docid();
     }
 
-    @Override
     public boolean hasNext() {
-        return position < postingList.size();
+        return position < size;
     }
 
+    /**
+     * Returns the docId of the current posting, or Integer.MAX_VALUE if the current block is exhausted.
+     *
+     * @return The docId of the current posting.
+     */
     public int docid(){
-        return postingList.get(position).getDocID();
+        if (position >= size) return Integer.MAX_VALUE;
+        return docIds[position];
     }
 
     /**
-     * Computes the score for the current posting based on the specified score type.
+     * Returns the term frequency of the current posting.
      *
-     * @param term      The term for which to compute the score.
-     * @param scoreType The type of score computation.
-     * @return The computed score.
+     * @return The term frequency of the current posting.
      */
-    public double score(String term,String scoreType){
+    public int freq(){
+        return freqs[position];
+    }
 
-        return scoreFunction.computeScore(term, postingList.get(position),scoreType);
+    /**
+     * Computes the score of the current posting. For a cursor over an intersection, the score of the second term
+     * is added.
+     *
+     * @return The computed score.
+     */
+    public double score(){
+        double score = scoreFunction.score(termIndex, freqs[position], docIds[position]);
+        if (secondTerm != null) {
+            score += scoreFunction.score(secondTermIndex, secondFreqs[position], docIds[position]);
+        }
+        return score;
     }
 
     /**
-     * Checks if the iterator is finished processing postings.
+     * Checks if the iterator is finished processing postings. If the current block is exhausted and there are
+     * other blocks, the next one is loaded, unless the deadline of the query has expired.
      *
      * @param encodingType The encoding type for processing postings.
      * @return True if the iterator is finished, false otherwise.
      */
     public boolean isFinished(String encodingType){
-        if (this.postingList.size() == 0) {
+        if(this.isFinished) {
             return true;
         }
         //check if it's the last block or there are other blocks to load and then it's not "really" finished
-        if (documentProcessor.equals("maxscore")) {
-            if(this.isFinished) {
+        if (position >= size) {
+            if (block + 1 >= numBlocks || deadline.check()) {
+                this.isFinished = true;
                 return true;
             }
-            if (position >= postingList.size()) {
-                int docId = postingList.get(postingList.size() - 1).getDocID(); //Gets the docID of the last posting to use it to load the nextBlock (using loadNextBlock)
-                HashMap<String, ArrayList<Posting>> newBlock = queryProcessor.loadNextBlock(this.term, docId,encodingType);
-                if(!newBlock.containsKey(term)){
-                    this.isFinished = true;
-                    return true;
-                }
-                postingList = newBlock.get(term);
-                position = 0;
-                return false;
-            }
-            return false;
-
-        }else{
-            return position >= postingList.size();
+            loadBlock(block + 1, encodingType);
         }
+        return false;
     }
 
-    // Returns the next element in the iteration
-    public Posting next() {
-        return postingList.get(position++);
+    // Moves to the next posting of the block
+    public void next() {
+        position++;
     }
 
     /**
      * Moves the iterator to the next posting with a document ID greater than or equal to the specified docID.
+     * If the docID is past the current block, the block containing it is located through the skip pointers and
+     * only that block is read; inside the block the docID is searched with a galloping search. If the deadline of
+     * the query has expired the posting list is finished instead.
      *
      * @param docId        The document ID to search for.
      * @param encodingType The encoding type for processing postings.
      */
     public void nextGEQ(int docId,String encodingType) {
+        if (isFinished) return;
 
         //Load another block if the docID searched is not in the currentBlock
-        if (docId > postingList.get(postingList.size()-1).getDocID()){
-            HashMap<String,ArrayList<Posting>> newBlock =  queryProcessor.lookupDocId(this.term, docId, encodingType);
-            if (newBlock.containsKey(term)){
-                this.postingList = newBlock.get(term);
-                this.position = 0;
-            }else{
+        if (docId > docIds[size - 1]){
+            int newBlock = block + 1 < numBlocks ? queryProcessor.skipCache.get(term).findBlock(docId, block + 1) : -1;
+            if (newBlock == -1 || deadline.check()) {
+                // No posting with a docId greater or equal to the searched one, or no time left: the posting list is finished
+                position = size;
+                isFinished = true;
                 return;
             }
+            loadBlock(newBlock, encodingType);
         }
 
-        while (hasNext()) {
-            Posting posting = postingList.get(position);
-            if (posting.getDocID() >= docId) {
-                return;
+        // Gallop from the current position, doubling the step until a docId not lower than the searched one is
+        // passed, then search it with a binary search in the last step
+        if (position < size && docIds[position] < docId) {
+            int low = position + 1;
+            int step = 1;
+            while (position + step < size && docIds[position + step] < docId) {
+                low = position + step + 1;
+                step <<= 1;
+            }
+            int high = Math.min(position + step, size);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (docIds[middle] < docId) low = middle + 1;
+                else high = middle;
             }
+            position = low;
+        }
+    }
+
+    // Replaces the current block with the one at the given index, using the block read in advance if available
+    private void loadBlock(int newBlock, String encodingType) {
+        boolean sequential = newBlock == 0 || newBlock == block + 1;
+        if (!takeReadAhead(newBlock)) {
+            size = queryProcessor.readBlock(term, newBlock, docIds, freqs, encodingType);
+        }
+        block = newBlock;
+        position = 0;
+
+        // Read in advance the following block only while the posting list is scanned sequentially
+        if (sequential && readAheadEnabled && queryProcessor.ioPool != null && block + 1 < numBlocks) {
+            if (nextDocIds == null) {
+                nextDocIds = new int[docIds.length];
+                nextFreqs = new int[docIds.length];
+            }
+            int[] readDocIds = nextDocIds;
+            int[] readFreqs = nextFreqs;
+            int nextBlock = block + 1;
+            readAheadBlock = nextBlock;
+            readAhead = new Prefetch<>(queryProcessor.ioPool, () -> queryProcessor.readBlock(term, nextBlock, readDocIds, readFreqs, encodingType));
+        }
+    }
+
+    // Makes current the block read in advance if it is the requested one. A read in advance that has already started
+    // is waited for in any case, since it writes the arrays of the next block.
+    private boolean takeReadAhead(int newBlock) {
+        if (readAhead == null) return false;
+        Prefetch<Integer> pending = readAhead;
+        readAhead = null;
+        if (pending.takeBack()) return false;
 
-            next();
+        int readSize = pending.await();
+        if (readAheadBlock != newBlock) return false;
+        int[] swap = docIds;
+        docIds = nextDocIds;
+        nextDocIds = swap;
+        swap = freqs;
+        freqs = nextFreqs;
+        nextFreqs = swap;
+        size = readSize;
+        return true;
+    }
+
+    /**
+     * Finds the block of the posting list that would contain the given docId, without moving the iterator and
+     * without reading the block: only the skip information is used. A cursor over an intersection has a single block.
+     *
+     * @param docId The docId to search for, not lower than the current one.
+     * @return The index of the block, or -1 if no posting with a docId greater or equal to the argument exists.
+     */
+    public int shallowBlock(int docId) {
+        if (isFinished) return -1;
+        if (position < size && docId <= docIds[size - 1]) return block;
+        if (block + 1 >= numBlocks) return -1;
+        return getSkipBlocks().findBlock(docId, block + 1);
+    }
+
+    /**
+     * Returns the maximum score of the block that would contain the given docId, computing it only when the block
+     * changes. The quantized block maximum can exceed the upper bound of the whole posting list, so the lower of the
+     * two is returned.
+     *
+     * @param docId      The docId to search for, not lower than the current one.
+     * @param upperBound The upper bound of the whole posting list.
+     * @param scoreType  Type of score to calculate.
+     * @return The maximum score of the block, 0 if no posting with a docId greater or equal to the argument exists.
+     */
+    public double blockUpperBound(int docId, double upperBound, String scoreType) {
+        int block = shallowBlock(docId);
+        if (block != shallowBlock) {
+            shallowBlock = block;
+            blockUpperBound = Math.min(scoreFunction.blockUpperBound(term, block == -1 ? null : getSkipBlocks(), block, scoreType), upperBound);
         }
+        return blockUpperBound;
     }
 
-    public ArrayList<Posting> getPostingList() {
-        return postingList;
+    /**
+     * Returns the block found by the last call of blockUpperBound.
+     *
+     * @return The index of the block, -1 if the posting list has no block left, -2 before the first call.
+     */
+    public int getShallowBlock() {
+        return shallowBlock;
+    }
+
+    /**
+     * Restores the order by current docId of a set of cursors. Query terms are few and only some cursors move at
+     * each step, so an insertion sort is enough.
+     *
+     * @param order         The indexes of the cursors, sorted by current docId except for those that moved.
+     * @param currentDocIds The current docId of each cursor.
+     */
+    public static void sortByDocId(int[] order, int[] currentDocIds) {
+        for (int i = 1; i < order.length; i++) {
+            int index = order[i];
+            int j = i - 1;
+            while (j >= 0 && currentDocIds[order[j]] > currentDocIds[index]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+    }
+
+    /**
+     * Returns the skip information of the posting list, with the last docId and the maximum scores of each block.
+     * A cursor over an intersection has no skip information, so it cannot be used by the block-max processors.
+     *
+     * @return The skip information of the posting list.
+     * @throws UnsupportedOperationException If the cursor is over an intersection.
+     */
+    public SkipBlocks getSkipBlocks() {
+        if (queryProcessor == null) throw new UnsupportedOperationException("No skip information for the intersection of " + term + " and " + secondTerm);
+        if (skipBlocks == null) skipBlocks = queryProcessor.skipCache.get(term);
+        return skipBlocks;
+    }
+
+    /**
+     * Returns the length of the whole posting list, 0 if the term is not in the lexicon.
+     *
+     * @return The length of the posting list.
+     */
+    public int getPostingListLength() {
+        return postingListLength;
     }
 
     public String getTerm() {
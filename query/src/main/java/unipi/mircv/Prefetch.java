@@ -0,0 +1,56 @@
+package unipi.mircv;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A read submitted to the I/O threads, which the submitting thread can take back as long as no I/O thread has
+ * started it. Unlike Future.cancel, which also succeeds while the task is running, taking back a read guarantees that
+ * it will never run, so the arrays it would write can be reused immediately.
+ *
+ * @param <T> The type of the result of the read.
+ */
+public class Prefetch<T> {
+
+    private final AtomicBoolean started; // set by the first thread between the I/O thread and the owner
+    private final Future<T> future;
+
+    /**
+     * Submits a read to the I/O threads.
+     *
+     * @param ioPool The I/O threads.
+     * @param read   The read to perform.
+     */
+    public Prefetch(ExecutorService ioPool, Callable<T> read) {
+        this.started = new AtomicBoolean(false);
+        this.future = ioPool.submit(() -> started.compareAndSet(false, true) ? read.call() : null);
+    }
+
+    /**
+     * Takes back the read if no I/O thread has started it yet.
+     *
+     * @return True if the read will never be performed, false if it has started and must be waited for.
+     */
+    public boolean takeBack() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * Waits for the completion of a read that has not been taken back.
+     *
+     * @return The result of the read.
+     */
+    public T await() {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
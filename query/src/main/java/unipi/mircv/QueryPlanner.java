@@ -0,0 +1,144 @@
+package unipi.mircv;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The QueryPlanner class chooses the document processor of the queries submitted with the "auto" processor, from the
+ * lengths of the posting lists and the upper bounds of the query terms, read from the lexicon:
+ * - a query with a single distinct term is processed by SingleTerm, which skips the blocks that cannot enter the top-k;
+ * - a conjunctive query by SvS, which reads the longer lists only where the shorter ones have candidates;
+ * - a disjunctive query by MaxScore or by the exhaustive DAAT, whichever has the lower estimated cost.
+ * The cost of DAAT is the number of postings of the query. The cost of MaxScore is estimated assuming that the
+ * threshold reaches the highest upper bound of a single term: the lists whose upper bounds sum to less than that are
+ * non-essential and are only searched for the candidates of the essential ones, and a fixed overhead covers sorting
+ * the lists and keeping the partition.
+ */
+public class QueryPlanner {
+
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+
+    /**
+     * The plan chosen for a query, with the estimated costs in postings.
+     */
+    public static class Plan {
+        public final String processor; // single, svs, maxscore or daat
+        public final int terms; // number of query terms
+        public final int distinctTerms;
+        public final long postings; // postings of the query terms
+        public final long daatCost;
+        public final long maxScoreCost; // -1 if not estimated
+
+        private Plan(String processor, int terms, int distinctTerms, long postings, long daatCost, long maxScoreCost) {
+            this.processor = processor;
+            this.terms = terms;
+            this.distinctTerms = distinctTerms;
+            this.postings = postings;
+            this.daatCost = daatCost;
+            this.maxScoreCost = maxScoreCost;
+        }
+
+        @Override
+        public String toString() {
+            return processor + " (terms " + terms + ", distinct " + distinctTerms + ", postings " + postings
+                    + ", cost daat " + daatCost + (maxScoreCost >= 0 ? ", cost maxscore " + maxScoreCost : "") + ")";
+        }
+    }
+
+    /**
+     * Constructs a QueryPlanner instance with the specified query processor.
+     *
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public QueryPlanner(QueryProcessor queryProcessor){
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Chooses how to process a query.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function of the query, used for the upper bounds of the terms
+     * @param queryType     Type of the query (conjunctive or disjunctive)
+     * @param scoreType     Type of score to calculate
+     * @return The plan of the query
+     */
+    public Plan plan(String[] queryTerms, ScoreFunction scoreFunction, String queryType, String scoreType){
+        List<String> queryTermList = Arrays.asList(queryTerms);
+        String[] distinctTerms = queryTermList.stream().distinct().toArray(String[]::new);
+        long postings = 0;
+        for(String term : queryTerms){
+            postings += queryProcessor.getTerm(term).getPostingListLength();
+        }
+
+        if(distinctTerms.length == 1){
+            return new Plan("single", queryTerms.length, 1, postings, postings, -1);
+        }
+        if(queryType.equals("conjunctive")){
+            return new Plan("svs", queryTerms.length, distinctTerms.length, postings, postings, -1);
+        }
+
+        // Sort the distinct terms by upper bound, multiplied by their occurrences as MaxScore does, and find the
+        // non-essential lists
+        int n = distinctTerms.length;
+        double[] upperBounds = new double[n];
+        long[] lengths = new long[n];
+        Integer[] order = new Integer[n];
+        double threshold = 0;
+        for(int i = 0; i < n; i++){
+            upperBounds[i] = Collections.frequency(queryTermList, distinctTerms[i]) * scoreFunction.upperBound(distinctTerms[i], scoreType);
+            lengths[i] = queryProcessor.getTerm(distinctTerms[i]).getPostingListLength();
+            order[i] = i;
+            threshold = Math.max(threshold, upperBounds[i]);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(upperBounds[a], upperBounds[b]));
+        double prefixUpperBound = 0;
+        int firstEssential = 0;
+        while(firstEssential < n && prefixUpperBound + upperBounds[order[firstEssential]] <= threshold){
+            prefixUpperBound += upperBounds[order[firstEssential]];
+            firstEssential++;
+        }
+
+        // The essential lists are read entirely, each non-essential one at most once per candidate
+        long essentialPostings = 0;
+        for(int i = firstEssential; i < n; i++){
+            essentialPostings += lengths[order[i]];
+        }
+        long maxScoreCost = PLANNER_MAXSCORE_OVERHEAD + essentialPostings;
+        for(int i = 0; i < firstEssential; i++){
+            maxScoreCost += Math.min(lengths[order[i]], essentialPostings);
+        }
+
+        String processor = maxScoreCost < postings ? "maxscore" : "daat";
+        return new Plan(processor, queryTerms.length, n, postings, postings, maxScoreCost);
+    }
+
+    /**
+     * Processes a query with the chosen plan.
+     *
+     * @param plan          The plan of the query
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param k             Number of top documents to retrieve
+     * @param queryType     Type of the query (conjunctive or disjunctive)
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap execute(Plan plan, String[] queryTerms, ScoreFunction scoreFunction, int k, String queryType, String encodingType, String scoreType){
+        switch(plan.processor){
+            case "single":
+                return new SingleTerm(queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+            case "svs":
+                return new SvS(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+            case "maxscore":
+                return new MaxScore(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+            default:
+                return new DAAT(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+        }
+    }
+}
@@ -1,56 +1,113 @@
 package unipi.mircv;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static unipi.mircv.Parameters.*;
 
 /**
  * The QueryProcessor class manages the processing of queries, coordinating with various components,
  * including the lexicon, document index, and collection statistics.
+ * Once loaded, the index is only read: posting lists are accessed with positional reads and every query keeps its
+ * own cursors, so a single QueryProcessor can be shared by many threads.
  */
 public class QueryProcessor {
+    public IndexPaths paths; // files of the posting lists and of the lexicon
     public Lexicon lexicon;
     public Statistics statistics;
     public DocIndex docIndex;
+    public float[] documentNorms; // BM25 length normalization K1 * ((1 - B) + B * dl / avdl) of each docId
+    public int firstDocId; // docId of the first entry of documentNorms, 0 unless only a range of documents is loaded
     public int BlockLenght;
 
     public RandomByteReader docIdByteRead;
     public RandomByteReader freqByteRead;
     public RandomByteReader lastDocIdByteRead;
     public RandomByteReader skipPointersByteRead;
-    public TextReader docIdsTextRead;
-    public TextReader freqTextRead;
-    public TextReader lastDocIdTextRead;
-    public TextReader skipPointersTextRead;
+    public int[] docIdsText; // text encoded posting files, loaded in main memory
+    public int[] freqText;
+    public int[] lastDocIdsText;
+    public int[] skipPointersText;
     public TextReader lexiconRead;
     public TextReader documentIndexTextRead;
     public ByteReader documentIndexByteRead;
     public TextReader statisticsRead;
     public String encodingType;
+    public SkipCache skipCache; // skip information of the most recently used posting lists
+    public IntersectionCache intersectionCache; // intersections of the pairs of terms frequent in conjunctive queries
+    public ExecutorService ioPool; // threads reading the posting lists in advance, null if prefetching is disabled
+
+    // impact-ordered index, opened at the first score-at-a-time query
+    public volatile HashMap<String, int[]> impactLexicon; // offset of the first segment and number of segments of each term
+    public RandomByteReader impactSegmentsByteRead;
+    public RandomByteReader impactDocIdsByteRead;
+    public int[] impactSegmentsText;
+    public int[] impactDocIdsText;
+    private boolean impactIndexMissing;
+
+    // tiers of the tiered index, opened at the first tiered query: they share the statistics and the document index
+    public volatile QueryProcessor tierOne;
+    public QueryProcessor tierTwo;
+    private boolean tieredIndexMissing;
+
+    // shards of the sharded index, opened at the first sharded query: they share the statistics and the document
+    // index, and each query is processed on all of them at the same time by the shard threads
+    public volatile QueryProcessor[] shards;
+    public ExecutorService shardPool;
+    private boolean shardedIndexMissing;
+
+    // forward index, loaded at the first query expanded with pseudo-relevance feedback
+    public volatile ForwardIndex forwardIndex;
+    private boolean forwardIndexMissing;
+
+    // Lexicon information returned for the terms that are not in the lexicon
+    private static final Term EMPTY_TERM = new Term(0, 0, 0, 0, 0, 0);
 
     /**
      * Default constructor initializing components and loading necessary data into memory.
      */
     public QueryProcessor(String encodingType) {
+        this(encodingType, true, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor loading the lexicon and the collection statistics, and the document index only for a range of
+     * docIds, without opening the posting files of the main index. The QueryProcessor only provides the statistics of
+     * the whole collection and the documents of a shard processed in a separate process.
+     *
+     * @param encodingType The encoding type of the index (text or byte).
+     * @param firstDocId   The first docId of the range.
+     * @param endDocId     The docId following the last one of the range.
+     */
+    public QueryProcessor(String encodingType, int firstDocId, int endDocId) {
+        this(encodingType, false, firstDocId, endDocId);
+    }
+
+    // Constructor loading the documents with docId in [firstDocId, endDocId), and opening the posting files if requested.
+    private QueryProcessor(String encodingType, boolean postings, int firstDocId, int endDocId) {
 
+        this.paths = IndexPaths.MAIN;
         this.lexicon = new Lexicon();
         this.docIndex = new DocIndex();
         this.encodingType= encodingType;
 
         if (encodingType.equals("text")){
             // Open necessary files
-            openTextLookupFiles();
+            if (postings) openTextLookupFiles();
             openTextObtainFiles();
         }
         else {
-            openByteLookupFiles();
+            if (postings) openByteLookupFiles();
             openByteObtainFiles();
         }
 
         // Load data into memory
         loadLexicon(lexicon);
         loadStatistics();
-        loadDocumentIndex(encodingType);
+        loadDocumentIndex(encodingType, firstDocId, endDocId);
+        computeDocumentNorms(firstDocId);
 
         // Close necessary files
         if (encodingType.equals("text"))
@@ -59,267 +116,316 @@ public class QueryProcessor {
             closeByteObtainFiles();
 
         BlockLenght = 500;
+        skipCache = new SkipCache(this, SKIP_CACHE_BLOCKS);
+        intersectionCache = new IntersectionCache(this, INTERSECTION_CACHE_BYTES, INTERSECTION_MIN_FREQUENCY, INTERSECTION_MAX_PAIRS);
+
+        // The text posting files are in main memory, so there is no disk latency to hide
+        if (!encodingType.equals("text") && PREFETCH_THREADS > 0) {
+            ioPool = Executors.newFixedThreadPool(PREFETCH_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "posting-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
-
     /**
-     * Retrieves the posting lists for each term in the query.
-     * @param queryTerms The terms in the query.
-     * @param encodingType type of encoding (byte or text)
-     * @return A HashMap between each term and its respective posting list.
+     * Constructor of a tier of the tiered index or of a shard of the sharded index, which has its own posting lists
+     * and lexicon and shares with the main index the collection statistics, the document index and the I/O threads.
+     *
+     * @param collection The QueryProcessor of the main index.
+     * @param paths      The paths of the files of the tier or of the shard.
      */
-    public HashMap<String, ArrayList<Posting>> lookup(String[] queryTerms, String encodingType) {
-        int offsetDocId;
-        int offsetFreq;
-        int postingListLength;
-        int docId;
-        int freq;
-
-
-        HashMap<String, ArrayList<Posting>> postingLists = new HashMap<>();
-        Set<String> queryTermsSet = new HashSet<>(List.of(queryTerms));
-
-        // Iterate through query terms
-        for (String term : queryTermsSet) {
-            try {
-                // Retrieve offset information from the lexicon to read docIds and freq files.
-                offsetDocId = lexicon.getLexicon().get(term).getOffsetDocId();
-                offsetFreq = lexicon.getLexicon().get(term).getOffsetFreq();
-                postingListLength = lexicon.getLexicon().get(term).getPostingListLength();
-
-                // Navigate to specified offsets in docIds and freq files
-                goToOffset(docIdByteRead, offsetDocId);
-                goToOffset(freqByteRead, offsetFreq);
-
-                if (encodingType.equals("text")) {
-                    // Iterate through the posting list and add postings to the list, reading docId and frequency from the relative files
-                    for (int i = 0; i < postingListLength; i++) {
-                        docId = docIdsTextRead.read();
-                        freq = freqTextRead.read();
-                        addPosting(postingLists, term, docId, freq);
-
-                    }
-                }
-                else{
-                    for (int i = 0; i < postingListLength; i++) {
-                        docId = docIdByteRead.read();
-                        freq = freqByteRead.read();
-                        addPosting(postingLists, term, docId, freq);
-                    }
+    public QueryProcessor(QueryProcessor collection, IndexPaths paths) {
+        this.paths = paths;
+        this.lexicon = new Lexicon();
+        this.encodingType = collection.encodingType;
+        this.statistics = collection.statistics;
+        this.docIndex = collection.docIndex;
+        this.documentNorms = collection.documentNorms;
+        this.firstDocId = collection.firstDocId;
+        this.BlockLenght = collection.BlockLenght;
+        this.ioPool = collection.ioPool;
 
-                }
-            }
-                catch(NullPointerException e){
-                    // Handle null pointer exception (term not found in lexicon)
-                    postingLists.put(term, new ArrayList<>());
-                    lexicon.addInformation(term, 0, 0, 0, 0, 0, 0);
-                }
-            }
-            return postingLists;
-        }
+        if (encodingType.equals("text"))
+            openTextLookupFiles();
+        else
+            openByteLookupFiles();
+        lexiconRead = new TextReader(paths.lexicon);
+        loadLexicon(lexicon);
+        lexiconRead.close();
 
+        // No intersection is cached for a tier or a shard: the conjunctive queries of the tiered processing use the
+        // main index, and those of a shard would take the memory of the main cache once per shard
+        skipCache = new SkipCache(this, SKIP_CACHE_BLOCKS);
+        intersectionCache = new IntersectionCache(this, 0, INTERSECTION_MIN_FREQUENCY, INTERSECTION_MAX_PAIRS);
+    }
 
         /**
-         * Retrieves the initial block of posting lists for each term in a given query.
+         * Creates the cursors over the posting lists of the given terms. When prefetching is enabled the first
+         * blocks of the posting lists are read in parallel by the I/O threads.
          *
-         * @param queryTerms The terms present in the query.
-         * @param encodingType type of the encoding (byte or text)
-         * @return A HashMap associating each term with its first posting block.
+         * @param terms The terms of the posting lists.
+         * @param scoreFunction The ScoreFunction used to score the postings.
+         * @param encodingType The encoding type for reading files (text or byte).
+         * @return The cursors, in the same order of the terms.
          */
-        public HashMap<String, ArrayList<Posting>> initialLookUp (String[]queryTerms, String encodingType){
+        public ArrayList<PLI> openCursors (String[] terms, ScoreFunction scoreFunction, String encodingType){
+            return openCursors(terms, scoreFunction, encodingType, true);
+        }
 
-            int offsetDocId;
-            int offsetFreq;
-            int postingListLength;
-            int docId;
-            int freq;
-            int postingToRead;
-
-            HashMap<String, ArrayList<Posting>> postingLists = new HashMap<>();
-            Set<String> queryTermsSet = new HashSet<>(List.of(queryTerms));
-
-            // Iterate through query terms
-            for (String term : queryTermsSet) {
-                try {
-                    //Obtain the offset information from the lexicon to read in the docIds and freq files.
-                    offsetDocId = lexicon.getLexicon().get(term).getOffsetDocId();
-                    offsetFreq = lexicon.getLexicon().get(term).getOffsetFreq();
-                    postingListLength = lexicon.getLexicon().get(term).getPostingListLength();
-
-                    // Navigate to the specified offsets in docIds and freq files
-                    goToOffset(docIdByteRead, offsetDocId);
-                    goToOffset(freqByteRead, offsetFreq);
-
-                    // Compute the number of postings to read
-                    postingToRead = Math.min(postingListLength, BlockLenght);
-
-                if (encodingType.equals("text")) {
-                    // Iterate through the first block of the posting list and add postings to the list, reading docId and frequency from the relative files
-                    for (int i = 0; i < postingToRead; i++) {
-                        docId = docIdsTextRead.read();
-                        freq = freqTextRead.read();
-                        addPosting(postingLists, term, docId, freq);
-                    }
+        /**
+         * Creates the cursors over the posting lists of the given terms, choosing whether the cursors read in
+         * advance the following blocks.
+         *
+         * @param terms The terms of the posting lists.
+         * @param scoreFunction The ScoreFunction used to score the postings.
+         * @param encodingType The encoding type for reading files (text or byte).
+         * @param readAhead True to read in advance the following block while a posting list is scanned.
+         * @return The cursors, in the same order of the terms.
+         */
+        public ArrayList<PLI> openCursors (String[] terms, ScoreFunction scoreFunction, String encodingType, boolean readAhead){
+            ArrayList<PLI> cursors = new ArrayList<>(terms.length);
+            if (ioPool == null || terms.length < 2) {
+                for (String term : terms) {
+                    cursors.add(new PLI(term, scoreFunction, this, encodingType, readAhead));
                 }
-                else {
-                    for (int i = 0; i < postingToRead; i++) {
-                        docId = docIdByteRead.read();
-                        freq = freqByteRead.read();
-                        addPosting(postingLists, term, docId, freq);
+                return cursors;
+            }
 
-                    }
-                }
-                } catch (NullPointerException e) {
-                    // Handle null pointer exception (term not found in lexicon)
-                    postingLists.put(term, new ArrayList<>());
-                    lexicon.addInformation(term, 0, 0, 0, 0, 0, 0);
-                }
+            ArrayList<Prefetch<PLI>> pending = new ArrayList<>(terms.length);
+            for (String term : terms) {
+                pending.add(new Prefetch<>(ioPool, () -> new PLI(term, scoreFunction, this, encodingType, readAhead)));
             }
-            return postingLists;
+            for (int i = 0; i < terms.length; i++) {
+                // A read not yet started by the I/O threads is done by this thread instead of waiting for it
+                if (pending.get(i).takeBack())
+                    cursors.add(new PLI(terms[i], scoreFunction, this, encodingType, readAhead));
+                else
+                    cursors.add(pending.get(i).await());
+            }
+            return cursors;
+        }
+
+        /**
+         * Returns the lexicon information of a term. For a term not present in the lexicon an empty posting list
+         * is returned, without modifying the lexicon.
+         *
+         * @param term The term to search in the lexicon.
+         * @return The lexicon information of the term.
+         */
+        public Term getTerm (String term){
+            Term termInfo = lexicon.getLexicon().get(term);
+            return termInfo != null ? termInfo : EMPTY_TERM;
         }
 
         /**
-         * Retrieves the posting list block containing a specified docId for a given term.
+         * Reads a block of a posting list into the given arrays. The first block is located through the offsets of
+         * the lexicon, the following ones through the skip pointers of the posting list.
          *
-         * @param term The term for which to obtain the posting list block.
-         * @param docId The docId used to identify the posting list block.
+         * @param term The term of the posting list.
+         * @param block The index of the block to read.
+         * @param docIds The array in which the docIds of the block are stored.
+         * @param freqs The array in which the frequencies of the block are stored.
          * @param encodingType The encoding type for reading files (text or byte).
-         * @return A HashMap associating the term with the posting list block containing the specified docId.
+         * @return The number of postings of the block.
          */
-        public HashMap<String, ArrayList<Posting>> lookupDocId (String term,int docId, String encodingType){
-            HashMap<String, ArrayList<Posting>> postingLists = new HashMap<>();
-            int[] skipPointers = new int[4];
-            int newDocId;
-            int newFreq;
-            int postingToRead;
-            int postingListLength;
-            int blockNumber;
-
-            searchBlock(skipPointers, term, docId, encodingType); // Find the block to read using skip pointers
-
-            // If no posting with a docId greater or equal to the one exists, return an empty HashMap
-            if (skipPointers[3] == 0) return postingLists;
-
-            // Navigate to the specified offsets in docIds and freq files
-            goToOffset(docIdByteRead, skipPointers[0]);
-            goToOffset(freqByteRead, skipPointers[1]);
-
-            // Compute the number of posting to read
-            postingListLength = lexicon.getLexicon().get(term).getPostingListLength();
-
-            //skiPointers[2] == 0 if the docId is not contained in the last block of the posting list, 1 otherwise.
-            if (skipPointers[2] == 0) {
-                postingToRead = Math.min(postingListLength, BlockLenght);
-            } else {
-                // Compute the right length to read if the posting containing the docId is the last block
-                blockNumber = (lexicon.getLexicon().get(term).getPostingListLength() / BlockLenght) + 1;
-                postingToRead = postingListLength - (blockNumber - 1) * BlockLenght;
-            }
+        public int readBlock (String term, int block, int[] docIds, int[] freqs, String encodingType){
+            Term termInfo = getTerm(term);
 
-            if (encodingType.equals("text")) {
-                // Iterate through the posting list block and add postings to the list, reading docId and frequency from the relative files
-                for (int i = 0; i < postingToRead; i++) {
-                    newDocId = docIdsTextRead.read();
-                    newFreq = freqTextRead.read();
-                    addPosting(postingLists, term, newDocId, newFreq);
-                }
+            // Obtain the offsets of the block in docIds and freq files
+            int offsetDocId;
+            int offsetFreq;
+            if (block == 0) {
+                offsetDocId = termInfo.getOffsetDocId();
+                offsetFreq = termInfo.getOffsetFreq();
             }
-            else{
-                for (int i = 0; i < postingToRead; i++) {
-                    newDocId = docIdByteRead.read();
-                    newFreq = freqByteRead.read();
-                    addPosting(postingLists, term, newDocId, newFreq);
-                }
+            else {
+                SkipBlocks skipBlocks = skipCache.get(term);
+                offsetDocId = skipBlocks.getDocIdOffset(block);
+                offsetFreq = skipBlocks.getFreqOffset(block);
             }
-            return postingLists;
+
+            // Compute the number of postings to read: all the blocks are full except the last one
+            int postingToRead = Math.min(BlockLenght, termInfo.getPostingListLength() - block * BlockLenght);
+
+            read(docIdByteRead, docIdsText, offsetDocId, postingToRead, docIds);
+            read(freqByteRead, freqText, offsetFreq, postingToRead, freqs);
+            return postingToRead;
         }
 
-    /**
-     * Determines skip pointers for locating the block in a term's posting list that contains a specified docId.
-     *
-     * @param skipPointers An array to store skip pointers.
-     * @param term The term for which to find skip pointers.
-     * @param docId The docId used to identify the target block in the posting list.
-     * @param encodingType The encoding type for reading files (text or byte).
-     */
-        public void searchBlock ( int[] skipPointers, String term,int docId, String encodingType){
-            ArrayList<Integer> pointersDocIds = new ArrayList<>();
-            ArrayList<Integer> pointerFreq = new ArrayList<>();
-            ArrayList<Integer> docIds = new ArrayList<>();
-            int offsetLastDocIds;
-            int offsetSkipPointers;
+        /**
+         * Reads from disk the skip information of a term's posting list: for each block its last docId, the
+         * offsets of the block in the docIds and freq files and the maximum scores of the block.
+         *
+         * @param term The term for which to read the skip information.
+         * @return The skip information of the posting list.
+         */
+        public SkipBlocks loadSkipBlocks (String term){
+            Term termInfo = getTerm(term);
 
             //Obtain the number of blocks of the term's posting list
-            int blockNumber = (lexicon.getLexicon().get(term).getPostingListLength() / BlockLenght) + 1;
-            offsetLastDocIds = lexicon.getLexicon().get(term).getOffsetLastDocIds();
-            offsetSkipPointers = lexicon.getLexicon().get(term).getOffsetSkipPointers();
+            int blockNumber = (termInfo.getPostingListLength() + BlockLenght - 1) / BlockLenght;
+            int[] lastDocIds = new int[blockNumber];
+            int[] docIdOffsets = new int[blockNumber];
+            int[] freqOffsets = new int[blockNumber];
+            int[] maxTermFrequencyParts = new int[blockNumber];
+            int[] maxTermFreqs = new int[blockNumber];
+
+            // Read the last docIds and the skip pointers, stored for each block as a docId offset, a freq offset,
+            // the quantized maximum BM25 score without the idf and the maximum term frequency
+            int[] skipPointers = new int[4 * blockNumber];
+            read(lastDocIdByteRead, lastDocIdsText, termInfo.getOffsetLastDocIds(), blockNumber, lastDocIds);
+            read(skipPointersByteRead, skipPointersText, termInfo.getOffsetSkipPointers(), 4 * blockNumber, skipPointers);
+            for (int i = 0; i < blockNumber; i++) {
+                docIdOffsets[i] = skipPointers[4 * i];
+                freqOffsets[i] = skipPointers[4 * i + 1];
+                maxTermFrequencyParts[i] = skipPointers[4 * i + 2];
+                maxTermFreqs[i] = skipPointers[4 * i + 3];
+            }
+            return new SkipBlocks(lastDocIds, docIdOffsets, freqOffsets, maxTermFrequencyParts, maxTermFreqs);
+        }
+
+        /**
+         * Opens the impact-ordered index written by the merger, loading its lexicon into main memory. The index is
+         * optional, so it is opened only at the first query that needs it.
+         *
+         * @return True if the impact-ordered index is available, false otherwise.
+         */
+        public synchronized boolean openImpactIndex (){
+            if (impactLexicon != null) return true;
+            if (impactIndexMissing) return false;
+
+            String postingsExtension = encodingType.equals("text") ? ".txt" : ".dat";
+            if (!new File(IMPACT_LEXICON_PATH).exists() || !new File(IMPACT_DOCID_PATH + postingsExtension).exists()) {
+                System.out.println("*** The impact-ordered index is not available. ***");
+                impactIndexMissing = true;
+                return false;
+            }
 
-            // Navigate to the specified offsets in last docIds and skip pointers files
-            goToOffset(lastDocIdByteRead, offsetLastDocIds);
-            goToOffset(skipPointersByteRead, offsetSkipPointers);
+            HashMap<String, int[]> lexicon = new HashMap<>();
+            TextReader impactLexiconRead = new TextReader(IMPACT_LEXICON_PATH);
+            while (impactLexiconRead.hasNextLine()) {
+                String[] terms = impactLexiconRead.readLine().split(" ");
+                lexicon.put(terms[0], new int[]{Integer.parseInt(terms[1]), Integer.parseInt(terms[2])});
+            }
+            impactLexiconRead.close();
 
             if (encodingType.equals("text")) {
-            // Iterate through the blocks, reading and adding posting list block information to the arrays
-                for (int i = 0; i < blockNumber; i++) {
-                    docIds.add(lastDocIdTextRead.read());
-                    pointersDocIds.add(skipPointersTextRead.read());
-                    pointerFreq.add(skipPointersTextRead.read());
-                }
+                impactSegmentsText = readTextFile(IMPACT_SEGMENTS_PATH + ".txt");
+                impactDocIdsText = readTextFile(IMPACT_DOCID_PATH + ".txt");
             }
             else {
-                for (int i = 0; i < blockNumber; i++) {
-                    docIds.add(lastDocIdByteRead.read());
-                    pointersDocIds.add(skipPointersByteRead.read());
-                    pointerFreq.add(skipPointersByteRead.read());
-                }
+                Compressor compressor = new Compressor();
+                impactSegmentsByteRead = new RandomByteReader(IMPACT_SEGMENTS_PATH + ".dat", compressor);
+                impactDocIdsByteRead = new RandomByteReader(IMPACT_DOCID_PATH + ".dat", compressor);
             }
+            impactLexicon = lexicon;
+            return true;
+        }
 
-            // Search for the block containing the posting with the specified docId grater or equal to the argument.
-            for (int i = 0; i < docIds.size(); i++) {
-                //if a posting with a docId greater than the docId passed is not present in the posting list, skipPointers[3] is 0.
-                if (i == 0) {
-                    if (docId < docIds.get(i)) {
-                        skipPointers[0] = pointersDocIds.get(i);
-                        skipPointers[1] = pointerFreq.get(i);
-                        skipPointers[2] = 0;
-                        skipPointers[3] = 1;
-                        return;
-                    }
-                } else {
-                    if (docId <= docIds.get(i) && docId > docIds.get(i - 1)) {
-                        skipPointers[0] = pointersDocIds.get(i);
-                        skipPointers[1] = pointerFreq.get(i);
-                        skipPointers[2] = 0;
-
-                        // Check if we reach the last block of the posting list
-                        if (i == (docIds.size() - 1)) {
-                            skipPointers[2] = 1;
-                        }
-                        skipPointers[3] = 1;
-                        return;
-                    } else {
-                        //no posting with a docId greater or equal to the argument is found.
-                        skipPointers[3] = 0;
-                    }
-                }
+        /**
+         * Opens the two tiers of the tiered index written by the merger. The index is optional, so it is opened only
+         * at the first query that needs it.
+         *
+         * @return True if the tiered index is available, false otherwise.
+         */
+        public synchronized boolean openTiers (){
+            if (tierOne != null) return true;
+            if (tieredIndexMissing) return false;
+
+            if (!IndexPaths.tier(1).exists(encodingType) || !IndexPaths.tier(2).exists(encodingType)) {
+                System.out.println("*** The tiered index is not available. ***");
+                tieredIndexMissing = true;
+                return false;
             }
+            tierTwo = new QueryProcessor(this, IndexPaths.tier(2));
+            tierOne = new QueryProcessor(this, IndexPaths.tier(1));
+            return true;
         }
 
         /**
-         * Appends a posting to the existing posting list for a specific term.
+         * Opens the shards of the sharded index written by the merger, described by the file SHARDS_INFO_PATH. The
+         * index is optional, so it is opened only at the first query that needs it.
          *
-         * @param postingLists The HashMap storing posting lists for different terms.
-         * @param term The term for which the posting is appended.
-         * @param docId The document ID associated with the posting.
-         * @param freq The frequency of the term in the document.
+         * @return True if the sharded index is available, false otherwise.
          */
-        public void addPosting (HashMap < String, ArrayList < Posting >> postingLists, String term,int docId, int freq){
-            // Check if the term already exist in the postingLists, otherwise, add a new entry.
-            if (!postingLists.containsKey(term)) {
-                postingLists.put(term, new ArrayList<>());
+        public synchronized boolean openShards (){
+            if (shards != null) return true;
+            if (shardedIndexMissing) return false;
+
+            int nShards = 0;
+            if (new File(SHARDS_INFO_PATH).exists()) {
+                TextReader shardsInfoRead = new TextReader(SHARDS_INFO_PATH);
+                nShards = Integer.parseInt(shardsInfoRead.readLine().split(" ")[0]);
+                shardsInfoRead.close();
+            }
+            for (int shard = 0; shard < nShards; shard++) {
+                if (!IndexPaths.shard(shard).exists(encodingType)) nShards = 0;
             }
-            // Add a new Posting object to the posting list of the specified term.
-            postingLists.get(term).add(new Posting(docId, freq));
+            if (nShards < 2) {
+                System.out.println("*** The sharded index is not available. ***");
+                shardedIndexMissing = true;
+                return false;
+            }
+            QueryProcessor[] openedShards = new QueryProcessor[nShards];
+            for (int shard = 0; shard < nShards; shard++) {
+                openedShards[shard] = new QueryProcessor(this, IndexPaths.shard(shard));
+            }
+            shardPool = Executors.newFixedThreadPool(nShards, runnable -> {
+                Thread thread = new Thread(runnable, "shard-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+            shards = openedShards;
+            return true;
+        }
+
+        /**
+         * Loads the forward index written during the indexing. The index is optional, so it is loaded only at the
+         * first query that needs it.
+         *
+         * @return True if the forward index is available, false otherwise.
+         */
+        public synchronized boolean openForwardIndex (){
+            if (forwardIndex != null) return true;
+            if (forwardIndexMissing) return false;
+
+            ForwardIndex index = ForwardIndex.load();
+            if (index == null) {
+                System.out.println("*** The forward index is not available. ***");
+                forwardIndexMissing = true;
+                return false;
+            }
+            forwardIndex = index;
+            return true;
+        }
+
+        /**
+         * Reads the segments of a term's impact-ordered posting list, by decreasing impact: for each segment its
+         * impact, its number of postings and its offset in the impact docIds file.
+         *
+         * @param term The term of the posting list.
+         * @return Three integers for each segment, none if the term is not in the lexicon.
+         */
+        public int[] readImpactSegments (String term){
+            int[] termInfo = impactLexicon.get(term);
+            if (termInfo == null) return new int[0];
+            int[] segments = new int[3 * termInfo[1]];
+            read(impactSegmentsByteRead, impactSegmentsText, termInfo[0], segments.length, segments);
+            return segments;
+        }
+
+        /**
+         * Reads the first postings of a segment of an impact-ordered posting list. The docIds are stored as
+         * differences from the previous one, the first one from 0.
+         *
+         * @param offset The offset of the segment in the impact docIds file.
+         * @param count The number of postings to read.
+         * @param docIdGaps The array in which the differences between the docIds are stored.
+         */
+        public void readImpactDocIds (int offset, int count, int[] docIdGaps){
+            read(impactDocIdsByteRead, impactDocIdsText, offset, count, docIdGaps);
         }
 
         /**
@@ -338,7 +444,8 @@ public class QueryProcessor {
 
                 // Populate lexicon information using values parsed from the line.
                 lexicon.addInformation(terms[0], Integer.parseInt(terms[1]), Integer.parseInt(terms[2]),
-                        Integer.parseInt(terms[3]), Integer.parseInt(terms[4]), Integer.parseInt(terms[5]), Float.parseFloat(terms[6]));
+                        Integer.parseInt(terms[3]), Integer.parseInt(terms[4]), Integer.parseInt(terms[5]), Float.parseFloat(terms[6]),
+                        Integer.parseInt(terms[7]));
             }
         }
 
@@ -348,6 +455,17 @@ public class QueryProcessor {
          * @param encodingType The encoding type for reading files (text or byte).
          */
         public void loadDocumentIndex ( String encodingType) {
+            loadDocumentIndex(encodingType, 0, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Reads the document index from the disk, keeping in main memory only the documents in a range of docIds.
+         *
+         * @param encodingType The encoding type for reading files (text or byte).
+         * @param firstDocId   The first docId of the range.
+         * @param endDocId     The docId following the last one of the range.
+         */
+        public void loadDocumentIndex ( String encodingType, int firstDocId, int endDocId) {
             int docId;
             int docNo;
             int size;
@@ -358,7 +476,7 @@ public class QueryProcessor {
                     docId = documentIndexTextRead.read();
                     docNo = documentIndexTextRead.read();
                     size = documentIndexTextRead.read();
-                    docIndex.addDocument(docId, docNo, size);
+                    if (docId >= firstDocId && docId < endDocId) docIndex.addDocument(docId, docNo, size);
                 }
             }
             else {
@@ -366,11 +484,29 @@ public class QueryProcessor {
                     docId = documentIndexByteRead.read();
                     docNo = documentIndexByteRead.read();
                     size = documentIndexByteRead.read();
-                    docIndex.addDocument(docId, docNo, size);
+                    if (docId >= firstDocId && docId < endDocId) docIndex.addDocument(docId, docNo, size);
                 }
             }
         }
 
+        /**
+         * Computes the BM25 length normalization of every document loaded in the document index, so that scoring a
+         * posting only reads an array.
+         *
+         * @param firstDocId The docId of the first entry of the array, the first one loaded.
+         */
+        public void computeDocumentNorms (int firstDocId) {
+            int maxDocId = firstDocId - 1;
+            for (int docId : docIndex.getDocIndex().keySet()) {
+                maxDocId = Math.max(maxDocId, docId);
+            }
+            this.firstDocId = firstDocId;
+            documentNorms = new float[maxDocId - firstDocId + 1];
+            for (Map.Entry<Integer, DocInfo> entry : docIndex.getDocIndex().entrySet()) {
+                documentNorms[entry.getKey() - firstDocId] = (float) (K1 * ((1 - B) + B * ((double) entry.getValue().getDocLen() / statistics.getAvdl())));
+            }
+        }
+
         /**
          * Reads and transfers the collection statistics from the disk into the main memory.
          */
@@ -397,156 +533,80 @@ public class QueryProcessor {
 
 
         /**
-         * Load the subsequent block of a posting list associated with a specific term and document ID.
-         *
-         * @param term The term for which the next block is to be loaded.
-         * @param docId The document ID for which the next block is to be loaded.
-         * @param encodingType type of encoding (byte or text)
-         * @return A HashMap containing posting lists for the specified term and document ID.
-         */
-        public HashMap<String, ArrayList<Posting>> loadNextBlock (String term,int docId, String encodingType){
-            HashMap<String, ArrayList<Posting>> postingLists = new HashMap<>();
-            int[] skipPointers = new int[3];
-            int postingListLength;
-            int postingToRead;
-            int blockNumber;
-            int newFreq;
-            int newDocId;
-
-            // Identify the skip pointers for the subsequent posting list block.
-            searchNextBlock(skipPointers, term, docId, encodingType);
-
-            if (skipPointers[0] == 0)
-                return postingLists;  //Return an empty postingLists if skip pointers are not located.
-
-            // Navigate to the specified offsets for docIds and frequencies.
-            goToOffset(docIdByteRead, skipPointers[0]);
-            goToOffset(freqByteRead, skipPointers[1]);
-
-            postingListLength = lexicon.getLexicon().get(term).getPostingListLength();
-
-            // Compute the number of postings to read in the next block.
-            //skiPointers[2] == 0 if the docId is not contained in the last block of the posting list, 1 otherwise.
-            if (skipPointers[2] == 0) {
-                postingToRead = Math.min(postingListLength, BlockLenght);
-            } else {
-                //if the posting containing the docId is the last block of the posting list, computes the right
-                //length to read.
-                blockNumber = (lexicon.getLexicon().get(term).getPostingListLength() / BlockLenght) + 1;
-                postingToRead = postingListLength - (blockNumber - 1) * BlockLenght;
-            }
-
-            if (encodingType.equals("text")) {
-                // Read postings from the files and add them to the postingLists, reading docId and frequency from the relative files
-                for (int i = 0; i < postingToRead; i++) {
-                    newDocId = docIdsTextRead.read();
-                    newFreq = freqTextRead.read();
-                    addPosting(postingLists, term, newDocId, newFreq);
-                }
-            }
-            else {
-                for (int i = 0; i < postingToRead; i++) {
-                    newDocId = docIdByteRead.read();
-                    newFreq = freqByteRead.read();
-                    addPosting(postingLists, term, newDocId, newFreq);
-
-                }
-            }
-            return postingLists;
-        }
-
-        /**
-         * Search the skip pointers for the subsequent posting list block.
-         *
-         * @param skipPointers An array to store skip pointers.
-         * @param term The term for which to search the skip pointers.
-         * @param docId The document ID for which to search the skip pointers.
-         * @param encodingType type of encoding (byte or text)
-         */
-        public void searchNextBlock ( int[] skipPointers, String term,int docId, String encodingType){
-            ArrayList<Integer> pointersDocIds = new ArrayList<>();
-            ArrayList<Integer> pointerFreq = new ArrayList<>();
-            ArrayList<Integer> docIds = new ArrayList<>();
-            int offsetLastDocIds;
-            int offsetSkipPointers;
-
-            // Determine the number of blocks for the term's posting list.
-            int blockNumber = (lexicon.getLexicon().get(term).getPostingListLength() / BlockLenght) + 1;
-
-            offsetLastDocIds = lexicon.getLexicon().get(term).getOffsetLastDocIds();
-            offsetSkipPointers = lexicon.getLexicon().get(term).getOffsetSkipPointers();
-
-            // Navigate to the specified offsets for last docIds and skip pointers.
-            goToOffset(lastDocIdByteRead, offsetLastDocIds);
-            goToOffset(skipPointersByteRead, offsetSkipPointers);
-
-            if (encodingType.equals("text")) {
-                // Read information about each block.
-                for (int i = 0; i < blockNumber; i++) {
-                    docIds.add(lastDocIdTextRead.read());
-                    pointersDocIds.add(skipPointersTextRead.read());
-                    pointerFreq.add(skipPointersTextRead.read());
-                }
-            }
-            else {
-                for (int i = 0; i < blockNumber; i++) {
-                    docIds.add(lastDocIdByteRead.read());
-                    pointersDocIds.add(skipPointersByteRead.read());
-                    pointerFreq.add(skipPointersByteRead.read());
-                }
-            }
-
-            // Iterate through docIds to find the block containing the specified docId.
-            for (int i = 0; i < docIds.size(); i++) {
-                if (docId == docIds.get(i)) {
-
-                    // return without updating skipPointers, if the docId belongs to the last block, .
-                    if (i == (docIds.size() - 1)) return;
-
-                    //  set the flag to indicate the last block if the next block is the last block,.
-                    if (i == (docIds.size() - 2)) skipPointers[2] = 1;
-                    // Update skipPointers with the offsets for the next block.
-                    skipPointers[0] = pointersDocIds.get(i + 1);
-                    skipPointers[1] = pointerFreq.get(i + 1);
-                }
-            }
-        }
-
-        /**
-         * Moves the file cursor to a specified offset for random access reads.
+         * Reads a sequence of integers of a posting file starting at a specified offset. Text encoded files are
+         * kept in main memory and the offset is the position of the integer, byte encoded files are read with a
+         * positional read that does not move the file pointer, so concurrent queries do not interfere.
          *
-         * @param file The RandomByteReader representing the file to navigate.
-         * @param offset The offset to move the cursor to.
+         * @param byteFile The byte encoded file.
+         * @param textFile The text encoded file.
+         * @param offset The offset of the first integer.
+         * @param count The number of integers to read.
+         * @param numbers The array in which the integers are stored.
          */
-        public void goToOffset (RandomByteReader file,int offset){
-            file.goToOffset(offset);
+        public void read (RandomByteReader byteFile, int[] textFile, int offset, int count, int[] numbers){
+            if (encodingType.equals("text"))
+                System.arraycopy(textFile, offset, numbers, 0, count);
+            else
+                byteFile.read(offset, count, numbers);
         }
 
 
-    // Open text files for the lookup phase.
+    // Load in main memory the text files for the lookup phase.
     public void openTextLookupFiles() {
-        docIdsTextRead = new TextReader(DOCID_PATH + ".txt");
-        freqTextRead = new TextReader(FREQ_PATH + ".txt");
-        lastDocIdTextRead = new TextReader(LASTDOCID_PATH + ".txt");
-        skipPointersTextRead = new TextReader(SKIPPOINTERS_PATH + ".txt");
+        docIdsText = readTextFile(paths.docIds + ".txt");
+        freqText = readTextFile(paths.freq + ".txt");
+        lastDocIdsText = readTextFile(paths.lastDocIds + ".txt");
+        skipPointersText = readTextFile(paths.skipPointers + ".txt");
+    }
+
+    // Read all the integers of a text file.
+    private int[] readTextFile(String file) {
+        TextReader textReader = new TextReader(file);
+        int[] numbers = textReader.readAll();
+        textReader.close();
+        return numbers;
     }
 
     // Open byte files for the lookup phase.
     public void openByteLookupFiles() {
         Compressor compressor = new Compressor();
-        docIdByteRead = new RandomByteReader(DOCID_PATH + ".dat", compressor);
-        freqByteRead = new RandomByteReader(FREQ_PATH + ".dat", compressor);
-        lastDocIdByteRead = new RandomByteReader(LASTDOCID_PATH + ".dat", compressor);
-        skipPointersByteRead = new RandomByteReader(SKIPPOINTERS_PATH + ".dat", compressor);
+        docIdByteRead = new RandomByteReader(paths.docIds + ".dat", compressor);
+        freqByteRead = new RandomByteReader(paths.freq + ".dat", compressor);
+        lastDocIdByteRead = new RandomByteReader(paths.lastDocIds + ".dat", compressor);
+        skipPointersByteRead = new RandomByteReader(paths.skipPointers + ".dat", compressor);
     }
 
-    // Close text files after lookup phase.
-    public void closeTextLookupFiles() {
-        docIdsTextRead.close();
-        freqTextRead.close();
-        lastDocIdTextRead.close();
-        skipPointersTextRead.close();
+    /**
+     * Closes the posting files of the index, after which no more queries can be processed.
+     */
+    public void close() {
+        if (tierOne != null) {
+            tierOne.closeTier();
+            tierTwo.closeTier();
+        }
+        if (shards != null) {
+            shardPool.shutdownNow();
+            for (QueryProcessor shard : shards)
+                shard.closeTier();
+        }
+        if (forwardIndex != null)
+            forwardIndex.close();
+        if (ioPool != null)
+            ioPool.shutdownNow();
+        if (!encodingType.equals("text")) {
+            if (docIdByteRead != null)
+                closeByteLookupFiles();
+            if (impactDocIdsByteRead != null) {
+                impactSegmentsByteRead.close();
+                impactDocIdsByteRead.close();
+            }
+        }
+    }
 
+    // Closes the posting files of a tier or of a shard, whose I/O threads are those of the main index.
+    private void closeTier() {
+        if (!encodingType.equals("text"))
+            closeByteLookupFiles();
     }
 
     // Close byte files after lookup phase.
@@ -560,14 +620,14 @@ public class QueryProcessor {
 
 
     public void openTextObtainFiles() {
-        lexiconRead = new TextReader(LEXICON_PATH);
+        lexiconRead = new TextReader(paths.lexicon);
         statisticsRead = new TextReader(STATISTICS_PATH);
         documentIndexTextRead = new TextReader(DOCINDEX_PATH + ".txt");
     }
 
     public void openByteObtainFiles() {
         Compressor compressor = new Compressor();
-        lexiconRead = new TextReader(LEXICON_PATH);
+        lexiconRead = new TextReader(paths.lexicon);
         statisticsRead = new TextReader(STATISTICS_PATH);
         documentIndexByteRead = new ByteReader(DOCINDEX_PATH + ".dat", compressor);
     }
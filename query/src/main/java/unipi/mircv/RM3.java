@@ -0,0 +1,153 @@
+package unipi.mircv;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The RM3 class expands the queries with pseudo-relevance feedback. A first retrieval with MaxScore finds the top
+ * RM3_FEEDBACK_DOCUMENTS documents, whose terms and frequencies are read from the forward index without parsing them
+ * again. The relevance model weighs every term by the sum over the feedback documents of its frequency in the
+ * document divided by the document length, times the score of the document normalized over the feedback set; its
+ * RM3_FEEDBACK_TERMS heaviest terms, normalized to sum 1, are interpolated with the original query model, where each
+ * term weighs its occurrences divided by the query length. The expanded weighted query is processed by MaxScore as a
+ * disjunctive query, whatever the type of the original query.
+ * Without the forward index, or when the deadline expires during the first retrieval, the results of the first
+ * retrieval are returned.
+ */
+public class RM3 {
+
+    String queryType; // conjunctive or disjunctive, for the first retrieval
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+
+    /**
+     * A query expanded with the relevance model: its terms, the original ones first, with their weights.
+     */
+    public static class Expansion {
+        public final String[] terms;
+        public final double[] weights;
+
+        private Expansion(String[] terms, double[] weights) {
+            this.terms = terms;
+            this.weights = weights;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder expansion = new StringBuilder();
+            for (int i = 0; i < terms.length; i++) {
+                if (i > 0) expansion.append(" ");
+                expansion.append(terms[i]).append("^").append(String.format("%.4f", weights[i]));
+            }
+            return expansion.toString();
+        }
+    }
+
+    /**
+     * Constructs a RM3 instance with the specified query type and query processor.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive) for the first retrieval
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public RM3(String queryType, QueryProcessor queryProcessor){
+        this.queryType = queryType;
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Scores documents based on the given query terms expanded with pseudo-relevance feedback.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25) of the original query
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        TopKHeap firstRetrieval = new MaxScore(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction,
+                Math.max(k, RM3_FEEDBACK_DOCUMENTS), encodingType, scoreType);
+        List<DocsRanked> ranking = firstRetrieval.getSortedResults();
+        if(scoreFunction.getDeadline().isExpired() || !queryProcessor.openForwardIndex()){
+            return ResultCache.topK(ranking, k);
+        }
+
+        Expansion expansion = expand(queryTerms, ranking.subList(0, Math.min(RM3_FEEDBACK_DOCUMENTS, ranking.size())));
+        ScoreFunction expandedScoreFunction = new ScoreFunction(expansion.terms, expansion.weights, queryProcessor,
+                scoreType, scoreFunction.getDeadline(), scoreFunction.getPruningFactor());
+        return new MaxScore("disjunctive", queryProcessor).scoreDocuments(expansion.terms, expandedScoreFunction, k, encodingType, scoreType);
+    }
+
+    /**
+     * Expands a query with the relevance model of the feedback documents, read from the forward index, which must
+     * be open.
+     *
+     * @param queryTerms Array of query terms
+     * @param feedback   The feedback documents, sorted by decreasing score
+     * @return The expanded query
+     */
+    public Expansion expand(String[] queryTerms, List<DocsRanked> feedback){
+        ForwardIndex forwardIndex = queryProcessor.forwardIndex;
+
+        // Weight of each feedback document: its score normalized over the feedback set
+        double totalScore = 0;
+        for(DocsRanked doc : feedback){
+            totalScore += doc.getValue();
+        }
+
+        // Relevance model of the feedback documents, by term id
+        HashMap<Integer, Double> relevanceModel = new HashMap<>();
+        int[] termIds = new int[0];
+        int[] freqs = new int[0];
+        for(DocsRanked doc : feedback){
+            int n = forwardIndex.getTermCount(doc.getKey());
+            if(n == 0 || totalScore <= 0) continue;
+            if(termIds.length < n){
+                termIds = new int[n];
+                freqs = new int[n];
+            }
+            forwardIndex.readDocument(doc.getKey(), termIds, freqs);
+            long documentLength = 0;
+            for(int i = 0; i < n; i++){
+                documentLength += freqs[i];
+            }
+            double documentWeight = doc.getValue() / totalScore;
+            for(int i = 0; i < n; i++){
+                if(forwardIndex.getTerm(termIds[i]).isEmpty()) continue;
+                relevanceModel.merge(termIds[i], documentWeight * freqs[i] / documentLength, Double::sum);
+            }
+        }
+
+        // Keep the heaviest terms, ties broken by term id, and normalize their weights
+        ArrayList<Map.Entry<Integer, Double>> entries = new ArrayList<>(relevanceModel.entrySet());
+        entries.sort((a, b) -> a.getValue().equals(b.getValue()) ? Integer.compare(a.getKey(), b.getKey())
+                : Double.compare(b.getValue(), a.getValue()));
+        int feedbackTerms = Math.min(RM3_FEEDBACK_TERMS, entries.size());
+        double totalWeight = 0;
+        for(int i = 0; i < feedbackTerms; i++){
+            totalWeight += entries.get(i).getValue();
+        }
+
+        // Interpolate the original query model with the relevance model
+        LinkedHashMap<String, Double> weights = new LinkedHashMap<>();
+        for(String term : queryTerms){
+            weights.merge(term, RM3_ORIGINAL_QUERY_WEIGHT / queryTerms.length, Double::sum);
+        }
+        for(int i = 0; i < feedbackTerms; i++){
+            weights.merge(forwardIndex.getTerm(entries.get(i).getKey()),
+                    (1 - RM3_ORIGINAL_QUERY_WEIGHT) * entries.get(i).getValue() / totalWeight, Double::sum);
+        }
+
+        ArrayList<String> terms = new ArrayList<>(weights.keySet());
+        double[] termWeights = new double[terms.size()];
+        for(int i = 0; i < termWeights.length; i++){
+            termWeights[i] = weights.get(terms.get(i));
+        }
+        return new Expansion(terms.toArray(new String[0]), termWeights);
+    }
+}
@@ -0,0 +1,151 @@
+package unipi.mircv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An LRU cache of the results of the queries. A query is identified by its terms after parsing, sorted so that
+ * permutations of the same terms share the entry, and by the settings of the scoring (score function, document
+ * processor and query type).
+ * Every entry stores the top-k' documents of the query: a request for k documents with k lower or equal to k' is
+ * served from the entry, as is any request when the query matched less than k' documents. Rankings deeper than a
+ * maximum depth are not cached, so that a few deep pages cannot fill the memory.
+ * The cache is shared by all the queries, so its accesses are synchronized.
+ */
+public class ResultCache {
+
+    private final LinkedHashMap<String, Entry> cache; // access ordered map between a query and its results
+    private final int maxDepth; // maximum number of results stored for a query
+    private int hits;
+    private int misses;
+
+    // The results of a query sorted by decreasing score, with the number of documents that were requested
+    private static class Entry {
+        private final ArrayList<DocsRanked> results;
+        private final int depth;
+
+        private Entry(ArrayList<DocsRanked> results, int depth) {
+            this.results = results;
+            this.depth = depth;
+        }
+
+        // True if the entry contains the top-k documents of the query
+        private boolean covers(int k) {
+            return k <= depth || results.size() < depth;
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxEntries The maximum number of queries kept in memory.
+     * @param maxDepth   The maximum number of results stored for a query.
+     */
+    public ResultCache(int maxEntries, int maxDepth) {
+        this.maxDepth = maxDepth;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Builds the key of a query, independent of the order of its terms. Repeated terms are kept, since they
+     * contribute more than once to the score of the document-at-a-time processing.
+     *
+     * @param queryTerms        Terms of the query after parsing
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list, one of MainQueries.DOCUMENT_PROCESSORS
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @return The key of the query in the cache.
+     */
+    public static String key(String[] queryTerms, String stringScore, String documentProcessor, String queryType) {
+        String[] sortedTerms = queryTerms.clone();
+        Arrays.sort(sortedTerms);
+        return stringScore + " " + documentProcessor + " " + queryType + " " + String.join(" ", sortedTerms);
+    }
+
+    /**
+     * Builds the key of a query processed with the given pruning factor. The results of the approximate processing,
+     * with a factor greater than 1, are kept apart from the exact ones.
+     *
+     * @param queryTerms        Terms of the query after parsing
+     * @param stringScore       Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting list, one of MainQueries.DOCUMENT_PROCESSORS
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param pruningFactor     Factor of the pruning threshold
+     * @return The key of the query in the cache.
+     */
+    public static String key(String[] queryTerms, String stringScore, String documentProcessor, String queryType, double pruningFactor) {
+        String key = key(queryTerms, stringScore, documentProcessor, queryType);
+        return pruningFactor == 1 ? key : "f=" + pruningFactor + " " + key;
+    }
+
+    /**
+     * Returns the top-k documents of a query if they are in the cache.
+     *
+     * @param key The key of the query.
+     * @param k   Number of top results to retrieve.
+     * @return A new heap with the top-k documents, or null if the cache does not contain them.
+     */
+    public synchronized TopKHeap get(String key, int k) {
+        Entry entry = cache.get(key);
+        if (entry == null || !entry.covers(k)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return topK(entry.results, k);
+    }
+
+    /**
+     * Builds a new heap with the first k documents of a ranking.
+     *
+     * @param ranking The documents sorted by decreasing score.
+     * @param k       Number of top results to keep.
+     * @return The heap with the top-k documents.
+     */
+    public static TopKHeap topK(List<DocsRanked> ranking, int k) {
+        TopKHeap results = new TopKHeap(k);
+        for (int i = 0; i < Math.min(k, ranking.size()); i++) {
+            results.add(ranking.get(i).getKey(), ranking.get(i).getValue());
+        }
+        return results;
+    }
+
+    /**
+     * Stores the results of a query, unless the cache already contains more of them or more than the maximum depth
+     * were requested.
+     *
+     * @param key     The key of the query.
+     * @param results The results of the query.
+     * @param k       Number of top results that were requested.
+     */
+    public synchronized void put(String key, TopKHeap results, int k) {
+        if (k > maxDepth) return;
+        Entry entry = cache.get(key);
+        if (entry == null || entry.depth < k) {
+            cache.put(key, new Entry(results.getSortedResults(), k));
+        }
+    }
+
+    /**
+     * Removes all the queries from the cache, for example when the index is reloaded.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,92 @@
+package unipi.mircv;
+
+import java.util.List;
+
+/**
+ * A page of the ranked results of a query: the documents from position offset + 1 to offset + limit of the ranking,
+ * sorted by decreasing score, stored as parallel arrays of docNos and scores. The page is a copy, so it can be read
+ * any number of times and by any thread.
+ */
+public class ResultPage {
+    private final int offset; // number of documents ranked before the page
+    private final int[] docNos;
+    private final double[] scores;
+    private final boolean hasMore; // true if the ranking may continue after the page
+    private final boolean approximate; // true if the query was stopped by its deadline
+
+    private ResultPage(int offset, int[] docNos, double[] scores, boolean hasMore, boolean approximate) {
+        this.offset = offset;
+        this.docNos = docNos;
+        this.scores = scores;
+        this.hasMore = hasMore;
+        this.approximate = approximate;
+    }
+
+    /**
+     * Builds a page from the top documents of a query.
+     *
+     * @param ranking     The top documents of the query sorted by decreasing score, with their docIds.
+     * @param complete    True if the ranking contains all the documents matching the query, false if it may
+     *                    continue after its last document.
+     * @param offset      The number of documents ranked before the page.
+     * @param limit       The maximum number of documents of the page.
+     * @param mainQueries The MainQueries used to convert the docIds to docNos.
+     * @param approximate True if the results are approximate.
+     * @return The page of results.
+     */
+    public static ResultPage of(List<DocsRanked> ranking, boolean complete, int offset, int limit, MainQueries mainQueries, boolean approximate) {
+        int size = Math.max(0, Math.min(limit, ranking.size() - offset));
+        int[] docNos = new int[size];
+        double[] scores = new double[size];
+        for (int i = 0; i < size; i++) {
+            DocsRanked doc = ranking.get(offset + i);
+            docNos[i] = mainQueries.getDocNo(doc.getKey());
+            scores[i] = doc.getValue();
+        }
+        boolean hasMore = ranking.size() > offset + size || (!complete && offset + size == ranking.size());
+        return new ResultPage(offset, docNos, scores, hasMore, approximate);
+    }
+
+    public int size() {
+        return docNos.length;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getDocNo(int i) {
+        return docNos[i];
+    }
+
+    public double getScore(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Returns the position of a document of the page in the whole ranking, starting from 1.
+     *
+     * @param i The index of the document in the page.
+     * @return The rank of the document.
+     */
+    public int getRank(int i) {
+        return offset + i + 1;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public void printResults() {
+        if (approximate) System.out.print("\n*** APPROXIMATE RESULTS: THE DEADLINE EXPIRED ***");
+        System.out.print("\nPOSITION DOCNO SCORE");
+        System.out.print("\n--------------------------\n");
+        for (int i = 0; i < size(); i++) {
+            System.out.print(getRank(i) + ") " + docNos[i] + " " + scores[i] + "\n");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package unipi.mircv;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The SAAT class implements Score-At-A-Time processing over the impact-ordered index written by the merger. The
+ * segments of the posting lists of all the query terms, each one a run of docIds with the same quantized BM25 impact,
+ * are processed by decreasing score, adding the score of each posting to a dense accumulator array indexed by docId.
+ * Processing stops once the postings budget is exhausted, so the latency of a query is bounded by the budget instead
+ * of the length of its posting lists: the top-k documents approximate those of DAAT, because of the quantization of
+ * the impacts and of the segments left out by the budget. The deadline of the query is checked before each segment.
+ * Conjunctive queries, TFIDF queries and queries on an index without the impact-ordered layout are processed as in DAAT.
+ */
+public class SAAT {
+
+    String queryType; // conjunctive or disjunctive
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+    int postingsBudget; // maximum number of postings scored by a query
+
+    // accumulators borrowed by the queries and given back all 0, at most SAAT_ACCUMULATORS of them are kept in memory
+    private static final ArrayBlockingQueue<double[]> ACCUMULATORS = new ArrayBlockingQueue<>(Math.max(1, SAAT_ACCUMULATORS));
+
+    /**
+     * Constructs a SAAT instance with the specified query type and query processor, and the default postings budget.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive)
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public SAAT(String queryType, QueryProcessor queryProcessor){
+        this(queryType, queryProcessor, SAAT_POSTINGS_BUDGET);
+    }
+
+    /**
+     * Constructs a SAAT instance with the specified query type, query processor and postings budget.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive)
+     * @param queryProcessor Processor for handling queries and lexicon information
+     * @param postingsBudget Maximum number of postings scored by a query
+     */
+    public SAAT(String queryType, QueryProcessor queryProcessor, int postingsBudget){
+        this.queryType = queryType;
+        this.queryProcessor = queryProcessor;
+        this.postingsBudget = postingsBudget;
+    }
+
+    /**
+     * Scores documents based on the given query terms, processing the segments with the highest scores first until the
+     * postings budget is exhausted.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        // The impacts approximate only the BM25 scores, and there is no order by score in a conjunctive query
+        if(queryType.equals("conjunctive") || !scoreType.equals("bm25") || !queryProcessor.openImpactIndex()){
+            return new DAAT(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+        }
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
+
+        // Collect the segments of the posting lists of all the query terms, with the score of their postings
+        int[][] termSegments = new int[queryTerms.length][];
+        int n = 0;
+        for(int i = 0; i < queryTerms.length; i++){
+            termSegments[i] = queryProcessor.readImpactSegments(queryTerms[i]);
+            n += termSegments[i].length / 3;
+        }
+        double[] segmentScores = new double[n];
+        int[] segmentCounts = new int[n];
+        int[] segmentOffsets = new int[n];
+        Integer[] order = new Integer[n];
+        int s = 0;
+        for(int i = 0; i < queryTerms.length; i++){
+            int termIndex = scoreFunction.termIndex(queryTerms[i]);
+            for(int j = 0; j < termSegments[i].length; j += 3, s++){
+                segmentScores[s] = scoreFunction.impactScore(termIndex, termSegments[i][j]);
+                segmentCounts[s] = termSegments[i][j + 1];
+                segmentOffsets[s] = termSegments[i][j + 2];
+                order[s] = s;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(segmentScores[b], segmentScores[a]));
+
+        double[] accumulators = borrowAccumulators(queryProcessor.documentNorms.length);
+        int[] touched = new int[1024]; // documents with a score in the accumulators
+        int touchedCount = 0;
+        int[] docIdGaps = new int[0];
+
+        // Process the segments by decreasing score, the last one only in part if the budget runs out in the middle
+        int budget = postingsBudget;
+        for(int i = 0; i < n && budget > 0; i++){
+            int segment = order[i];
+            if(segmentScores[segment] <= 0) break; // Terms appearing in every document do not change the ranking
+            if(scoreFunction.getDeadline().check()) break; // No time left: rank the documents scored so far
+            int count = Math.min(segmentCounts[segment], budget);
+            if(docIdGaps.length < count) docIdGaps = new int[count];
+            queryProcessor.readImpactDocIds(segmentOffsets[segment], count, docIdGaps);
+
+            double score = segmentScores[segment];
+            int docId = 0;
+            for(int j = 0; j < count; j++){
+                docId += docIdGaps[j];
+                if(accumulators[docId] == 0){
+                    if(touchedCount == touched.length) touched = Arrays.copyOf(touched, 2 * touchedCount);
+                    touched[touchedCount++] = docId;
+                }
+                accumulators[docId] += score;
+            }
+            budget -= count;
+        }
+
+        // Select the top-k documents among the touched ones, resetting their accumulators for the next query
+        for(int i = 0; i < touchedCount; i++){
+            int docId = touched[i];
+            scores.add(docId, accumulators[docId]);
+            accumulators[docId] = 0;
+        }
+        returnAccumulators(accumulators);
+        return scores; //Return the top K scores
+    }
+
+    // Returns a free accumulator, all 0, with one entry for each document of the collection; a new one if none is free.
+    private static double[] borrowAccumulators(int nDocuments){
+        double[] accumulators = ACCUMULATORS.poll();
+        return accumulators != null && accumulators.length >= nDocuments ? accumulators : new double[nDocuments];
+    }
+
+    // Gives back an accumulator reset to 0, dropping it if the pool is already full.
+    private static void returnAccumulators(double[] accumulators){
+        if(SAAT_ACCUMULATORS > 0) ACCUMULATORS.offer(accumulators);
+    }
+}
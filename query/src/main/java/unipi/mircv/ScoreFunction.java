@@ -1,69 +1,251 @@
 package unipi.mircv;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 import static unipi.mircv.Parameters.*;
 
 /**
  * Represents a scoring function for document ranking based on information retrieval metrics.
+ * It is compiled once per query: the distinct query terms are numbered and their idf is kept in an array indexed by
+ * term, and the BM25 length normalization of every document is read from the table precomputed when the index is
+ * loaded, so scoring a posting does not look up any map.
+ * The terms of a weighted query, such as one expanded with pseudo-relevance feedback, have their idf multiplied by
+ * their weight, which scales the scores and the upper bounds of their postings alike.
+ * The copy used by a shard of the sharded index keeps the idf of the whole collection and takes the upper bounds from
+ * the lexicon of the shard, and its pruning threshold also accounts for the documents found by the other shards.
  */
 public class ScoreFunction {
-    private String[] queryTerms;
-    private HashMap<String, Double> idf;
-    private HashMap<Integer, DocInfo> docInfo;
-    private double avgDocumentLength;
-    private String scoreType;
+    private final HashMap<String, Integer> termIndexes; // index of each distinct query term
+    private final double[] idf; // idf of each distinct query term, multiplied by its weight
+    private final boolean bm25; // true for BM25, false for TFIDF
+    private final float[] documentNorms; // BM25 length normalization of each document
+    private final int firstDocId; // docId of the first entry of documentNorms
+    private final QueryProcessor queryProcessor;
+    private final Deadline deadline; // time limit of the query
+    private final double pruningFactor; // factor F >= 1 multiplying the threshold of the pruning decisions
+    private final SharedThreshold sharedThreshold; // thresholds of the shards processing the query, null if not sharded
+    private final int shard; // index of the shard of this copy
+    private double publishedThreshold; // last threshold of the shard published to the others
 
+    // Relative margin added to the upper bounds to cover the rounding errors of the floating point operations,
+    // including the float precision of the length normalization of the documents
+    private static final double UPPER_BOUND_MARGIN = 1e-6;
 
-    // Constructor for initializing the scoring function with necessary parameters
-    public ScoreFunction(HashMap<String, ArrayList<Posting>> postingLists, String[] queryTerms, QueryProcessor queryProcessor, String scoreType) {
+
+    // Constructor for initializing the scoring function with necessary parameters, for a query without time limit
+    public ScoreFunction(String[] queryTerms, QueryProcessor queryProcessor, String scoreType) {
+        this(queryTerms, queryProcessor, scoreType, Deadline.NONE);
+    }
+
+    // Constructor for initializing the scoring function of a query with the given time limit
+    public ScoreFunction(String[] queryTerms, QueryProcessor queryProcessor, String scoreType, Deadline deadline) {
+        this(queryTerms, queryProcessor, scoreType, deadline, 1);
+    }
+
+    // Constructor for initializing the scoring function of a query with the given time limit and pruning factor
+    public ScoreFunction(String[] queryTerms, QueryProcessor queryProcessor, String scoreType, Deadline deadline, double pruningFactor) {
+        this(queryTerms, null, queryProcessor, scoreType, deadline, pruningFactor);
+    }
+
+    // Constructor for initializing the scoring function of a weighted query, where termWeights[i] is the weight of
+    // queryTerms[i], with the given time limit and pruning factor. A repeated term takes the weight of its first
+    // occurrence; null weights give every term a weight of 1
+    public ScoreFunction(String[] queryTerms, double[] termWeights, QueryProcessor queryProcessor, String scoreType, Deadline deadline, double pruningFactor) {
         double nDocuments = queryProcessor.getStatistics().getNDocs();
-        this.queryTerms = queryTerms;
 
-        // Calculate IDF values for each term in the query
-        this.idf = new HashMap<>();
-        for (String term : postingLists.keySet()) {
-            double df = queryProcessor.getLexicon().getLexicon().get(term).getPostingListLength();
-            idf.put(term, Math.log(nDocuments / df));
+        // Number the distinct query terms and calculate their IDF values
+        this.termIndexes = new HashMap<>();
+        double[] weights = new double[queryTerms.length];
+        for (int i = 0; i < queryTerms.length; i++) {
+            if (termIndexes.putIfAbsent(queryTerms[i], termIndexes.size()) == null) {
+                weights[termIndexes.size() - 1] = termWeights != null ? termWeights[i] : 1;
+            }
         }
+        this.idf = new double[termIndexes.size()];
+        for (Map.Entry<String, Integer> entry : termIndexes.entrySet()) {
+            double df = queryProcessor.getTerm(entry.getKey()).getPostingListLength();
+            idf[entry.getValue()] = Math.log(nDocuments / df) * weights[entry.getValue()];
+        }
+
+        this.bm25 = scoreType.equals("bm25");
+        this.documentNorms = queryProcessor.documentNorms;
+        this.firstDocId = queryProcessor.firstDocId;
+        this.queryProcessor = queryProcessor;
+        this.deadline = deadline;
+        this.pruningFactor = pruningFactor;
+        this.sharedThreshold = null;
+        this.shard = 0;
+    }
 
-        // Initialize average document length and document information
-        this.avgDocumentLength = queryProcessor.getStatistics().getAvdl();
-        this.docInfo = queryProcessor.getDocIndex().getDocIndex();
+    // Constructor of the copy of a scoring function used by a shard
+    private ScoreFunction(ScoreFunction collection, QueryProcessor shardProcessor, int shard, SharedThreshold sharedThreshold) {
+        this.termIndexes = collection.termIndexes;
+        this.idf = collection.idf;
+        this.bm25 = collection.bm25;
+        this.documentNorms = collection.documentNorms;
+        this.firstDocId = collection.firstDocId;
+        this.queryProcessor = shardProcessor;
+        this.deadline = collection.deadline;
+        this.pruningFactor = collection.pruningFactor;
+        this.sharedThreshold = sharedThreshold;
+        this.shard = shard;
+    }
+
+    /**
+     * Returns the copy of this scoring function used to process the query on a shard of the sharded index. A copy is
+     * used by a single thread.
+     *
+     * @param shardProcessor  The QueryProcessor of the shard.
+     * @param shard           The index of the shard.
+     * @param sharedThreshold The thresholds of all the shards processing the query, null if the shard is processed
+     *                        alone, as by a ShardServer.
+     * @return The scoring function of the shard.
+     */
+    public ScoreFunction forShard(QueryProcessor shardProcessor, int shard, SharedThreshold sharedThreshold) {
+        return new ScoreFunction(this, shardProcessor, shard, sharedThreshold);
+    }
 
-        this.scoreType = scoreType;
+    /**
+     * Returns the time limit of the query, checked by the cursors when they move to another block.
+     *
+     * @return The deadline of the query.
+     */
+    public Deadline getDeadline() {
+        return deadline;
     }
 
     /**
-     *  Method to calculate the score for a specific term and posting based on the selected scoring type
-     * @param term term to analyze
-     * @param posting posting of this specified term
-     * @param scoreType type of scoring selected
-     * @return the score computed
+     * Returns the threshold used by the dynamic pruning processors to discard documents and blocks: the score of the
+     * k-th document multiplied by the pruning factor. With a factor of 1 the top-k documents are exact; a greater
+     * factor overestimates the threshold, skipping more postings at the cost of missing some of the top-k documents.
+     * Whether a document enters the heap is still decided by the real score of the k-th document.
+     * On a shard the score of the k-th document is published to the other shards, and the threshold is the highest
+     * between it and the ones published by the other shards.
+     *
+     * @param scores The heap of the top-k documents found so far.
+     * @return The threshold of the pruning decisions, 0 until canPrune is true.
      */
-    public double computeScore(String term,Posting posting, String scoreType) {
+    public double pruningThreshold(TopKHeap scores) {
+        double threshold = scores.getThreshold();
+        if (sharedThreshold != null) {
+            if (threshold > publishedThreshold) {
+                sharedThreshold.publish(shard, threshold);
+                publishedThreshold = threshold;
+            }
+            threshold = Math.max(threshold, sharedThreshold.get(shard));
+        }
+        return threshold * pruningFactor;
+    }
 
-        double result= 0;
+    /**
+     * Checks whether the documents can be pruned: once the heap is full, or on a shard once another shard has
+     * filled its heap. Until then every document enters the heap.
+     *
+     * @param scores The heap of the top-k documents found so far.
+     * @return True if the documents that cannot beat the pruning threshold can be discarded.
+     */
+    public boolean canPrune(TopKHeap scores) {
+        return scores.isFull() || (sharedThreshold != null && sharedThreshold.get(shard) > 0);
+    }
 
+    public double getPruningFactor() {
+        return pruningFactor;
+    }
 
-        // Calculate the score based on the BM25 scoring function
+    /**
+     * Returns the index of a query term, used to score its postings.
+     *
+     * @param term The query term.
+     * @return The index of the term.
+     */
+    public int termIndex(String term) {
+        return termIndexes.get(term);
+    }
+
+    /**
+     * Computes the score of a posting. For BM25 the idf is multiplied by tf / (norm + tf), where norm is the length
+     * normalization K1 * ((1 - B) + B * dl / avdl) of the document; for TFIDF by 1 + log(tf).
+     *
+     * @param termIndex     The index of the term of the posting.
+     * @param termFrequency The frequency of the term in the document.
+     * @param docId         The docId of the posting.
+     * @return The score of the posting.
+     */
+    public double score(int termIndex, int termFrequency, int docId) {
+        if (bm25) {
+            return termFrequency * idf[termIndex] / (documentNorms[docId - firstDocId] + termFrequency);
+        }
+        return (1 + Math.log(termFrequency)) * idf[termIndex];
+    }
+
+    /**
+     * Computes the BM25 score of the postings of a segment of an impact-ordered posting list, whose quantized impact
+     * approximates the BM25 score without the idf.
+     *
+     * @param termIndex The index of the term of the posting list.
+     * @param impact    The quantized impact of the segment, in [1, IMPACT_LEVELS].
+     * @return The score of the postings of the segment.
+     */
+    public double impactScore(int termIndex, int impact) {
+        return idf[termIndex] * impact / IMPACT_LEVELS;
+    }
+
+    /**
+     * Computes an upper bound of the score of a term over its posting list. For BM25 the maximum score without the
+     * idf stored in the lexicon is multiplied by the idf, for TFIDF the score of the maximum term frequency is used.
+     *
+     * @param term      The query term.
+     * @param scoreType The type of scoring selected.
+     * @return The upper bound, 0 if the term is not in the lexicon.
+     */
+    public double upperBound(String term, String scoreType) {
+        return upperBound(term, queryProcessor.getTerm(term), scoreType);
+    }
+
+    /**
+     * Computes an upper bound of the score of a term over a posting list described by the given lexicon information,
+     * such as the part of the posting list stored in a tier of the tiered index. The idf is still that of the whole
+     * posting list.
+     *
+     * @param term      The query term.
+     * @param termInfo  The lexicon information of the posting list.
+     * @param scoreType The type of scoring selected.
+     * @return The upper bound, 0 if the posting list is empty.
+     */
+    public double upperBound(String term, Term termInfo, String scoreType) {
+        if (termInfo.getPostingListLength() == 0) return 0;
+
+        double upperBound = 0;
         if (scoreType.equals("bm25")) {
+            upperBound = termInfo.getUpperBound() * idf[termIndex(term)];
+        }
+        else if (scoreType.equals("tfidf")) {
+            upperBound = (1 + Math.log(termInfo.getMaxTermFreq())) * idf[termIndex(term)];
+        }
+        return upperBound * (1 + UPPER_BOUND_MARGIN);
+    }
 
-            double tf = posting.getTermFrequency();
-            double denominator = K1 * ((1 - B) + B * ((double) docInfo.get(posting.getDocID()).getDocLen() / avgDocumentLength)) + tf;
-            double idf = this.idf.get(term);
+    /**
+     * Computes an upper bound of the score of a term over a block of its posting list, from the maximum scores of
+     * the block stored with its skip information.
+     *
+     * @param term       The query term.
+     * @param skipBlocks The skip information of the term's posting list.
+     * @param block      The index of the block, -1 if the posting list has no more postings.
+     * @param scoreType  The type of scoring selected.
+     * @return The upper bound of the block.
+     */
+    public double blockUpperBound(String term, SkipBlocks skipBlocks, int block, String scoreType) {
+        if (block == -1) return 0;
 
-            result = (tf * idf) / denominator;
+        double upperBound = 0;
+        if (scoreType.equals("bm25")) {
+            upperBound = (double) skipBlocks.getMaxTermFrequencyPart(block) / BLOCK_MAX_SCALE * idf[termIndex(term)];
         }
-        // Calculate the score based on the TF-IDF scoring function
         else if (scoreType.equals("tfidf")) {
-            double tf = 1 + Math.log(posting.getTermFrequency());
-            double idf = this.idf.get(term);
-            result = tf * idf;
+            upperBound = (1 + Math.log(skipBlocks.getMaxTermFreq(block))) * idf[termIndex(term)];
         }
-        // Default case returns a score of 1 if the scoring type is not recognized
-        return result;
+        return upperBound * (1 + UPPER_BOUND_MARGIN);
     }
 }
-
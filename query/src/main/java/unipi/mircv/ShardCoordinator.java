@@ -0,0 +1,85 @@
+package unipi.mircv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ShardCoordinator processes a query on all the shards of the sharded index at the same time and merges their
+ * top-k documents. Each shard runs the chosen document processor on its own posting lists with a copy of the scoring
+ * function, which keeps the idf of the whole collection, so the scores are those of the main index; the shards prune
+ * each other through a SharedThreshold. The shards are ranges of consecutive docIds, so the merged top-k is the same
+ * as the one of the main index.
+ * A shard not yet started by the shard threads, which may be busy with other queries, is processed by the thread of
+ * the query itself.
+ */
+public class ShardCoordinator {
+
+    // Document processors that can run on the shards: the others need indexes that are not sharded
+    public static final List<String> SHARDED_PROCESSORS = List.of("daat", "maxscore", "wand", "bmw", "bmm", "svs", "auto");
+
+    /**
+     * The processing of a query on a shard.
+     */
+    public interface ShardQuery {
+        /**
+         * Scores the documents of a shard.
+         *
+         * @param shard         The QueryProcessor of the shard.
+         * @param scoreFunction The scoring function of the shard.
+         * @return Heap containing the top K scored documents of the shard
+         */
+        TopKHeap process(QueryProcessor shard, ScoreFunction scoreFunction);
+    }
+
+    QueryProcessor queryProcessor; // Processor of the main index, whose shards are open
+
+    /**
+     * Constructs a ShardCoordinator over the shards of the given index, which must be open.
+     *
+     * @param queryProcessor Processor of the main index
+     */
+    public ShardCoordinator(QueryProcessor queryProcessor){
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Processes a query on all the shards and merges their top-k documents.
+     *
+     * @param scoreFunction Scoring function of the query on the main index
+     * @param k             Number of top documents to retrieve
+     * @param query         The processing of the query on a shard
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(ScoreFunction scoreFunction, int k, ShardQuery query){
+        QueryProcessor[] shards = queryProcessor.shards;
+        SharedThreshold sharedThreshold = new SharedThreshold(shards.length);
+
+        ArrayList<Prefetch<TopKHeap>> pending = new ArrayList<>(shards.length);
+        for(int shard = 1; shard < shards.length; shard++){
+            QueryProcessor shardProcessor = shards[shard];
+            ScoreFunction shardScoreFunction = scoreFunction.forShard(shardProcessor, shard, sharedThreshold);
+            pending.add(new Prefetch<>(queryProcessor.shardPool, () -> query.process(shardProcessor, shardScoreFunction)));
+        }
+
+        // The first shard is processed by this thread, then the shards not yet started by the shard threads
+        TopKHeap[] results = new TopKHeap[shards.length];
+        results[0] = query.process(shards[0], scoreFunction.forShard(shards[0], 0, sharedThreshold));
+        for(int shard = 1; shard < shards.length; shard++){
+            if(pending.get(shard - 1).takeBack())
+                results[shard] = query.process(shards[shard], scoreFunction.forShard(shards[shard], shard, sharedThreshold));
+        }
+        for(int shard = 1; shard < shards.length; shard++){
+            if(results[shard] == null)
+                results[shard] = pending.get(shard - 1).await();
+        }
+
+        // A document enters the heap only if it beats the k-th one, so the ties are kept by the lower shards
+        TopKHeap scores = new TopKHeap(k);
+        for(TopKHeap shardScores : results){
+            for(DocsRanked doc : shardScores.getSortedResults()){
+                if(!scores.add(doc.getKey(), doc.getValue())) break;
+            }
+        }
+        return scores;
+    }
+}
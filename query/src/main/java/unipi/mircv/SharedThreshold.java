@@ -0,0 +1,56 @@
+package unipi.mircv;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The thresholds of a query processed on all the shards of the sharded index at the same time, through which the
+ * shards prune each other: every shard publishes the score of its k-th document as soon as its heap is full, and a
+ * document of any shard that cannot beat the k documents of another shard cannot be in the merged top-k.
+ * The shards are ranges of consecutive docIds and the merged ranking breaks the ties by docId, so a document ties
+ * with the k-th document of a lower shard losing and with the k-th document of a higher shard winning: the threshold
+ * of a higher shard is lowered to the previous double, so that a document with the same score is not discarded.
+ * The thresholds only grow, and each one is written by a single shard and read by the others without locks.
+ */
+public class SharedThreshold {
+
+    private final AtomicLongArray thresholds; // bits of the threshold published by each shard
+
+    /**
+     * Creates the thresholds of a query, all 0.
+     *
+     * @param shards The number of shards.
+     */
+    public SharedThreshold(int shards) {
+        this.thresholds = new AtomicLongArray(shards);
+    }
+
+    /**
+     * Publishes the threshold of a shard, if it is greater than the one already published.
+     *
+     * @param shard     The index of the shard.
+     * @param threshold The score of the k-th document of the shard.
+     */
+    public void publish(int shard, double threshold) {
+        if (threshold > Double.longBitsToDouble(thresholds.get(shard))) {
+            thresholds.set(shard, Double.doubleToLongBits(threshold));
+        }
+    }
+
+    /**
+     * Returns the threshold that a document of a shard must exceed to enter the merged top-k, according to the
+     * documents found by the other shards.
+     *
+     * @param shard The index of the shard.
+     * @return The threshold, 0 until another shard has filled its heap.
+     */
+    public double get(int shard) {
+        double threshold = 0;
+        for (int other = 0; other < thresholds.length(); other++) {
+            if (other == shard) continue;
+            double otherThreshold = Double.longBitsToDouble(thresholds.get(other));
+            if (other > shard && otherThreshold > 0) otherThreshold = Math.nextDown(otherThreshold);
+            threshold = Math.max(threshold, otherThreshold);
+        }
+        return threshold;
+    }
+}
@@ -0,0 +1,71 @@
+package unipi.mircv;
+
+
+/**
+ * The SingleTerm class processes the queries made of a single distinct term, conjunctive or disjunctive alike: the
+ * score of a document is the score of its only posting, multiplied by the occurrences of the term in the query. Once
+ * the heap is full, the blocks whose maximum score, stored with the skip information, cannot beat the score of the
+ * k-th document are skipped without being decoded, and the scan stops when the upper bound of the whole posting list
+ * cannot beat it.
+ */
+public class SingleTerm {
+
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+
+    /**
+     * Constructs a SingleTerm instance with the specified query processor.
+     *
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public SingleTerm(QueryProcessor queryProcessor){
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Scores the documents of the posting list of the only distinct query term.
+     *
+     * @param queryTerms    Array of query terms, all equal
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
+        String term = queryTerms[0];
+        int occurrences = queryTerms.length;
+
+        // The blocks are not read in advance, since they may be skipped
+        PLI termIterator = new PLI(term, scoreFunction, queryProcessor, encodingType, false);
+        boolean skipBlocks = termIterator.getPostingListLength() > queryProcessor.BlockLenght;
+        double upperBound = occurrences * scoreFunction.upperBound(term, scoreType);
+        int currentBlock = -2;
+        double blockUpperBound = upperBound;
+
+        while(!termIterator.isFinished(encodingType)){
+            int docId = termIterator.docid();
+            if(skipBlocks && scoreFunction.canPrune(scores)){
+                double threshold = scoreFunction.pruningThreshold(scores);
+                if(upperBound <= threshold) break; // No other document can enter the top-k
+
+                // Skip the rest of the block if its maximum score cannot beat the k-th document
+                int block = termIterator.shallowBlock(docId);
+                if(block != currentBlock){
+                    currentBlock = block;
+                    blockUpperBound = Math.min(upperBound, occurrences
+                            * scoreFunction.blockUpperBound(term, termIterator.getSkipBlocks(), block, scoreType));
+                }
+                if(blockUpperBound <= threshold){
+                    int lastDocId = termIterator.getSkipBlocks().getLastDocId(block);
+                    if(lastDocId == Integer.MAX_VALUE) break;
+                    termIterator.nextGEQ(lastDocId + 1, encodingType);
+                    continue;
+                }
+            }
+            scores.add(docId, occurrences * termIterator.score());
+            termIterator.next();
+        }
+        return scores; //Return the top K scores
+    }
+}
@@ -0,0 +1,99 @@
+package unipi.mircv;
+
+/**
+ * Holds the skip information of a single posting list in main memory: for every block of the posting list
+ * the last docId of the block, the offsets of the block in the docIds and freq files, and the maximum scores of the
+ * postings of the block, used by the block-max processors to skip blocks without decoding them.
+ */
+public class SkipBlocks {
+
+    private final int[] lastDocIds; // last docId of each block
+    private final int[] docIdOffsets; // offset of each block in the docIds file
+    private final int[] freqOffsets; // offset of each block in the freq file
+    private final int[] maxTermFrequencyParts; // maximum BM25 score without the idf of each block, times BLOCK_MAX_SCALE
+    private final int[] maxTermFreqs; // maximum term frequency of each block
+
+    /**
+     * Constructs the skip information of a posting list.
+     *
+     * @param lastDocIds   The last docId of each block.
+     * @param docIdOffsets The offset of each block in the docIds file.
+     * @param freqOffsets  The offset of each block in the freq file.
+     * @param maxTermFrequencyParts The quantized maximum BM25 score without the idf of each block.
+     * @param maxTermFreqs The maximum term frequency of each block.
+     */
+    public SkipBlocks(int[] lastDocIds, int[] docIdOffsets, int[] freqOffsets, int[] maxTermFrequencyParts, int[] maxTermFreqs) {
+        this.lastDocIds = lastDocIds;
+        this.docIdOffsets = docIdOffsets;
+        this.freqOffsets = freqOffsets;
+        this.maxTermFrequencyParts = maxTermFrequencyParts;
+        this.maxTermFreqs = maxTermFreqs;
+    }
+
+    /**
+     * Finds, with a binary search, the first block containing a posting with a docId greater or equal to the argument.
+     *
+     * @param docId The docId to search for.
+     * @return The index of the block, or -1 if no posting with a docId greater or equal to the argument exists.
+     */
+    public int findBlock(int docId) {
+        return findBlock(docId, 0);
+    }
+
+    /**
+     * Finds the first block, starting from a given one, containing a posting with a docId greater or equal to the
+     * argument. Since cursors only move forward, a galloping search from the current block is used: the distance
+     * from the starting block is doubled until the target is passed, then a binary search is performed in the last
+     * interval.
+     *
+     * @param docId The docId to search for.
+     * @param from  The block from which the search starts.
+     * @return The index of the block, or -1 if no posting with a docId greater or equal to the argument exists.
+     */
+    public int findBlock(int docId, int from) {
+        int numBlocks = lastDocIds.length;
+        if (from >= numBlocks || lastDocIds[numBlocks - 1] < docId) return -1;
+        if (lastDocIds[from] >= docId) return from;
+
+        // Galloping phase: lastDocIds[low] < docId always holds
+        int low = from;
+        int step = 1;
+        while (low + step < numBlocks && lastDocIds[low + step] < docId) {
+            low += step;
+            step *= 2;
+        }
+        int high = Math.min(low + step, numBlocks - 1);
+
+        // Binary search phase in (low, high]
+        while (low + 1 < high) {
+            int middle = (low + high) >>> 1;
+            if (lastDocIds[middle] < docId) low = middle;
+            else high = middle;
+        }
+        return high;
+    }
+
+    public int getNumBlocks() {
+        return lastDocIds.length;
+    }
+
+    public int getLastDocId(int block) {
+        return lastDocIds[block];
+    }
+
+    public int getDocIdOffset(int block) {
+        return docIdOffsets[block];
+    }
+
+    public int getFreqOffset(int block) {
+        return freqOffsets[block];
+    }
+
+    public int getMaxTermFrequencyPart(int block) {
+        return maxTermFrequencyParts[block];
+    }
+
+    public int getMaxTermFreq(int block) {
+        return maxTermFreqs[block];
+    }
+}
@@ -0,0 +1,72 @@
+package unipi.mircv;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An LRU cache of the skip information of the posting lists. The skip information of a term is read from disk
+ * the first time it is requested and kept in memory until the total number of cached blocks exceeds the capacity,
+ * then the least recently used terms are evicted.
+ * The cache is shared by all the queries, so its accesses are synchronized; the skip information is read from disk
+ * outside the lock.
+ */
+public class SkipCache {
+
+    private final LinkedHashMap<String, SkipBlocks> cache; // access ordered map between a term and its skip information
+    private final QueryProcessor queryProcessor; // used to read the skip information from disk
+    private final int maxBlocks; // maximum number of blocks kept in memory
+    private int cachedBlocks; // number of blocks currently in memory
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param queryProcessor The QueryProcessor used to read the skip information from disk.
+     * @param maxBlocks      The maximum number of blocks kept in memory.
+     */
+    public SkipCache(QueryProcessor queryProcessor, int maxBlocks) {
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        this.queryProcessor = queryProcessor;
+        this.maxBlocks = maxBlocks;
+        this.cachedBlocks = 0;
+    }
+
+    /**
+     * Returns the skip information of a term, reading it from disk if it is not already in memory.
+     *
+     * @param term The term of the posting list.
+     * @return The skip information of the posting list.
+     */
+    public SkipBlocks get(String term) {
+        synchronized (this) {
+            SkipBlocks skipBlocks = cache.get(term);
+            if (skipBlocks != null) return skipBlocks;
+        }
+        SkipBlocks skipBlocks = queryProcessor.loadSkipBlocks(term);
+        synchronized (this) {
+            // Another query could have loaded the same term in the meantime
+            if (cache.put(term, skipBlocks) == null) {
+                cachedBlocks += skipBlocks.getNumBlocks();
+                evict();
+            }
+        }
+        return skipBlocks;
+    }
+
+    // Remove the least recently used terms until the cache is within its capacity, always keeping the last one.
+    private void evict() {
+        Iterator<Map.Entry<String, SkipBlocks>> iterator = cache.entrySet().iterator();
+        while (cachedBlocks > maxBlocks && cache.size() > 1) {
+            cachedBlocks -= iterator.next().getValue().getNumBlocks();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all the terms from the cache.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        cachedBlocks = 0;
+    }
+}
@@ -0,0 +1,95 @@
+package unipi.mircv;
+
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * The SvS class implements the set-versus-set intersection of conjunctive queries. The posting lists are sorted by
+ * increasing length, as given by the lexicon: the docIds of the shortest one are the initial candidates, and each
+ * following list in turn keeps only the candidates it contains, adding its score to them. Every list is searched with
+ * nextGEQ, which jumps across the blocks with the skip information and gallops inside the decoded block, so a long
+ * list is read only in the blocks that may contain a candidate.
+ * Disjunctive queries are processed as in DAAT.
+ */
+public class SvS {
+
+    String queryType; // conjunctive or disjunctive
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+
+    /**
+     * Constructs a SvS instance with the specified query type and query processor.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive)
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public SvS(String queryType, QueryProcessor queryProcessor){
+        this.queryType = queryType;
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Scores documents based on the given query terms, intersecting the posting lists from the shortest one.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        if(!queryType.equals("conjunctive")){
+            return new DAAT(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+        }
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
+        processConjunctive(scores, queryProcessor.intersectionCache.cursors(queryTerms, scoreFunction, encodingType), encodingType, scoreType);
+        return scores;
+    }
+
+    /**
+     * Processes a conjunctive query one posting list at a time, from the shortest one, keeping the candidate documents
+     * and their partial scores in two arrays.
+     *
+     * @param scores       Heap to store the top K scored documents
+     * @param Iterators    List of posting list iterators, one for each query term or cached intersection
+     * @param encodingType Encoding type for processing postings
+     * @param scoreType    Type of score to calculate
+     */
+    public void processConjunctive(TopKHeap scores, ArrayList<PLI> Iterators, String encodingType, String scoreType){
+        ArrayList<PLI> sortedIterators = new ArrayList<>(Iterators);
+        sortedIterators.sort(Comparator.comparingInt(PLI::getPostingListLength));
+
+        // The candidates are the documents of the shortest posting list
+        PLI shortest = sortedIterators.get(0);
+        int[] candidates = new int[shortest.getPostingListLength()];
+        double[] candidateScores = new double[candidates.length];
+        int n = 0;
+        while(!shortest.isFinished(encodingType)){
+            candidates[n] = shortest.docid();
+            candidateScores[n] = shortest.score();
+            n++;
+            shortest.next();
+        }
+
+        // Keep the candidates contained in each following posting list, compacting the arrays in place
+        for(int i = 1; i < sortedIterators.size() && n > 0; i++){
+            PLI termIterator = sortedIterators.get(i);
+            int kept = 0;
+            for(int j = 0; j < n; j++){
+                termIterator.nextGEQ(candidates[j], encodingType);
+                if(termIterator.isFinished(encodingType)) break; // No other candidate can be in the posting list
+                if(termIterator.docid() == candidates[j]){
+                    candidates[kept] = candidates[j];
+                    candidateScores[kept] = candidateScores[j] + termIterator.score();
+                    kept++;
+                }
+            }
+            n = kept;
+        }
+
+        for(int j = 0; j < n; j++){
+            scores.add(candidates[j], candidateScores[j]);
+        }
+    }
+}
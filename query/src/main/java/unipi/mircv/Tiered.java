@@ -0,0 +1,231 @@
+package unipi.mircv;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The Tiered class processes the disjunctive queries over the tiered index written by the merger, where tier 1 keeps
+ * the postings with the highest scores of every posting list and tier 2 the others.
+ * The union of the tier-1 posting lists gives the candidate documents with a partial score; the k candidates with the
+ * highest partial scores are selected and their exact scores are completed with the tier-2 postings. The answer is
+ * safe, and equal to that of DAAT on the whole index, if the k-th exact score is strictly greater than both the best
+ * score of a document found only in tier 2, the sum of the tier-2 upper bounds of the query terms, and the best score
+ * of every other candidate, its partial score plus the tier-2 upper bounds of the terms it has not matched in tier 1.
+ * The candidates matched in tier 1 by all the query terms have an exact partial score and compete for the top-k too.
+ * Otherwise the query falls back to Block-Max WAND on the whole index.
+ * Conjunctive queries, queries with more than 64 terms and queries on an index without the tiered layout are processed
+ * by Block-Max WAND on the whole index.
+ */
+public class Tiered {
+
+    String queryType; // conjunctive or disjunctive
+    QueryProcessor queryProcessor; // Processor of the whole index, with the tiers
+    private boolean fellBack; // true if the last query was not answered by the tiered index
+
+    /**
+     * Constructs a Tiered instance with the specified query type and query processor.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive)
+     * @param queryProcessor Processor for handling queries and lexicon information of the whole index
+     */
+    public Tiered(String queryType, QueryProcessor queryProcessor){
+        this.queryType = queryType;
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Scores documents based on the given query terms, with the tier-1 postings first.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25), on the statistics of the whole index
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        fellBack = true;
+        if(queryType.equals("conjunctive") || queryTerms.length > Long.SIZE || !queryProcessor.openTiers()){
+            return fallBack(queryTerms, scoreFunction, k, encodingType, scoreType);
+        }
+        QueryProcessor tierOne = queryProcessor.tierOne;
+        QueryProcessor tierTwo = queryProcessor.tierTwo;
+        int n = queryTerms.length;
+
+        // Best score of a document in the tier-2 posting list of each term
+        double[] tierTwoUpperBounds = new double[n];
+        double sumTierTwoUpperBounds = 0;
+        long tierTwoPostings = 0;
+        for(int i = 0; i < n; i++){
+            Term termInfo = tierTwo.getTerm(queryTerms[i]);
+            tierTwoUpperBounds[i] = scoreFunction.upperBound(queryTerms[i], termInfo, scoreType);
+            sumTierTwoUpperBounds += tierTwoUpperBounds[i];
+            tierTwoPostings += termInfo.getPostingListLength();
+        }
+
+        // Union of the tier-1 posting lists: for every candidate its docId, its partial score and the terms matched
+        ArrayList<PLI> Iterators = tierOne.openCursors(queryTerms, scoreFunction, encodingType);
+        int[] docIds = new int[1024];
+        double[] partialScores = new double[1024];
+        long[] matchedTerms = new long[1024];
+        int candidates = 0;
+        while(true){
+            int minDocId = Integer.MAX_VALUE;
+            for(PLI termIterator : Iterators){
+                if(!termIterator.isFinished(encodingType)) minDocId = Math.min(minDocId, termIterator.docid());
+            }
+            if(minDocId == Integer.MAX_VALUE) break;
+
+            double score = 0;
+            long matched = 0;
+            for(int i = 0; i < n; i++){
+                PLI termIterator = Iterators.get(i);
+                if(!termIterator.isFinished(encodingType) && termIterator.docid() == minDocId){
+                    score += termIterator.score();
+                    matched |= 1L << i;
+                    termIterator.next();
+                }
+            }
+            if(candidates == docIds.length){
+                docIds = Arrays.copyOf(docIds, 2 * candidates);
+                partialScores = Arrays.copyOf(partialScores, 2 * candidates);
+                matchedTerms = Arrays.copyOf(matchedTerms, 2 * candidates);
+            }
+            docIds[candidates] = minDocId;
+            partialScores[candidates] = score;
+            matchedTerms[candidates] = matched;
+            candidates++;
+        }
+        if(scoreFunction.getDeadline().isExpired()){
+            // No time left to complete the scores: rank the candidates by their partial scores
+            fellBack = false;
+            TopKHeap scores = new TopKHeap(k);
+            for(int c = 0; c < candidates; c++){
+                scores.add(docIds[c], partialScores[c]);
+            }
+            return scores;
+        }
+
+        // The partial score of a candidate matched in tier 1 by all the query terms is already its exact score; the
+        // other candidates are bounded by their partial score plus the tier-2 upper bounds of the terms not matched
+        long allTerms = n == Long.SIZE ? -1L : (1L << n) - 1;
+        double[] upperBounds = new double[candidates];
+        TopKHeap scores = new TopKHeap(k);
+        TopKHeap selection = new TopKHeap(k);
+        for(int c = 0; c < candidates; c++){
+            if(matchedTerms[c] == allTerms){
+                scores.add(docIds[c], partialScores[c]);
+                continue;
+            }
+            upperBounds[c] = partialScores[c];
+            for(int i = 0; i < n; i++){
+                if((matchedTerms[c] & (1L << i)) == 0) upperBounds[c] += tierTwoUpperBounds[i];
+            }
+            // The candidates are numbered by increasing docId, so the ties are broken as in the other processors
+            selection.add(c, upperBounds[c]);
+        }
+
+        // Complete first the k other candidates with the highest upper bounds, then all the candidates whose upper
+        // bound still reaches the k-th exact score. In the second round the upper bound of a candidate is tightened
+        // with the maximum scores of the tier-2 blocks that may contain it, read from the skip information
+        boolean[] completed = new boolean[candidates];
+        int[] selected = new int[selection.size()];
+        int s = 0;
+        for(DocsRanked candidate : selection.getSortedResults()){
+            selected[s++] = candidate.getKey();
+        }
+        complete(selected, s, queryTerms, docIds, matchedTerms, scoreFunction, encodingType, scores, completed);
+        SkipBlocks[] tierTwoSkipBlocks = new SkipBlocks[n];
+        int[] tierTwoBlocks = new int[n];
+        for(int i = 0; i < n; i++){
+            if(tierTwoUpperBounds[i] > 0) tierTwoSkipBlocks[i] = tierTwo.skipCache.get(queryTerms[i]);
+        }
+        boolean full = scoreFunction.canPrune(scores);
+        double threshold = scoreFunction.pruningThreshold(scores);
+        selected = new int[candidates];
+        s = 0;
+        for(int c = 0; c < candidates; c++){
+            if(matchedTerms[c] == allTerms || completed[c]) continue;
+            if(full){
+                if(upperBounds[c] < threshold) continue;
+                double upperBound = partialScores[c];
+                for(int i = 0; i < n; i++){
+                    if((matchedTerms[c] & (1L << i)) != 0 || tierTwoSkipBlocks[i] == null) continue;
+                    int block = tierTwoSkipBlocks[i].findBlock(docIds[c], tierTwoBlocks[i]);
+                    if(block == -1) continue;
+                    tierTwoBlocks[i] = block;
+                    upperBound += scoreFunction.blockUpperBound(queryTerms[i], tierTwoSkipBlocks[i], block, scoreType);
+                }
+                if(upperBound < threshold) continue;
+            }
+            selected[s++] = c;
+        }
+        complete(selected, s, queryTerms, docIds, matchedTerms, scoreFunction, encodingType, scores, completed);
+        if(scoreFunction.getDeadline().isExpired()){
+            fellBack = false;
+            return scores;
+        }
+
+        // Safe termination: every candidate is in the heap or below the k-th exact score, and so must be the
+        // documents found only in tier 2. With less than k candidates those documents would enter the top-k,
+        // whatever their score
+        boolean safe = scoreFunction.canPrune(scores) ? sumTierTwoUpperBounds < scoreFunction.pruningThreshold(scores) : tierTwoPostings == 0;
+        if(!safe){
+            return fallBack(queryTerms, scoreFunction, k, encodingType, scoreType);
+        }
+        fellBack = false;
+        return scores;
+    }
+
+    /**
+     * Computes the exact scores of some candidates with the tier-1 and tier-2 posting lists, summing the postings in
+     * the order of the query terms as DAAT does, and adds them to the heap.
+     *
+     * @param selected      The indexes of the candidates to complete, in the first count positions
+     * @param count         The number of candidates to complete
+     * @param queryTerms    Array of query terms
+     * @param docIds        The docIds of the candidates
+     * @param matchedTerms  For every candidate, the query terms matched in tier 1
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param encodingType  Encoding type for processing postings
+     * @param scores        Heap of the documents with an exact score
+     * @param completed     Flags of the completed candidates, updated
+     */
+    private void complete(int[] selected, int count, String[] queryTerms, int[] docIds, long[] matchedTerms,
+                          ScoreFunction scoreFunction, String encodingType, TopKHeap scores, boolean[] completed){
+        if(count == 0) return;
+        Arrays.sort(selected, 0, count);
+        ArrayList<PLI> tierOneIterators = queryProcessor.tierOne.openCursors(queryTerms, scoreFunction, encodingType, false);
+        ArrayList<PLI> tierTwoIterators = queryProcessor.tierTwo.openCursors(queryTerms, scoreFunction, encodingType, false);
+        for(int j = 0; j < count; j++){
+            int c = selected[j];
+            double score = 0;
+            for(int i = 0; i < queryTerms.length; i++){
+                PLI termIterator = (matchedTerms[c] & (1L << i)) != 0 ? tierOneIterators.get(i) : tierTwoIterators.get(i);
+                termIterator.nextGEQ(docIds[c], encodingType);
+                if(!termIterator.isFinished(encodingType) && termIterator.docid() == docIds[c]){
+                    score += termIterator.score();
+                }
+            }
+            scores.add(docIds[c], score);
+            completed[c] = true;
+        }
+    }
+
+    /**
+     * Returns whether the last query processed by this instance was answered on the whole index, because the tiered
+     * index could not be used or could not answer it safely.
+     *
+     * @return True if the query fell back to the whole index, false if it was answered by the tiered index.
+     */
+    public boolean fellBack(){
+        return fellBack;
+    }
+
+    // Processes the query on the whole index with Block-Max WAND.
+    private TopKHeap fallBack(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        fellBack = true;
+        return new BlockMaxWAND(queryType, queryProcessor).scoreDocuments(queryTerms, scoreFunction, k, encodingType, scoreType);
+    }
+}
@@ -0,0 +1,131 @@
+package unipi.mircv;
+
+import java.util.ArrayList;
+
+/**
+ * A bounded min-heap keeping the k documents with the highest scores, stored as two parallel arrays of docIds and
+ * scores so that no object is allocated for the candidate documents. When the heap is full a candidate is compared
+ * in O(1) with the score of the k-th document, the root of the heap, and enters only if its score is strictly greater.
+ * Among documents with the same score the one with the highest docId is evicted first, and the sorted results list
+ * them by increasing docId.
+ */
+public class TopKHeap {
+    private final int[] docIds;
+    private final double[] scores;
+    private int size;
+    private boolean approximate; // true if the query was stopped by its deadline before processing all the postings
+
+    /**
+     * Constructs an empty heap.
+     *
+     * @param k The number of documents to keep.
+     */
+    public TopKHeap(int k){
+        this.docIds = new int[k];
+        this.scores = new double[k];
+    }
+
+    /**
+     * Adds a document to the heap if it is among the top-k documents seen so far.
+     *
+     * @param docId The docId of the document.
+     * @param score The score of the document.
+     * @return True if the document entered the heap, false otherwise.
+     */
+    public boolean add(int docId, double score){
+        if(size < docIds.length){
+            // The heap is not full: insert at the end and move the document up
+            int i = size++;
+            while(i > 0){
+                int parent = (i - 1) >>> 1;
+                if(!lower(score, docId, scores[parent], docIds[parent])) break;
+                docIds[i] = docIds[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            docIds[i] = docId;
+            scores[i] = score;
+            return true;
+        }
+        if(size == 0 || score <= scores[0]) return false;
+
+        // Replace the k-th document and move the new one down
+        int i = 0;
+        while(true){
+            int child = 2 * i + 1;
+            if(child >= size) break;
+            if(child + 1 < size && lower(scores[child + 1], docIds[child + 1], scores[child], docIds[child])) child++;
+            if(!lower(scores[child], docIds[child], score, docId)) break;
+            docIds[i] = docIds[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docIds[i] = docId;
+        scores[i] = score;
+        return true;
+    }
+
+    // True if the first document ranks after the second one: lower score, or same score and higher docId
+    private static boolean lower(double score, int docId, double otherScore, int otherDocId){
+        return score < otherScore || (score == otherScore && docId > otherDocId);
+    }
+
+    /**
+     * Checks if the heap is full (contains k documents).
+     *
+     * @return true if the heap is full, false otherwise.
+     */
+    public boolean isFull(){
+        return size == docIds.length;
+    }
+
+    /**
+     * Returns the score that a document must exceed to enter the heap: the score of the k-th document when the heap
+     * is full, 0 otherwise.
+     *
+     * @return The threshold of the heap.
+     */
+    public double getThreshold(){
+        if(!isFull()) return 0;
+        return size == 0 ? Double.POSITIVE_INFINITY : scores[0];
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isApproximate(){
+        return approximate;
+    }
+
+    public void setApproximate(boolean approximate){
+        this.approximate = approximate;
+    }
+
+    /**
+     * Returns the documents of the heap sorted by decreasing score, and by increasing docId for the same score,
+     * without modifying the heap.
+     *
+     * @return The list of the ranked documents.
+     */
+    public ArrayList<DocsRanked> getSortedResults(){
+        ArrayList<DocsRanked> results = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            results.add(new DocsRanked(docIds[i], scores[i]));
+        }
+        results.sort((a, b) -> lower(a.getValue(), a.getKey(), b.getValue(), b.getKey()) ? 1
+                : lower(b.getValue(), b.getKey(), a.getValue(), a.getKey()) ? -1 : 0);
+        return results;
+    }
+
+    public void printResults(){
+        if (approximate) System.out.print("\n*** APPROXIMATE RESULTS: THE DEADLINE EXPIRED ***");
+        System.out.print("\nPOSITION DOCID SCORE");
+        System.out.print("\n--------------------------\n");
+        int i = 1;
+        for(DocsRanked doc : getSortedResults()){
+            System.out.print(i + ") " + doc + "\n");
+            i += 1;
+        }
+    }
+}
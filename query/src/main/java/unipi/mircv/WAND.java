@@ -0,0 +1,111 @@
+package unipi.mircv;
+
+
+import java.util.ArrayList;
+
+/**
+ * The WAND class implements the Weak AND dynamic pruning strategy over the Document-At-a-Time retrieval model.
+ * The posting lists are kept sorted by their current docId; the pivot is the first posting list at which the sum of
+ * the upper bounds of the terms exceeds the score of the k-th document, so every document before the pivot docId can
+ * be skipped with nextGEQ. The top-k documents are the same of the exhaustive DAAT processing.
+ * Conjunctive queries are processed as in DAAT.
+ */
+public class WAND {
+
+    String queryType; // conjunctive or disjunctive
+    QueryProcessor queryProcessor; // Processor for handling queries and lexicon information
+
+    /**
+     * Constructs a WAND instance with the specified query type and query processor.
+     *
+     * @param queryType      Type of the query (conjunctive or disjunctive)
+     * @param queryProcessor Processor for handling queries and lexicon information
+     */
+    public WAND(String queryType, QueryProcessor queryProcessor){
+        this.queryType = queryType;
+        this.queryProcessor = queryProcessor;
+    }
+
+    /**
+     * Scores documents based on the given query terms, skipping the documents that cannot enter the top-k.
+     *
+     * @param queryTerms    Array of query terms
+     * @param scoreFunction Scoring function (TFIDF or BM25)
+     * @param k             Number of top documents to retrieve
+     * @param encodingType  Encoding type for processing postings
+     * @param scoreType     Type of score to calculate
+     * @return Heap containing the top K scored documents
+     */
+    public TopKHeap scoreDocuments(String[] queryTerms, ScoreFunction scoreFunction, int k, String encodingType, String scoreType){
+        TopKHeap scores = new TopKHeap(k); //Initialize a new top-k heap with a capacity of k
+
+        // A conjunctive query has no pivot to look for, since every posting list must contain the document: it is
+        // processed as in DAAT
+        if(queryType.equals("conjunctive")){
+            new DAAT(queryType, queryProcessor).processConjunctive(scores,
+                    queryProcessor.intersectionCache.cursors(queryTerms, scoreFunction, encodingType), encodingType, scoreType);
+            return scores;
+        }
+
+        // One posting list for each query term, as in DAAT, with its upper bound
+        ArrayList<PLI> Iterators = queryProcessor.openCursors(queryTerms, scoreFunction, encodingType);
+        int n = queryTerms.length;
+        double[] upperBounds = new double[n];
+        int[] currentDocIds = new int[n];
+        int[] order = new int[n]; // indexes of the posting lists sorted by current docId
+        for(int i = 0; i < n; i++){
+            upperBounds[i] = scoreFunction.upperBound(queryTerms[i], scoreType);
+            currentDocIds[i] = Iterators.get(i).currentDocId(encodingType);
+            order[i] = i;
+        }
+        PLI.sortByDocId(order, currentDocIds);
+
+        while(true){
+            // Until the documents can be pruned every document can enter the heap; then a document enters only if its score is
+            // strictly greater than the score of the k-th document
+            boolean full = scoreFunction.canPrune(scores);
+            double threshold = scoreFunction.pruningThreshold(scores);
+
+            // Find the pivot: the first posting list at which the sum of the upper bounds exceeds the threshold
+            int pivot = -1;
+            double sumUpperBounds = 0;
+            for(int i = 0; i < n && currentDocIds[order[i]] != Integer.MAX_VALUE; i++){
+                sumUpperBounds += upperBounds[order[i]];
+                if(!full || sumUpperBounds > threshold){
+                    pivot = i;
+                    break;
+                }
+            }
+            if(pivot == -1) break; // No other document can enter the top-k
+            int pivotDocId = currentDocIds[order[pivot]];
+
+            if(currentDocIds[order[0]] == pivotDocId){
+                // All the posting lists before the pivot are on the pivot document: score it, summing the terms in
+                // the order of the query as DAAT does
+                double score = 0.0;
+                for(int i = 0; i < n; i++){
+                    if(currentDocIds[i] == pivotDocId){
+                        PLI termIterator = Iterators.get(i);
+                        score += termIterator.score();
+                        termIterator.next();
+                        currentDocIds[i] = termIterator.currentDocId(encodingType);
+                    }
+                }
+                scores.add(pivotDocId, score);
+                PLI.sortByDocId(order, currentDocIds);
+            }
+            else{
+                // Skip to the pivot document the posting list behind it with the highest upper bound
+                int toMove = 0;
+                for(int i = 1; i < pivot && currentDocIds[order[i]] < pivotDocId; i++){
+                    if(upperBounds[order[i]] > upperBounds[order[toMove]]) toMove = i;
+                }
+                int termIndex = order[toMove];
+                Iterators.get(termIndex).nextGEQ(pivotDocId, encodingType);
+                currentDocIds[termIndex] = Iterators.get(termIndex).currentDocId(encodingType);
+                PLI.sortByDocId(order, currentDocIds);
+            }
+        }
+        return scores; //Return the top K scores
+    }
+}
@@ -0,0 +1,41 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Checks that the exact document processors return the top-k of DAAT, with both scores and both query types.
+ */
+public class DocumentProcessorsTest {
+
+    private static MainQueries mainQueries;
+
+    @BeforeAll
+    public static void buildIndex() {
+        TestIndex.build();
+        mainQueries = new MainQueries(10, "bm25", "daat", "disjunctive", false, "bytes");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "maxscore, disjunctive", "maxscore, conjunctive",
+            "wand, disjunctive", "wand, conjunctive",
+            "bmw, disjunctive", "bmw, conjunctive",
+            "bmm, disjunctive", "bmm, conjunctive",
+            "svs, disjunctive", "svs, conjunctive",
+            "auto, disjunctive", "auto, conjunctive"
+    })
+    public void returnsTheTopKOfDAAT(String documentProcessor, String queryType) {
+        for (String scoreType : MainQueries.SCORE_TYPES) {
+            for (int k : new int[]{1, 10, 100}) {
+                for (String query : TestIndex.QUERIES) {
+                    String[] terms = TestIndex.terms(query);
+                    TopKHeap expected = mainQueries.computeScores(terms, k, scoreType, "daat", queryType, "bytes", Deadline.NONE, 1);
+                    TopKHeap actual = mainQueries.computeScores(terms, k, scoreType, documentProcessor, queryType, "bytes", Deadline.NONE, 1);
+                    TestIndex.assertSameTopK(expected, actual, documentProcessor + " " + queryType + " " + scoreType + " k=" + k + " \"" + query + "\"");
+                }
+            }
+        }
+    }
+}
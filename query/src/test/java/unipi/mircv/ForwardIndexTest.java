@@ -0,0 +1,57 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the forward index written during the indexing against the posting lists of the main index.
+ */
+public class ForwardIndexTest {
+
+    private static QueryProcessor queryProcessor;
+
+    @BeforeAll
+    public static void buildIndex() {
+        TestIndex.build();
+        queryProcessor = new QueryProcessor("bytes");
+    }
+
+    @Test
+    public void documentsHoldThePostingsOfTheirTerms() {
+        assertTrue(queryProcessor.openForwardIndex());
+        ForwardIndex forwardIndex = queryProcessor.forwardIndex;
+        assertEquals(TestIndex.DOCUMENTS, forwardIndex.getDocuments());
+
+        // The frequency of each term in each document, from the posting lists
+        HashMap<String, HashMap<Integer, Integer>> documentFreqs = new HashMap<>();
+        for (String term : queryProcessor.getLexicon().getLexicon().keySet()) {
+            int[][] postings = TestIndex.readPostings(queryProcessor, term);
+            for (int i = 0; i < postings[0].length; i++) {
+                documentFreqs.computeIfAbsent(term, t -> new HashMap<>()).put(postings[0][i], postings[1][i]);
+            }
+        }
+
+        int[] termIds = new int[TestIndex.VOCABULARY];
+        int[] freqs = new int[TestIndex.VOCABULARY];
+        int postings = 0;
+        for (int docId = 0; docId < TestIndex.DOCUMENTS; docId++) {
+            int n = forwardIndex.readDocument(docId, termIds, freqs);
+            assertTrue(n > 0, "Document " + docId + " has no terms");
+            int docLen = 0;
+            for (int i = 0; i < n; i++) {
+                assertTrue(i == 0 || termIds[i] > termIds[i - 1], "Terms of document " + docId + " not by increasing id");
+                String term = forwardIndex.getTerm(termIds[i]);
+                assertEquals(documentFreqs.get(term).get(docId), freqs[i], term + " in document " + docId);
+                docLen += freqs[i];
+            }
+            assertEquals(queryProcessor.getDocIndex().getDocIndex().get(docId).getDocLen(), docLen, "Length of document " + docId);
+            postings += n;
+        }
+        assertEquals(queryProcessor.getStatistics().getPostings(), postings);
+    }
+}
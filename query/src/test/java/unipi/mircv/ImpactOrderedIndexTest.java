@@ -0,0 +1,73 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the impact-ordered index written by the merger against the docId-ordered one, and the score-at-a-time
+ * processing on it.
+ */
+public class ImpactOrderedIndexTest {
+
+    private static QueryProcessor queryProcessor;
+
+    @BeforeAll
+    public static void buildIndex() {
+        TestIndex.build();
+        queryProcessor = new QueryProcessor("bytes");
+    }
+
+    @Test
+    public void segmentsHoldThePostingsByDecreasingImpact() {
+        assertTrue(queryProcessor.openImpactIndex());
+        Statistics statistics = queryProcessor.getStatistics();
+        for (String term : queryProcessor.getLexicon().getLexicon().keySet()) {
+            int[][] postings = TestIndex.readPostings(queryProcessor, term);
+            int[] segments = queryProcessor.readImpactSegments(term);
+            int[] docIds = new int[postings[0].length];
+            int read = 0;
+            for (int i = 0; i < segments.length; i += 3) {
+                int impact = segments[i];
+                int count = segments[i + 1];
+                assertTrue(i == 0 || impact < segments[i - 3], term + ": segments not by decreasing impact");
+                int[] docIdGaps = new int[count];
+                queryProcessor.readImpactDocIds(segments[i + 2], count, docIdGaps);
+                int docId = 0;
+                for (int j = 0; j < count; j++) {
+                    assertTrue(j == 0 || docIdGaps[j] > 0, term + ": docIds of a segment not increasing");
+                    docId += docIdGaps[j];
+                    int position = Arrays.binarySearch(postings[0], docId);
+                    assertTrue(position >= 0, term + ": docId " + docId + " not in the posting list");
+                    int docLen = queryProcessor.getDocIndex().getDocIndex().get(docId).getDocLen();
+                    assertEquals(Merger.quantizeImpact(Merger.bm25TermFrequencyPart(postings[1][position], docLen, statistics)),
+                            impact, term + ": wrong impact of docId " + docId);
+                    docIds[read++] = docId;
+                }
+            }
+            Arrays.sort(docIds);
+            assertArrayEquals(postings[0], docIds, term);
+        }
+    }
+
+    @Test
+    public void scoresEveryPostingWithinTheBudget() {
+        // With a budget covering every posting, SAAT ranks the documents by the sum of their quantized impacts, so it
+        // finds the same documents as DAAT unless some of them are too close to tell apart
+        MainQueries mainQueries = new MainQueries(10, "bm25", "saat", "disjunctive", false, "bytes");
+        for (String query : TestIndex.QUERIES) {
+            String[] terms = TestIndex.terms(query);
+            TopKHeap daat = mainQueries.computeScores(terms, 10, "bm25", "daat", "disjunctive", "bytes", Deadline.NONE, 1);
+            TopKHeap saat = mainQueries.computeScores(terms, 10, "bm25", "saat", "disjunctive", "bytes", Deadline.NONE, 1);
+            assertEquals(daat.size(), saat.size(), query);
+            double daatScore = daat.getSortedResults().get(0).getValue();
+            double saatScore = saat.getSortedResults().get(0).getValue();
+            assertEquals(daatScore, saatScore, 0.05 * daatScore, query);
+        }
+    }
+}
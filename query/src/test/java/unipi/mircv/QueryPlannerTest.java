@@ -0,0 +1,54 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the plans of the auto processor return the same top-k, in particular for the queries repeating a term,
+ * whose repeated term counts once for each occurrence in every plan.
+ */
+public class QueryPlannerTest {
+
+    private static final List<String> REPEATED_TERM_QUERIES = List.of("t12 t12", "t150 t150 t150", "t2 t2 t30",
+            "t5 t150 t150 t5 t5", "t0 t1 t0", "t3 t3 t70 t200 t200");
+
+    private static QueryProcessor queryProcessor;
+
+    @BeforeAll
+    public static void buildIndex() {
+        TestIndex.build();
+        queryProcessor = new QueryProcessor("bytes");
+    }
+
+    @Test
+    public void everyPlanReturnsTheSameTopK() {
+        QueryPlanner planner = new QueryPlanner(queryProcessor);
+        for (String scoreType : MainQueries.SCORE_TYPES) {
+            for (String queryType : MainQueries.QUERY_TYPES) {
+                for (String query : REPEATED_TERM_QUERIES) {
+                    String[] terms = TestIndex.terms(query);
+                    ScoreFunction scoreFunction = new ScoreFunction(terms, queryProcessor, scoreType);
+                    String message = queryType + " " + scoreType + " \"" + query + "\"";
+                    TopKHeap expected = new DAAT(queryType, queryProcessor).scoreDocuments(terms, scoreFunction, 10, "bytes", scoreType);
+
+                    QueryPlanner.Plan plan = planner.plan(terms, scoreFunction, queryType, scoreType);
+                    assertEquals(terms.length, plan.terms, message);
+                    TestIndex.assertSameTopK(expected, planner.execute(plan, terms, scoreFunction, 10, queryType, "bytes", scoreType), message + " " + plan.processor);
+
+                    // The other plans the planner could choose for the query
+                    if (plan.distinctTerms == 1) {
+                        TestIndex.assertSameTopK(expected, new SingleTerm(queryProcessor).scoreDocuments(terms, scoreFunction, 10, "bytes", scoreType), message + " single");
+                    }
+                    if (queryType.equals("conjunctive")) {
+                        TestIndex.assertSameTopK(expected, new SvS(queryType, queryProcessor).scoreDocuments(terms, scoreFunction, 10, "bytes", scoreType), message + " svs");
+                    }
+                    TestIndex.assertSameTopK(expected, new MaxScore(queryType, queryProcessor).scoreDocuments(terms, scoreFunction, 10, "bytes", scoreType), message + " maxscore");
+                }
+            }
+        }
+    }
+}
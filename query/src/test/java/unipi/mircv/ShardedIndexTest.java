@@ -0,0 +1,78 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static unipi.mircv.Parameters.SHARDS_INFO_PATH;
+
+/**
+ * Checks the shards of the sharded index written by the merger against the main index, and the processing of the
+ * queries on all the shards at the same time.
+ */
+public class ShardedIndexTest {
+
+    private static QueryProcessor queryProcessor;
+
+    @BeforeAll
+    public static void buildIndex() {
+        TestIndex.build();
+        queryProcessor = new QueryProcessor("bytes");
+    }
+
+    @Test
+    public void shardsSplitThePostingListsByDocId() {
+        assertTrue(queryProcessor.openShards());
+        assertEquals(TestIndex.SHARDS, queryProcessor.shards.length);
+        TextReader shardsInfoRead = new TextReader(SHARDS_INFO_PATH);
+        int shardLength = Integer.parseInt(shardsInfoRead.readLine().split(" ")[1]);
+        shardsInfoRead.close();
+        assertEquals((TestIndex.DOCUMENTS + TestIndex.SHARDS - 1) / TestIndex.SHARDS, shardLength);
+
+        for (String term : queryProcessor.getLexicon().getLexicon().keySet()) {
+            int[][] postings = TestIndex.readPostings(queryProcessor, term);
+            int[] docIds = new int[0];
+            int[] freqs = new int[0];
+            for (int shard = 0; shard < TestIndex.SHARDS; shard++) {
+                int[][] shardPostings = TestIndex.readPostings(queryProcessor.shards[shard], term);
+                for (int docId : shardPostings[0]) {
+                    assertTrue(docId >= shard * shardLength && docId < (shard + 1) * shardLength, term + ": docId " + docId + " in shard " + shard);
+                }
+                docIds = concat(docIds, shardPostings[0]);
+                freqs = concat(freqs, shardPostings[1]);
+            }
+            assertArrayEquals(postings[0], docIds, term);
+            assertArrayEquals(postings[1], freqs, term);
+        }
+    }
+
+    @Test
+    public void returnsTheTopKOfTheWholeIndex() {
+        MainQueries mainQueries = new MainQueries(10, "bm25", "daat", "disjunctive", false, "bytes");
+        for (String documentProcessor : ShardCoordinator.SHARDED_PROCESSORS) {
+            for (String scoreType : MainQueries.SCORE_TYPES) {
+                for (String queryType : MainQueries.QUERY_TYPES) {
+                    for (String query : TestIndex.QUERIES) {
+                        String[] terms = TestIndex.terms(query);
+                        mainQueries.sharded = false;
+                        TopKHeap expected = mainQueries.computeScores(terms, 10, scoreType, "daat", queryType, "bytes", Deadline.NONE, 1);
+                        mainQueries.sharded = true;
+                        TopKHeap actual = mainQueries.computeScores(terms, 10, scoreType, documentProcessor, queryType, "bytes", Deadline.NONE, 1);
+                        TestIndex.assertSameTopK(expected, actual, documentProcessor + " " + queryType + " " + scoreType + " \"" + query + "\"");
+                    }
+                }
+            }
+        }
+        assertTrue(mainQueries.queryProcessor.shards != null, "The queries were not processed on the shards");
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+package unipi.mircv;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The index shared by the tests, built once per run in their working directory from a synthetic collection, with all
+ * the optional indexes: impact-ordered, tiered, sharded and forward. The terms of the documents follow a skewed
+ * distribution, so that the posting lists range from a few postings to almost the whole collection, with several
+ * blocks and more postings than tier 1 keeps.
+ */
+public class TestIndex {
+
+    public static final int DOCUMENTS = 6000;
+    public static final int VOCABULARY = 400;
+    public static final int SHARDS = 3;
+
+    // Disjunctive and conjunctive queries of frequent and rare terms, some of them repeated
+    public static final List<String> QUERIES = queries();
+
+    // Difference between the scores of the same document summed in a different order
+    private static final double SCORE_DELTA = 1e-9;
+
+    private static boolean built;
+
+    /**
+     * Builds the index, unless it has already been built by this run.
+     */
+    public static synchronized void build() {
+        if (built) return;
+        delete(new File("D:/Output"));
+        for (String path : List.of(LEXICON_PATH, STATISTICS_PATH, SKIPPOINTERS_PATH, DOCID_PATH, FREQ_PATH, DOCINDEX_PATH)) {
+            new File(path).getParentFile().mkdirs();
+        }
+        writeCollection(COLLECTION_PATH);
+
+        MainIndexing index = new MainIndexing();
+        index.forwardIndex = true;
+        index.merger.impactOrderedIndex = true;
+        index.merger.tieredIndex = true;
+        index.merger.shards = SHARDS;
+        index.processCollection(COLLECTION_PATH, "bytes", false);
+        built = true;
+    }
+
+    /**
+     * Reads a whole posting list of an index.
+     *
+     * @param queryProcessor The processor of the index.
+     * @param term           The term of the posting list.
+     * @return The docIds and the frequencies of the postings.
+     */
+    public static int[][] readPostings(QueryProcessor queryProcessor, String term) {
+        int length = queryProcessor.getTerm(term).getPostingListLength();
+        int[][] postings = new int[2][length];
+        int[] docIds = new int[queryProcessor.BlockLenght];
+        int[] freqs = new int[queryProcessor.BlockLenght];
+        for (int block = 0, read = 0; read < length; block++) {
+            int n = queryProcessor.readBlock(term, block, docIds, freqs, "bytes");
+            System.arraycopy(docIds, 0, postings[0], read, n);
+            System.arraycopy(freqs, 0, postings[1], read, n);
+            read += n;
+        }
+        return postings;
+    }
+
+    /**
+     * Checks that two rankings are the same top-k: the same scores rank by rank, and the same documents except those
+     * tied with the last one, which may be left out of either ranking. Tied documents may be ordered differently, since
+     * their scores are summed in a different order.
+     *
+     * @param expected The reference ranking.
+     * @param actual   The ranking to check.
+     * @param message  The description of the ranking, in the failure message.
+     */
+    public static void assertSameTopK(TopKHeap expected, TopKHeap actual, String message) {
+        List<DocsRanked> expectedRanking = expected.getSortedResults();
+        List<DocsRanked> actualRanking = actual.getSortedResults();
+        assertEquals(expectedRanking.size(), actualRanking.size(), message);
+        if (expectedRanking.isEmpty()) return;
+        double last = expectedRanking.get(expectedRanking.size() - 1).getValue();
+        Set<Integer> expectedDocIds = new HashSet<>();
+        Set<Integer> actualDocIds = new HashSet<>();
+        for (int i = 0; i < expectedRanking.size(); i++) {
+            assertEquals(expectedRanking.get(i).getValue(), actualRanking.get(i).getValue(), SCORE_DELTA, message + ", rank " + i);
+            if (expectedRanking.get(i).getValue() > last + SCORE_DELTA) expectedDocIds.add(expectedRanking.get(i).getKey());
+            if (actualRanking.get(i).getValue() > last + SCORE_DELTA) actualDocIds.add(actualRanking.get(i).getKey());
+        }
+        assertEquals(expectedDocIds, actualDocIds, message);
+    }
+
+    /**
+     * Returns the query terms of a query, parsed as by MainQueries.
+     *
+     * @param query The query.
+     * @return The terms of the query.
+     */
+    public static String[] terms(String query) {
+        return Parser.processDocument(query, false).split(" ");
+    }
+
+    // Writes the collection as a tar archive of a single file, one document per line: docNo \t text
+    private static void writeCollection(String path) {
+        Random random = new Random(42);
+        StringBuilder collection = new StringBuilder();
+        for (int docNo = 0; docNo < DOCUMENTS; docNo++) {
+            collection.append(docNo).append('\t');
+            int length = 5 + random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                collection.append(i > 0 ? " " : "").append(term(random));
+            }
+            collection.append('\n');
+        }
+        byte[] content = collection.toString().getBytes(StandardCharsets.UTF_8);
+        try (TarArchiveOutputStream output = new TarArchiveOutputStream(new FileOutputStream(path))) {
+            TarArchiveEntry entry = new TarArchiveEntry("collection.tsv");
+            entry.setSize(content.length);
+            output.putArchiveEntry(entry);
+            output.write(content);
+            output.closeArchiveEntry();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Draws a term, the lower indexes being much more frequent
+    private static String term(Random random) {
+        return "t" + (int) (VOCABULARY * Math.pow(random.nextDouble(), 3));
+    }
+
+    private static List<String> queries() {
+        Random random = new Random(7);
+        List<String> queries = new ArrayList<>(List.of("t0 t1", "t2 t2 t30", "t5 t150 t150 t5 t5", "t12 t12", "t0 t399",
+                "t7 t8 t9 t10 t11 t12", "t3 t70 t200"));
+        for (int i = 0; i < 30; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = 2 + random.nextInt(4);
+            for (int j = 0; j < length; j++) {
+                // Half of the terms are drawn uniformly, to include the rare ones
+                query.append(j > 0 ? " " : "").append(random.nextBoolean() ? term(random) : "t" + random.nextInt(VOCABULARY));
+            }
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        assertTrue(!file.exists() || file.delete(), "Cannot delete " + file);
+    }
+}
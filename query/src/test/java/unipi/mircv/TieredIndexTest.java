@@ -0,0 +1,85 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static unipi.mircv.Parameters.TIER_ONE_POSTINGS;
+
+/**
+ * Checks the two tiers of the tiered index written by the merger against the main index, and the tiered processing
+ * on them.
+ */
+public class TieredIndexTest {
+
+    private static QueryProcessor queryProcessor;
+
+    @BeforeAll
+    public static void buildIndex() {
+        TestIndex.build();
+        queryProcessor = new QueryProcessor("bytes");
+    }
+
+    @Test
+    public void tierOneHoldsTheHighestScoringPostings() {
+        assertTrue(queryProcessor.openTiers());
+        int longLists = 0;
+        for (String term : queryProcessor.getLexicon().getLexicon().keySet()) {
+            int[][] postings = TestIndex.readPostings(queryProcessor, term);
+            int[][] tierOne = TestIndex.readPostings(queryProcessor.tierOne, term);
+            int[][] tierTwo = TestIndex.readPostings(queryProcessor.tierTwo, term);
+            assertEquals(Math.min(postings[0].length, TIER_ONE_POSTINGS), tierOne[0].length, term);
+            assertEquals(postings[0].length - tierOne[0].length, tierTwo[0].length, term);
+            if (tierTwo[0].length > 0) longLists++;
+
+            // Together the tiers hold the postings of the main index
+            int[] docIds = new int[postings[0].length];
+            int[] freqs = new int[postings[0].length];
+            for (int i = 0, j = 0, n = 0; n < docIds.length; n++) {
+                boolean fromTierOne = j == tierTwo[0].length || (i < tierOne[0].length && tierOne[0][i] < tierTwo[0][j]);
+                docIds[n] = fromTierOne ? tierOne[0][i] : tierTwo[0][j];
+                freqs[n] = fromTierOne ? tierOne[1][i++] : tierTwo[1][j++];
+            }
+            assertArrayEquals(postings[0], docIds, term);
+            assertArrayEquals(postings[1], freqs, term);
+
+            // No posting of tier 2 scores more than one of tier 1
+            double tierOneMin = Arrays.stream(frequencyParts(tierOne)).min().orElse(Double.MAX_VALUE);
+            double tierTwoMax = Arrays.stream(frequencyParts(tierTwo)).max().orElse(0);
+            assertTrue(tierTwoMax <= tierOneMin, term);
+        }
+        assertTrue(longLists > 0, "No posting list longer than tier 1");
+    }
+
+    @Test
+    public void returnsTheTopKOfDAAT() {
+        MainQueries mainQueries = new MainQueries(10, "bm25", "tiered", "disjunctive", false, "bytes");
+        for (String scoreType : MainQueries.SCORE_TYPES) {
+            for (String queryType : MainQueries.QUERY_TYPES) {
+                for (int k : new int[]{1, 10, 100}) {
+                    for (String query : TestIndex.QUERIES) {
+                        String[] terms = TestIndex.terms(query);
+                        TopKHeap expected = mainQueries.computeScores(terms, k, scoreType, "daat", queryType, "bytes", Deadline.NONE, 1);
+                        TopKHeap actual = mainQueries.computeScores(terms, k, scoreType, "tiered", queryType, "bytes", Deadline.NONE, 1);
+                        TestIndex.assertSameTopK(expected, actual, queryType + " " + scoreType + " k=" + k + " \"" + query + "\"");
+                    }
+                }
+            }
+        }
+        assertTrue(mainQueries.getTieredFallbacks() < mainQueries.getTieredQueries(), "Every query fell back to the whole index");
+    }
+
+    // BM25 scores without the idf of the postings
+    private static double[] frequencyParts(int[][] postings) {
+        double[] frequencyParts = new double[postings[0].length];
+        for (int i = 0; i < frequencyParts.length; i++) {
+            int docLen = queryProcessor.getDocIndex().getDocIndex().get(postings[0][i]).getDocLen();
+            frequencyParts[i] = Merger.bm25TermFrequencyPart(postings[1][i], docLen, queryProcessor.getStatistics());
+        }
+        return frequencyParts;
+    }
+}
@@ -0,0 +1,215 @@
+package unipi.mircv;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The MainServer class exposes the search engine as a long-running HTTP service on localhost. The index is loaded
+ * once and shared by all the requests, which are processed by a fixed number of worker threads; requests exceeding
+ * the capacity of the waiting queue are rejected with status 503.
+ *
+ * Usage: GET /search?q=[query]&amp;k=[results]&amp;offset=[rank]&amp;score=[tfidf|bm25]&amp;processor=[daat|maxscore|wand|bmw|bmm|saat|svs|auto|tiered|rm3]&amp;type=[conjunctive|disjunctive]&amp;deadline=[milliseconds]&amp;f=[pruning factor]
+ * Every parameter except q is optional and defaults to the server configuration. A query exceeding its deadline
+ * returns the best results found so far, marked as approximate. A pruning factor f greater than 1 makes the dynamic
+ * pruning processors faster and approximate. The results are paged: k is the size of the page and offset the number of
+ * documents ranked before it, so the next page starts at offset + k; deep pages reuse the cached ranking of the query,
+ * and pages past MAX_PAGE_DEPTH are rejected.
+ * With SHARDED_QUERIES the queries are processed on all the shards of the sharded index at the same time.
+ * GET /stats returns the counters of the result cache, of the deadlines and of the tiered queries.
+ */
+public class MainServer {
+
+    private final MainQueries mainQueries; // shared index
+    private final ThreadPoolExecutor workers; // threads processing the queries, with a bounded queue
+    private final HttpServer httpServer;
+    private final int k;
+    private final String scoreType;
+    private final String documentProcessor;
+    private final String queryType;
+    private final boolean stopwordStemming;
+    private final String encodingType;
+
+    /**
+     * Constructor for MainServer class, loading the index.
+     *
+     * @param port              Port on which the server listens
+     * @param k                 Default number of top results to retrieve
+     * @param scoreType         Default type of document scoring
+     * @param documentProcessor Default way to process the posting lists (daat, maxscore, wand, bmw, bmm, saat, svs, auto, tiered, rm3)
+     * @param queryType         Default type of relation (conjunctive or disjunctive)
+     * @param stopwordStemming  Flag for enabling or disabling stopwords removal and stemming
+     * @param encodingType      Encoding type of the index
+     * @throws IOException If the server cannot be bound to the port
+     */
+    public MainServer(int port, int k, String scoreType, String documentProcessor, String queryType, boolean stopwordStemming, String encodingType) throws IOException {
+        this.k = k;
+        this.scoreType = scoreType;
+        this.documentProcessor = documentProcessor;
+        this.queryType = queryType;
+        this.stopwordStemming = stopwordStemming;
+        this.encodingType = encodingType;
+        this.mainQueries = new MainQueries(k, scoreType, documentProcessor, queryType, stopwordStemming, encodingType);
+        this.workers = new ThreadPoolExecutor(SERVER_THREADS, SERVER_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(SERVER_QUEUE_SIZE));
+
+        // The HTTP dispatcher only hands the requests over to the workers, so it can reject them when they are busy
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.httpServer.createContext("/search", this::dispatch);
+        this.httpServer.createContext("/stats", this::stats);
+    }
+
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * Stops accepting requests, waits for the queries in progress and releases the index.
+     */
+    public void stop() {
+        httpServer.stop(0);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mainQueries.queryProcessor.close();
+    }
+
+    // Submit the request to the workers, or reject it if the waiting queue is full.
+    private void dispatch(HttpExchange exchange) {
+        try {
+            workers.execute(() -> handle(exchange));
+        } catch (RejectedExecutionException e) {
+            sendResponse(exchange, 503, "*** SERVER BUSY, TRY AGAIN LATER ***\n");
+        }
+    }
+
+    /**
+     * Processes a search request and writes the ranked results as text, one document per line.
+     *
+     * @param exchange The HTTP request and response.
+     */
+    private void handle(HttpExchange exchange) {
+        HashMap<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+        String query = parameters.get("q");
+        String requestScore = parameters.getOrDefault("score", scoreType);
+        String requestProcessor = parameters.getOrDefault("processor", documentProcessor);
+        String requestType = parameters.getOrDefault("type", queryType);
+        int requestK;
+        int requestOffset;
+        long requestDeadline;
+        double requestPruningFactor;
+        try {
+            requestK = Integer.parseInt(parameters.getOrDefault("k", String.valueOf(k)));
+            requestOffset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+            requestDeadline = Long.parseLong(parameters.getOrDefault("deadline", String.valueOf(SERVER_DEADLINE_MILLIS)));
+            requestPruningFactor = Double.parseDouble(parameters.getOrDefault("f", String.valueOf(SERVER_PRUNING_FACTOR)));
+        } catch (NumberFormatException e) {
+            requestK = -1;
+            requestOffset = -1;
+            requestDeadline = -1;
+            requestPruningFactor = -1;
+        }
+
+        // Check the request settings before touching the index
+        if (query == null || query.isBlank() || requestK <= 0 || requestOffset < 0 || requestDeadline < 0
+                || (long) requestOffset + requestK > MAX_PAGE_DEPTH
+                || !(requestPruningFactor >= 1) || Double.isInfinite(requestPruningFactor)
+                || !MainQueries.SCORE_TYPES.contains(requestScore)
+                || !MainQueries.DOCUMENT_PROCESSORS.contains(requestProcessor)
+                || !MainQueries.QUERY_TYPES.contains(requestType)) {
+            sendResponse(exchange, 400, "*** WRONG REQUEST: q is required, k must be positive, offset and deadline not negative, offset + k at most " + MAX_PAGE_DEPTH + ", f at least 1, score in "
+                    + MainQueries.SCORE_TYPES + ", processor in " + MainQueries.DOCUMENT_PROCESSORS
+                    + ", type in " + MainQueries.QUERY_TYPES + " ***\n");
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            ResultPage page = mainQueries.searchPage(query, requestOffset, requestK, requestScore, requestProcessor, requestType, stopwordStemming, encodingType, requestDeadline, requestPruningFactor);
+            long end = System.currentTimeMillis();
+
+            StringBuilder response = new StringBuilder();
+            response.append("*** Time in milliseconds: ").append(end - start).append(" ***\n");
+            if (page.isApproximate()) response.append("*** APPROXIMATE RESULTS: THE DEADLINE EXPIRED ***\n");
+            response.append("POSITION DOCNO SCORE\n");
+            for (int i = 0; i < page.size(); i++) {
+                response.append(page.getRank(i)).append(") ").append(page.getDocNo(i)).append(" ")
+                        .append(page.getScore(i)).append("\n");
+            }
+            if (page.hasMore() && requestOffset + page.size() < MAX_PAGE_DEPTH) response.append("*** MORE RESULTS FROM offset=").append(requestOffset + page.size()).append(" ***\n");
+            sendResponse(exchange, 200, response.toString());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            sendResponse(exchange, 500, "*** ERROR DURING THE QUERY PROCESSING ***\n");
+        }
+    }
+
+    // Write the counters of the result cache, of the query deadlines and of the tiered queries.
+    private void stats(HttpExchange exchange) {
+        sendResponse(exchange, 200, "cache hits " + mainQueries.resultCache.getHits() + "\n"
+                + "cache misses " + mainQueries.resultCache.getMisses() + "\n"
+                + "deadline queries " + mainQueries.getDeadlineQueries() + "\n"
+                + "expired deadlines " + mainQueries.getExpiredDeadlines() + "\n"
+                + "tiered queries " + mainQueries.getTieredQueries() + "\n"
+                + "tiered fallbacks " + mainQueries.getTieredFallbacks() + "\n");
+    }
+
+    // Split the query string of the request into a map between parameter names and decoded values.
+    private static HashMap<String, String> parseParameters(String rawQuery) {
+        HashMap<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) return parameters;
+        for (String parameter : rawQuery.split("&")) {
+            String[] pair = parameter.split("=", 2);
+            if (pair.length == 2) {
+                parameters.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8), URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    // Write a text response with the given status and close the exchange.
+    private static void sendResponse(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream output = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            output.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The main method to start the server.
+     *
+     * @param args Optional encoding type of the index (bytes/text), default bytes
+     */
+    public static void main(String[] args) throws IOException {
+        System.out.println("*** MAIN SERVER ***");
+        String encodingType = args.length > 0 ? args[0] : "bytes";
+
+        System.out.println("\n*** LOADING STRUCTURES .... ***\n");
+        MainServer server = new MainServer(SERVER_PORT, 10, "bm25", "maxscore", "disjunctive", true, encodingType);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("*** LISTENING ON http://localhost:" + SERVER_PORT + "/search ***");
+    }
+}
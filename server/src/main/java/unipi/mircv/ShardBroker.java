@@ -0,0 +1,342 @@
+package unipi.mircv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The ShardBroker class processes the queries on the ShardServers, one process for each shard of the sharded index:
+ * it sends a query to all the shards at the same time over the ShardProtocol and merges their top-k documents, in
+ * shard order so that the ties are broken by docId as on the main index. The broker does not load any index.
+ * Every shard has SHARD_TIMEOUT_MILLIS to answer. A shard that does not answer in time, is not running or fails is
+ * left out: the documents of the other shards are returned, marked as partial, and the connection to the shard is
+ * closed, so that the next query opens a new one, for example to a restarted server. The connections that answered
+ * are kept open for the following queries.
+ */
+public class ShardBroker {
+
+    /**
+     * The merged top-k documents of a query, by decreasing score.
+     */
+    public static class Results {
+        public final int[] docIds;
+        public final int[] docNos;
+        public final double[] scores;
+        public final int shards; // number of shards of the index
+        public final int answeredShards; // number of shards whose documents were merged
+        public final boolean approximate; // true if the deadline of the query expired on some shard
+
+        private Results(int[] docIds, int[] docNos, double[] scores, int shards, int answeredShards, boolean approximate) {
+            this.docIds = docIds;
+            this.docNos = docNos;
+            this.scores = scores;
+            this.shards = shards;
+            this.answeredShards = answeredShards;
+            this.approximate = approximate;
+        }
+
+        public boolean isPartial() {
+            return answeredShards < shards;
+        }
+
+        public void printResults() {
+            if (isPartial()) System.out.print("\n*** PARTIAL RESULTS: " + answeredShards + " OF " + shards + " SHARDS ANSWERED ***");
+            if (approximate) System.out.print("\n*** APPROXIMATE RESULTS: THE DEADLINE EXPIRED ***");
+            System.out.print("\nPOSITION DOCNO SCORE");
+            System.out.print("\n--------------------------\n");
+            for (int i = 0; i < docNos.length; i++) {
+                System.out.print((i + 1) + ") " + docNos[i] + " " + scores[i] + "\n");
+            }
+        }
+    }
+
+    // An open connection to a shard server
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream input;
+        final DataOutputStream output;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final int shards;
+    private final int port; // port of the server of shard 0
+    private final long timeoutMillis; // time given to each shard to answer
+    private final ArrayList<ConcurrentLinkedQueue<Connection>> idleConnections; // connections of each shard not in use
+    private final ExecutorService fanOut; // threads waiting for the answers of the shards
+    private final AtomicLongArray failures; // queries each shard did not answer in time or failed
+
+    /**
+     * Constructor for ShardBroker class.
+     *
+     * @param shards        Number of shards, served on consecutive ports.
+     * @param port          Port of the server of shard 0.
+     * @param timeoutMillis Time given to each shard to answer a query, in milliseconds.
+     */
+    public ShardBroker(int shards, int port, long timeoutMillis) {
+        this.shards = shards;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.idleConnections = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            idleConnections.add(new ConcurrentLinkedQueue<>());
+        }
+        this.fanOut = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "broker-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.failures = new AtomicLongArray(shards);
+    }
+
+    /**
+     * Processes a query on all the shards and merges the top-k documents of those that answered in time.
+     *
+     * @param queryTerms        Terms of the query, already parsed
+     * @param k                 Number of top results to retrieve, from 1 to ShardProtocol.MAX_K
+     * @param scoreType         Type of document scoring (tfidf, bm25)
+     * @param documentProcessor How to process the posting lists, one of ShardCoordinator.SHARDED_PROCESSORS
+     * @param queryType         Type of relation (conjunctive or disjunctive)
+     * @param deadlineMillis    Time given to the query on each shard before returning approximate results, 0 for no limit
+     * @param pruningFactor     Factor F >= 1 of the pruning threshold, 1 for the exact top-k
+     * @return The merged results
+     */
+    public Results search(String[] queryTerms, int k, String scoreType, String documentProcessor, String queryType, long deadlineMillis, double pruningFactor) {
+        if (k <= 0 || k > ShardProtocol.MAX_K) {
+            throw new IllegalArgumentException("The number of results must be between 1 and " + ShardProtocol.MAX_K + ": " + k);
+        }
+        ShardProtocol.Request request = new ShardProtocol.Request(k, scoreType, documentProcessor, queryType, deadlineMillis, pruningFactor, queryTerms);
+        long expiration = System.nanoTime() + timeoutMillis * 1_000_000;
+
+        ArrayList<Future<ShardProtocol.Response>> pending = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int s = shard;
+            pending.add(fanOut.submit(() -> call(s, request, expiration)));
+        }
+
+        ShardProtocol.Response[] responses = new ShardProtocol.Response[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            try {
+                long remaining = Math.max(0, expiration - System.nanoTime());
+                responses[shard] = pending.get(shard).get(remaining, TimeUnit.NANOSECONDS);
+                if (responses[shard].status == ShardProtocol.STATUS_ERROR) {
+                    System.out.println("*** SHARD " + shard + ": " + responses[shard].error + " ***");
+                    responses[shard] = null;
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                // The call ends by itself at the expiration, closing its connection
+                responses[shard] = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            if (responses[shard] == null) failures.incrementAndGet(shard);
+        }
+        return merge(responses, k);
+    }
+
+    // Send the request to a shard and read its response, on an idle connection or on a new one.
+    private ShardProtocol.Response call(int shard, ShardProtocol.Request request, long expiration) throws IOException {
+        Connection connection = idleConnections.get(shard).poll();
+        try {
+            if (connection == null) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + shard), (int) Math.max(1, timeoutMillis));
+                socket.setTcpNoDelay(true);
+                connection = new Connection(socket);
+            }
+            connection.socket.setSoTimeout((int) Math.max(1, (expiration - System.nanoTime()) / 1_000_000));
+            ShardProtocol.writeRequest(connection.output, request);
+            ShardProtocol.Response response = ShardProtocol.readResponse(connection.input);
+            idleConnections.get(shard).add(connection);
+            return response;
+        } catch (IOException e) {
+            // The connection may hold a late response, so it is not reused
+            if (connection != null) connection.close();
+            throw e;
+        }
+    }
+
+    // Merge the documents of the shards that answered, in shard order: a document enters the heap only if it beats
+    // the k-th one, so the ties are kept by the lower shards, which hold the lower docIds.
+    private Results merge(ShardProtocol.Response[] responses, int k) {
+        TopKHeap scores = new TopKHeap(k);
+        HashMap<Integer, Integer> docNos = new HashMap<>();
+        int answeredShards = 0;
+        boolean approximate = false;
+        for (ShardProtocol.Response response : responses) {
+            if (response == null) continue;
+            answeredShards++;
+            approximate |= response.status == ShardProtocol.STATUS_APPROXIMATE;
+            for (int i = 0; i < response.docIds.length; i++) {
+                if (!scores.add(response.docIds[i], response.scores[i])) break;
+                docNos.put(response.docIds[i], response.docNos[i]);
+            }
+        }
+
+        List<DocsRanked> ranking = scores.getSortedResults();
+        int[] docIds = new int[ranking.size()];
+        int[] rankingDocNos = new int[ranking.size()];
+        double[] rankingScores = new double[ranking.size()];
+        for (int i = 0; i < docIds.length; i++) {
+            docIds[i] = ranking.get(i).getKey();
+            rankingDocNos[i] = docNos.get(docIds[i]);
+            rankingScores[i] = ranking.get(i).getValue();
+        }
+        return new Results(docIds, rankingDocNos, rankingScores, shards, answeredShards, approximate);
+    }
+
+    /**
+     * Returns the number of queries that a shard did not answer in time or failed.
+     *
+     * @param shard The index of the shard.
+     * @return The number of failed queries of the shard.
+     */
+    public long getFailures(int shard) {
+        return failures.get(shard);
+    }
+
+    /**
+     * Waits until every shard server accepts connections, for example after launching them.
+     *
+     * @param millis The maximum time to wait, in milliseconds.
+     * @return True if all the shard servers are up, false if some of them are not up yet.
+     */
+    public boolean awaitShards(long millis) {
+        long expiration = System.currentTimeMillis() + millis;
+        for (int shard = 0; shard < shards; shard++) {
+            while (true) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + shard), 1000);
+                    break;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > expiration) return false;
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the open connections to the shard servers.
+     */
+    public void close() {
+        fanOut.shutdownNow();
+        for (ConcurrentLinkedQueue<Connection> connections : idleConnections) {
+            Connection connection;
+            while ((connection = connections.poll()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Launches a ShardServer process for each shard, with the class path of this process and a maximum heap of
+     * SHARD_SERVER_HEAP. Their output is the one of this process.
+     *
+     * @param shards       Number of shards.
+     * @param encodingType Encoding type of the index.
+     * @return The processes of the shard servers.
+     * @throws IOException If a process cannot be started.
+     */
+    public static List<Process> launchShards(int shards, String encodingType) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ArrayList<Process> processes = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            processes.add(new ProcessBuilder(java, "-Xmx" + SHARD_SERVER_HEAP, "-cp", System.getProperty("java.class.path"),
+                    ShardServer.class.getName(), String.valueOf(shard), encodingType).inheritIO().start());
+        }
+        return processes;
+    }
+
+    // Reads the number of shards of the sharded index, 0 if it has not been written.
+    private static int readShards() {
+        if (!new File(SHARDS_INFO_PATH).exists()) return 0;
+        TextReader shardsInfoRead = new TextReader(SHARDS_INFO_PATH);
+        int shards = Integer.parseInt(shardsInfoRead.readLine().split(" ")[0]);
+        shardsInfoRead.close();
+        return shards;
+    }
+
+    /**
+     * The main method of the broker, processing the queries read from the standard input.
+     *
+     * @param args Optional: "launch" to start the shard servers as child processes, and the encoding type of the
+     *             index (bytes/text), default bytes
+     */
+    public static void main(String[] args) throws IOException {
+        System.out.println("*** SHARD BROKER ***");
+        boolean launch = args.length > 0 && args[0].equals("launch");
+        String encodingType = args.length > 1 ? args[1] : "bytes";
+
+        int shards = readShards();
+        if (shards < 2) {
+            System.out.println("*** The sharded index is not available. ***");
+            return;
+        }
+        ShardBroker broker = new ShardBroker(shards, SHARD_SERVER_PORT, SHARD_TIMEOUT_MILLIS);
+        List<Process> processes = launch ? launchShards(shards, encodingType) : new ArrayList<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            broker.close();
+            processes.forEach(Process::destroy);
+        }));
+        if (!broker.awaitShards(launch ? 60_000 : SHARD_TIMEOUT_MILLIS)) {
+            System.out.println("*** SOME SHARDS ARE NOT RUNNING: THEIR DOCUMENTS WILL BE MISSING ***");
+        }
+
+        Scanner scanner = new Scanner(System.in);
+        while (true) {
+            System.out.print("*** INSERT A QUERY: \n");
+            if (!scanner.hasNextLine()) break;
+            String query = scanner.nextLine();
+            String parsed = Parser.processDocument(query, true);
+            if (parsed.isBlank()) continue;
+
+            long start = System.currentTimeMillis();
+            Results results = broker.search(parsed.split(" "), 10, "bm25", "maxscore", "disjunctive", SERVER_DEADLINE_MILLIS, SERVER_PRUNING_FACTOR);
+            long end = System.currentTimeMillis();
+
+            System.out.println("*** Time in milliseconds: " + (end - start) + " ***");
+            results.printResults();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,159 @@
+package unipi.mircv;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static unipi.mircv.Parameters.MAX_PAGE_DEPTH;
+
+/**
+ * The binary protocol between the ShardBroker and the ShardServers, over TCP on localhost. A connection carries any
+ * number of requests, one at a time, each followed by its response.
+ *
+ * Request: k (int), score type, document processor and query type (one byte each, their indexes in the lists of
+ * MainQueries), deadline in milliseconds (long, 0 for no limit), pruning factor (double), number of query terms
+ * (short) and the terms (modified UTF-8).
+ * Response: a status byte; for STATUS_ERROR a message (modified UTF-8), otherwise the number of documents (int) and
+ * for each document, by decreasing score, its docId (int), its docNo (int) and its score (double).
+ * A request for no documents, a request or a response with more than MAX_K documents and a response with an unknown
+ * status are not valid.
+ */
+public class ShardProtocol {
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_APPROXIMATE = 1; // the deadline of the query expired on the shard
+    public static final byte STATUS_ERROR = 2;
+    public static final int MAX_K = MAX_PAGE_DEPTH; // maximum number of documents of a request and of a response
+
+    /**
+     * A query sent to a shard.
+     */
+    public static class Request {
+        public final int k;
+        public final String scoreType;
+        public final String documentProcessor;
+        public final String queryType;
+        public final long deadlineMillis;
+        public final double pruningFactor;
+        public final String[] terms;
+
+        public Request(int k, String scoreType, String documentProcessor, String queryType, long deadlineMillis, double pruningFactor, String[] terms) {
+            this.k = k;
+            this.scoreType = scoreType;
+            this.documentProcessor = documentProcessor;
+            this.queryType = queryType;
+            this.deadlineMillis = deadlineMillis;
+            this.pruningFactor = pruningFactor;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * The top-k documents of a shard, by decreasing score, or the error that stopped the query.
+     */
+    public static class Response {
+        public final byte status;
+        public final int[] docIds;
+        public final int[] docNos;
+        public final double[] scores;
+        public final String error; // null unless the status is STATUS_ERROR
+
+        public Response(byte status, int[] docIds, int[] docNos, double[] scores, String error) {
+            this.status = status;
+            this.docIds = docIds;
+            this.docNos = docNos;
+            this.scores = scores;
+            this.error = error;
+        }
+
+        public static Response error(String error) {
+            return new Response(STATUS_ERROR, new int[0], new int[0], new double[0], error);
+        }
+    }
+
+    public static void writeRequest(DataOutputStream output, Request request) throws IOException {
+        output.writeInt(request.k);
+        output.writeByte(MainQueries.SCORE_TYPES.indexOf(request.scoreType));
+        output.writeByte(MainQueries.DOCUMENT_PROCESSORS.indexOf(request.documentProcessor));
+        output.writeByte(MainQueries.QUERY_TYPES.indexOf(request.queryType));
+        output.writeLong(request.deadlineMillis);
+        output.writeDouble(request.pruningFactor);
+        output.writeShort(request.terms.length);
+        for (String term : request.terms) {
+            output.writeUTF(term);
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads a request, checking its settings.
+     *
+     * @param input The input stream of the connection.
+     * @return The request.
+     * @throws IOException If the connection fails or is closed, or the request is not valid.
+     */
+    public static Request readRequest(DataInputStream input) throws IOException {
+        int k = input.readInt();
+        int scoreType = input.readByte();
+        int documentProcessor = input.readByte();
+        int queryType = input.readByte();
+        long deadlineMillis = input.readLong();
+        double pruningFactor = input.readDouble();
+        String[] terms = new String[input.readUnsignedShort()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = input.readUTF();
+        }
+        if (k <= 0 || k > MAX_K || scoreType < 0 || scoreType >= MainQueries.SCORE_TYPES.size()
+                || documentProcessor < 0 || documentProcessor >= MainQueries.DOCUMENT_PROCESSORS.size()
+                || queryType < 0 || queryType >= MainQueries.QUERY_TYPES.size()) {
+            throw new IOException("Wrong shard request");
+        }
+        return new Request(k, MainQueries.SCORE_TYPES.get(scoreType), MainQueries.DOCUMENT_PROCESSORS.get(documentProcessor),
+                MainQueries.QUERY_TYPES.get(queryType), deadlineMillis, pruningFactor, terms);
+    }
+
+    public static void writeResponse(DataOutputStream output, Response response) throws IOException {
+        output.writeByte(response.status);
+        if (response.status == STATUS_ERROR) {
+            output.writeUTF(response.error);
+        } else {
+            output.writeInt(response.docIds.length);
+            for (int i = 0; i < response.docIds.length; i++) {
+                output.writeInt(response.docIds[i]);
+                output.writeInt(response.docNos[i]);
+                output.writeDouble(response.scores[i]);
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads a response, checking its status and its number of documents.
+     *
+     * @param input The input stream of the connection.
+     * @return The response.
+     * @throws IOException If the connection fails or is closed, or the response is not valid.
+     */
+    public static Response readResponse(DataInputStream input) throws IOException {
+        byte status = input.readByte();
+        if (status == STATUS_ERROR) {
+            return Response.error(input.readUTF());
+        }
+        if (status != STATUS_OK && status != STATUS_APPROXIMATE) {
+            throw new IOException("Wrong shard response");
+        }
+        int n = input.readInt();
+        if (n < 0 || n > MAX_K) {
+            throw new IOException("Wrong shard response");
+        }
+        int[] docIds = new int[n];
+        int[] docNos = new int[n];
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            docIds[i] = input.readInt();
+            docNos[i] = input.readInt();
+            scores[i] = input.readDouble();
+        }
+        return new Response(status, docIds, docNos, scores, null);
+    }
+}
@@ -0,0 +1,179 @@
+package unipi.mircv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static unipi.mircv.Parameters.*;
+
+/**
+ * The ShardServer class serves the top-k documents of a single shard of the sharded index, in its own process, to the
+ * ShardBroker over the binary ShardProtocol on localhost. It keeps in memory the lexicon and the collection statistics
+ * of the whole collection, so that the scores are those of the main index, but the document index and the document
+ * lengths only for the range of docIds of its shard, described by SHARDS_INFO_PATH; it reads only the posting lists
+ * of its shard: the posting files of the main index are not opened.
+ * Every connection is served by its own thread, and the index is shared by all of them.
+ *
+ * Usage: ShardServer [shard] [encoding type], listening on SHARD_SERVER_PORT + shard.
+ */
+public class ShardServer {
+
+    private final int shard;
+    private final String encodingType;
+    private final QueryProcessor collection; // statistics of the whole collection and documents of the shard, without posting files
+    private final QueryProcessor shardProcessor; // posting lists of the shard
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections; // one thread for each connection of the broker
+
+    /**
+     * Constructor for ShardServer class, loading the index of the shard.
+     *
+     * @param shard        The index of the shard.
+     * @param port         Port on which the server listens.
+     * @param encodingType Encoding type of the index.
+     * @throws IOException If the shard is not in the sharded index or the server cannot be bound to the port.
+     */
+    public ShardServer(int shard, int port, String encodingType) throws IOException {
+        if (!IndexPaths.shard(shard).exists(encodingType) || !new File(SHARDS_INFO_PATH).exists()) {
+            throw new IOException("The shard " + shard + " is not in the sharded index");
+        }
+        this.shard = shard;
+        this.encodingType = encodingType;
+        int shardLength = readShardLength();
+        this.collection = new QueryProcessor(encodingType, shard * shardLength, (int) Math.min(Integer.MAX_VALUE, (long) (shard + 1) * shardLength));
+        this.shardProcessor = new QueryProcessor(collection, IndexPaths.shard(shard));
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Reads the number of consecutive docIds of each shard of the sharded index.
+    private static int readShardLength() {
+        TextReader shardsInfoRead = new TextReader(SHARDS_INFO_PATH);
+        int shardLength = Integer.parseInt(shardsInfoRead.readLine().split(" ")[1]);
+        shardsInfoRead.close();
+        return shardLength;
+    }
+
+    /**
+     * Starts accepting the connections of the broker in a new thread.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.execute(() -> serve(socket));
+                } catch (SocketException e) {
+                    // The server socket has been closed by stop
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "shard-acceptor");
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections, closes the open ones and releases the index.
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connections.shutdownNow();
+        if (!encodingType.equals("text")) shardProcessor.closeByteLookupFiles();
+        collection.close();
+    }
+
+    // Answer the requests of a connection until the broker closes it.
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            while (true) {
+                ShardProtocol.Request request;
+                try {
+                    request = ShardProtocol.readRequest(input);
+                } catch (EOFException e) {
+                    return; // The broker closed the connection
+                }
+                ShardProtocol.writeResponse(output, search(request));
+            }
+        } catch (IOException e) {
+            // A broken connection only ends its own requests: the broker opens a new one
+            System.out.println("*** SHARD " + shard + ": CONNECTION CLOSED, " + e.getMessage() + " ***");
+        }
+    }
+
+    /**
+     * Processes a request on the shard with the scoring function of the whole collection.
+     *
+     * @param request The request of the broker.
+     * @return The top-k documents of the shard, or the error that stopped the query.
+     */
+    public ShardProtocol.Response search(ShardProtocol.Request request) {
+        if (!ShardCoordinator.SHARDED_PROCESSORS.contains(request.documentProcessor)) {
+            return ShardProtocol.Response.error("The processor " + request.documentProcessor + " cannot run on a shard");
+        }
+        if (!(request.pruningFactor >= 1) || Double.isInfinite(request.pruningFactor)) {
+            return ShardProtocol.Response.error("The pruning factor must be at least 1");
+        }
+        try {
+            Deadline deadline = Deadline.after(request.deadlineMillis);
+            ScoreFunction x = new ScoreFunction(request.terms, collection, request.scoreType, deadline, request.pruningFactor);
+            TopKHeap scores = MainQueries.scoreIndex(request.terms, shardProcessor, x.forShard(shardProcessor, shard, null),
+                    request.k, request.scoreType, request.documentProcessor, request.queryType, encodingType);
+
+            List<DocsRanked> ranking = scores.getSortedResults();
+            int[] docIds = new int[ranking.size()];
+            int[] docNos = new int[ranking.size()];
+            double[] documentScores = new double[ranking.size()];
+            for (int i = 0; i < docIds.length; i++) {
+                docIds[i] = ranking.get(i).getKey();
+                docNos[i] = collection.getDocIndex().getDocIndex().get(docIds[i]).getDocNo();
+                documentScores[i] = ranking.get(i).getValue();
+            }
+            byte status = deadline.isExpired() ? ShardProtocol.STATUS_APPROXIMATE : ShardProtocol.STATUS_OK;
+            return new ShardProtocol.Response(status, docIds, docNos, documentScores, null);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return ShardProtocol.Response.error("Error during the query processing on shard " + shard);
+        }
+    }
+
+    /**
+     * The main method to start the server of a shard.
+     *
+     * @param args The index of the shard, default 0, and optionally the encoding type of the index (bytes/text),
+     *             default bytes
+     */
+    public static void main(String[] args) throws IOException {
+        int shard = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        String encodingType = args.length > 1 ? args[1] : "bytes";
+        System.out.println("*** SHARD SERVER " + shard + " ***");
+
+        System.out.println("\n*** LOADING STRUCTURES .... ***\n");
+        ShardServer server = new ShardServer(shard, SHARD_SERVER_PORT + shard, encodingType);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("*** SHARD " + shard + " LISTENING ON PORT " + (SHARD_SERVER_PORT + shard) + " ***");
+    }
+}
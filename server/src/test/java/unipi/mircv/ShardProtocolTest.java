@@ -0,0 +1,91 @@
+package unipi.mircv;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the requests and the responses between the ShardBroker and the ShardServers are read as they were
+ * written, and that the invalid ones are rejected.
+ */
+public class ShardProtocolTest {
+
+    @Test
+    public void requestRoundTrips() throws IOException {
+        ShardProtocol.Request request = new ShardProtocol.Request(100, "bm25", "bmw", "conjunctive", 250, 1.5,
+                new String[]{"manhattan", "project", "café"});
+        ShardProtocol.Request read = ShardProtocol.readRequest(input(output -> ShardProtocol.writeRequest(output, request)));
+        assertEquals(request.k, read.k);
+        assertEquals(request.scoreType, read.scoreType);
+        assertEquals(request.documentProcessor, read.documentProcessor);
+        assertEquals(request.queryType, read.queryType);
+        assertEquals(request.deadlineMillis, read.deadlineMillis);
+        assertEquals(request.pruningFactor, read.pruningFactor);
+        assertArrayEquals(request.terms, read.terms);
+    }
+
+    @Test
+    public void responseRoundTrips() throws IOException {
+        ShardProtocol.Response response = new ShardProtocol.Response(ShardProtocol.STATUS_APPROXIMATE,
+                new int[]{7, 3, 12}, new int[]{70, 30, 120}, new double[]{4.5, 2.25, 2.25}, null);
+        ShardProtocol.Response read = ShardProtocol.readResponse(input(output -> ShardProtocol.writeResponse(output, response)));
+        assertEquals(response.status, read.status);
+        assertArrayEquals(response.docIds, read.docIds);
+        assertArrayEquals(response.docNos, read.docNos);
+        assertArrayEquals(response.scores, read.scores);
+        assertNull(read.error);
+
+        ShardProtocol.Response error = ShardProtocol.readResponse(input(output ->
+                ShardProtocol.writeResponse(output, ShardProtocol.Response.error("No index"))));
+        assertEquals(ShardProtocol.STATUS_ERROR, error.status);
+        assertEquals("No index", error.error);
+        assertEquals(0, error.docIds.length);
+    }
+
+    @Test
+    public void rejectsInvalidRequests() {
+        for (int k : new int[]{0, -1, ShardProtocol.MAX_K + 1}) {
+            ShardProtocol.Request request = new ShardProtocol.Request(k, "bm25", "daat", "disjunctive", 0, 1, new String[]{"term"});
+            assertThrows(IOException.class, () -> ShardProtocol.readRequest(input(output -> ShardProtocol.writeRequest(output, request))), "k=" + k);
+        }
+        ShardProtocol.Request unknownProcessor = new ShardProtocol.Request(10, "bm25", "unknown", "disjunctive", 0, 1, new String[]{"term"});
+        assertThrows(IOException.class, () -> ShardProtocol.readRequest(input(output -> ShardProtocol.writeRequest(output, unknownProcessor))));
+    }
+
+    @Test
+    public void rejectsInvalidResponses() {
+        assertThrows(IOException.class, () -> ShardProtocol.readResponse(input(output -> {
+            output.writeByte(7);
+            output.writeInt(0);
+        })), "Unknown status");
+        assertThrows(IOException.class, () -> ShardProtocol.readResponse(input(output -> {
+            output.writeByte(ShardProtocol.STATUS_OK);
+            output.writeInt(ShardProtocol.MAX_K + 1);
+        })), "Too many documents");
+        assertThrows(IOException.class, () -> ShardProtocol.readResponse(input(output -> {
+            output.writeByte(ShardProtocol.STATUS_OK);
+            output.writeInt(2);
+            output.writeInt(1);
+        })), "Truncated response");
+    }
+
+    private interface Writer {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    // Returns a stream reading what the writer wrote
+    private static DataInputStream input(Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(bytes));
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}